@@ -1,6 +1,8 @@
 package com.snet.config;
 
+import com.snet.service.TransferAdmissionService;
 import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -27,6 +29,14 @@ public class GlobalExceptionHandler {
                 "Kích thước file vượt quá giới hạn cho phép trên server");
     }
 
+    @ExceptionHandler(TransferAdmissionService.RejectedException.class)
+    public ResponseEntity<Map<String, Object>> handleOverloaded(TransferAdmissionService.RejectedException ex) {
+        // Over the media transfer budget, the client should back off and retry
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(build(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage()).getBody());
+    }
+
     @ExceptionHandler(DataAccessException.class)
     public ResponseEntity<Map<String, Object>> handleDataAccess(DataAccessException ex) {
         // Log chi tiết lỗi
@@ -1,5 +1,6 @@
 package com.snet.config;
 
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
@@ -38,11 +39,13 @@ public class SecurityConfig {
                 .csrf(AbstractHttpConfigurer::disable)
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                 .authorizeHttpRequests(auth -> auth
+                        // Async dispatches (streamed ZIP export) were already authorized on the original request
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/api/auth/**", "/api/public/**", "/ws/**").permitAll()
                         .requestMatchers("/api/posts/share/*/qrcode", "/api/posts/share/*/info", "/api/posts/share/*").permitAll()
                         .requestMatchers("/api/posts/test-qr").permitAll()
                         .requestMatchers("/api/users/*/avatar", "/api/users/*/cover").permitAll()
-                        .requestMatchers("/api/files/*/public-preview", "/api/files/*/thumbnail").permitAll()
+                        .requestMatchers("/api/files/*/public-preview", "/api/files/*/thumbnail", "/api/files/thumbnails").permitAll()
                         .requestMatchers("/swagger-ui/**", "/v3/api-docs/**", "/swagger-ui.html").permitAll()
                         .requestMatchers("/api/admin/**").hasRole("ADMIN")
                         .requestMatchers("/api/video/*/stream").authenticated()
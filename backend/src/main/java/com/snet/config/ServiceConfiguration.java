@@ -1,6 +1,8 @@
 package com.snet.config;
 
 import com.snet.service.FileService;
+import com.snet.service.MediaProcessingService;
+import com.snet.service.RenditionService;
 import com.snet.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
@@ -16,10 +18,19 @@ public class ServiceConfiguration {
     @Autowired
     private FileService fileService;
     
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private MediaProcessingService mediaProcessingService;
+    
     @PostConstruct
     public void init() {
         // Wire FileService into UserService after both are initialized
         userService.setFileService(fileService);
+        fileService.setRenditionService(renditionService);
+        fileService.setMediaProcessingService(mediaProcessingService);
+        mediaProcessingService.setFileService(fileService);
     }
 }
 
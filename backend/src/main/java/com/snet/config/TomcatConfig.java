@@ -14,6 +14,7 @@ import org.springframework.context.annotation.Configuration;
  * - Increases socket buffer sizes
  * - Disables Nagle's algorithm (TCP_NODELAY)
  * - Optimizes send buffer
+ * - Enables sendfile for zero-copy file transfers
  * - Improves throughput for large file transfers
  */
 @Configuration
@@ -38,8 +39,8 @@ public class TomcatConfig {
                 connector.setProperty("socket.txBufSize", "8388608");       // 8MB TCP send buffer
                 connector.setProperty("socket.rxBufSize", "8388608");       // 8MB TCP receive buffer
                 
-                // Optimize for throughput over latency
-                protocol.setUseSendfile(false);  // Disable sendfile for BLOB data from DB
+                // Payloads live on disk now, let MediaStreamService hand large ranges to sendfile
+                protocol.setUseSendfile(true);
                 
                 // Additional performance tuning
                 connector.setProperty("socket.directBuffer", "true");        // Use direct buffers
@@ -49,7 +50,7 @@ public class TomcatConfig {
                 System.out.println("   - TCP_NODELAY: true");
                 System.out.println("   - Socket buffers: 8MB (read/write/tx/rx)");
                 System.out.println("   - Direct buffers: enabled");
-                System.out.println("   - Sendfile: disabled");
+                System.out.println("   - Sendfile: enabled");
             }
         });
     }
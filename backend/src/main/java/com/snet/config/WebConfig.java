@@ -1,6 +1,10 @@
 package com.snet.config;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -8,7 +12,16 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
  * Web configuration for optimizing file download speed
  */
 @Configuration
-public class WebConfig implements WebMvcConfigurer {
+public class WebConfig implements WebMvcConfigurer, DisposableBean {
+    
+    @Value("${file.export.threads:8}")
+    private int asyncThreads;
+    
+    @Value("${file.export.timeout-ms:3600000}")
+    private long asyncTimeout;
+    
+    // Not a bean, so Boot's default applicationTaskExecutor stays in place
+    private ThreadPoolTaskExecutor asyncExecutor;
     
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
@@ -17,5 +30,24 @@ public class WebConfig implements WebMvcConfigurer {
                 .addResourceLocations("classpath:/static/")
                 .setCachePeriod(3600); // 1 hour cache
     }
+    
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // Streamed responses (ZIP export) are written here, the Tomcat request thread is released meanwhile
+        asyncExecutor = new ThreadPoolTaskExecutor();
+        asyncExecutor.setCorePoolSize(asyncThreads);
+        asyncExecutor.setMaxPoolSize(asyncThreads);
+        asyncExecutor.setQueueCapacity(100);
+        asyncExecutor.setThreadNamePrefix("mvc-async-");
+        asyncExecutor.initialize();
+        configurer.setTaskExecutor(asyncExecutor);
+        configurer.setDefaultTimeout(asyncTimeout);
+    }
+    
+    @Override
+    public void destroy() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
 }
-
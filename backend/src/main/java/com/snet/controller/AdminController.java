@@ -1,11 +1,28 @@
 package com.snet.controller;
 
 import com.snet.dto.AdminLogResponse;
+import com.snet.dto.BandwidthStats;
 import com.snet.dto.DashboardStats;
 import com.snet.dto.FileResponse;
+import com.snet.dto.ImageCacheStats;
+import com.snet.dto.MediaProcessingStats;
+import com.snet.dto.StorageGcReport;
+import com.snet.dto.StorageTierStats;
+import com.snet.dto.TransferAdmissionStats;
 import com.snet.dto.UserResponse;
 import com.snet.model.*;
 import com.snet.repository.*;
+import com.snet.service.BandwidthShaper;
+import com.snet.service.BlobReferenceService;
+import com.snet.service.FileAccessService;
+import com.snet.service.ImageCache;
+import com.snet.service.MediaProcessingService;
+import com.snet.service.RenditionService;
+import com.snet.service.StorageGarbageCollector;
+import com.snet.service.StorageQuotaService;
+import com.snet.service.StorageTierService;
+import com.snet.service.TransferAdmissionService;
+import com.snet.service.UploadSessionService;
 import com.snet.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -41,6 +58,18 @@ public class AdminController {
     private final FriendshipRepository friendshipRepository;
     private final ChatGroupRepository chatGroupRepository;
     private final PostRepository postRepository;
+    private final BlobReferenceRepository blobReferenceRepository;
+    private final BlobReferenceService blobReferenceService;
+    private final RenditionService renditionService;
+    private final MediaProcessingService mediaProcessingService;
+    private final ImageCache imageCache;
+    private final StorageQuotaService storageQuotaService;
+    private final TransferAdmissionService transferAdmissionService;
+    private final BandwidthShaper bandwidthShaper;
+    private final StorageTierService storageTierService;
+    private final StorageGarbageCollector storageGarbageCollector;
+    private final UploadSessionService uploadSessionService;
+    private final FileAccessService fileAccessService;
     
     // Dashboard Statistics
     @GetMapping("/dashboard/stats")
@@ -68,6 +97,8 @@ public class AdminController {
         Long totalFileSize = fileMetadataRepository.sumFileSizeByDeletedFalse();
         if (totalFileSize == null) totalFileSize = 0L;
         
+        Object[] blobSizes = blobReferenceRepository.sumLogicalAndStoredSize().get(0);
+        
         DashboardStats stats = DashboardStats.builder()
                 .totalUsers(totalUsers)
                 .activeUsers(activeUsers)
@@ -76,6 +107,8 @@ public class AdminController {
                 .totalMessages(totalMessages)
                 .totalStorageUsed(totalStorageUsed)
                 .totalStorageQuota(totalStorageQuota)
+                .blobLogicalSize(((Number) blobSizes[0]).longValue())
+                .blobStoredSize(((Number) blobSizes[1]).longValue())
                 .build();
         
         return ResponseEntity.ok(stats);
@@ -124,8 +157,7 @@ public class AdminController {
             @RequestParam Long quota) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
-        user.setStorageQuota(quota);
-        userRepository.save(user);
+        storageQuotaService.updateQuota(userId, quota);
         
         logAdminAction(authentication, "UPDATE_QUOTA", 
                 "Updated quota for user: " + user.getEmail() + " to " + quota, "User", userId);
@@ -160,6 +192,57 @@ public class AdminController {
         return ResponseEntity.ok().build();
     }
     
+    // Media Processing
+    @GetMapping("/media/processing")
+    @Operation(summary = "Get media processing metrics", description = "Queue depth, worker usage and task latency of the background image executor")
+    public ResponseEntity<MediaProcessingStats> getMediaProcessingStats() {
+        return ResponseEntity.ok(mediaProcessingService.getStats());
+    }
+    
+    @GetMapping("/media/image-cache")
+    @Operation(summary = "Get image cache metrics", description = "Hit/miss/eviction counters and weight of the in-memory image cache")
+    public ResponseEntity<ImageCacheStats> getImageCacheStats() {
+        return ResponseEntity.ok(imageCache.getStats());
+    }
+    
+    @GetMapping("/media/admission")
+    @Operation(summary = "Get transfer admission metrics", description = "Transfers in flight, buffered bytes and queued/rejected counts of media admission control")
+    public ResponseEntity<TransferAdmissionStats> getTransferAdmissionStats() {
+        return ResponseEntity.ok(transferAdmissionService.getStats());
+    }
+    
+    @GetMapping("/storage/tiers")
+    @Operation(summary = "Get storage tier metrics", description = "Files and bytes per tier, archive/promotion counts and read latency per tier")
+    public ResponseEntity<StorageTierStats> getStorageTierStats() {
+        return ResponseEntity.ok(storageTierService.getStats());
+    }
+    
+    @PostMapping("/storage/gc")
+    @Operation(summary = "Run storage garbage collection", description = "Reclaim orphaned blobs, renditions, upload parts and stale QR codes; dry run by default")
+    public ResponseEntity<StorageGcReport> runStorageGc(
+            Authentication authentication,
+            @RequestParam(defaultValue = "true") boolean dryRun) {
+        StorageGcReport report = storageGarbageCollector.collect(dryRun);
+        if (!dryRun) {
+            logAdminAction(authentication, "STORAGE_GC",
+                    "Reclaimed " + report.getReclaimedBytes() + " bytes of orphaned storage", "Storage", null);
+        }
+        return ResponseEntity.ok(report);
+    }
+    
+    @GetMapping("/storage/gc")
+    @Operation(summary = "Get last storage garbage collection report", description = "Report of the last scheduled or manual run, empty before the first")
+    public ResponseEntity<StorageGcReport> getStorageGcReport() {
+        StorageGcReport report = storageGarbageCollector.getLastReport();
+        return report != null ? ResponseEntity.ok(report) : ResponseEntity.noContent().build();
+    }
+    
+    @GetMapping("/media/bandwidth")
+    @Operation(summary = "Get bandwidth shaping metrics", description = "Shaped streams by traffic class, allocated rate and time spent throttled")
+    public ResponseEntity<BandwidthStats> getBandwidthStats() {
+        return ResponseEntity.ok(bandwidthShaper.getStats());
+    }
+    
     // File Management
     @GetMapping("/files")
     @Operation(summary = "Get all files", description = "Get all non-deleted files, optionally filtered by category")
@@ -204,10 +287,8 @@ public class AdminController {
         publicShareRepository.deleteByFileId(fileId);
         
         // Step 4: Update user storage BEFORE deleting file
-        User user = file.getUser();
-        user.setStorageUsed(user.getStorageUsed() - file.getFileSize());
-        userRepository.save(user);
-        System.out.println("💾 Updated user storage: " + user.getStorageUsed() + " bytes");
+        storageQuotaService.release(file.getUser().getId(), file.getFileSize());
+        System.out.println("💾 Released " + file.getFileSize() + " bytes of user storage");
         
         // Step 5: Log action BEFORE deleting (so we can still reference file properties)
         logAdminAction(authentication, "DELETE_FILE", 
@@ -215,6 +296,9 @@ public class AdminController {
         
         // Step 6: HARD DELETE - Remove file from database completely
         fileMetadataRepository.delete(file);
+        blobReferenceService.release(file.getStorageKey());
+        renditionService.invalidate(RenditionSource.FILE, fileId);
+        fileAccessService.invalidateFile(fileId);
         System.out.println("✅ File permanently deleted from database!");
         
         return ResponseEntity.ok().build();
@@ -293,18 +377,29 @@ public class AdminController {
                 messageRepository.deleteByGroupId(group.getId());
                 // Then delete the group itself
                 chatGroupRepository.delete(group);
+                renditionService.invalidate(RenditionSource.GROUP_AVATAR, group.getId());
             }
             
             // 5. Delete all friendships involving this user
             friendshipRepository.deleteByUser(user);
             friendshipRepository.deleteByFriend(user);
             
-            // 6. Delete all files of this user
+            // 6. Delete upload sessions (their part files go after commit) and all files of this user
+            uploadSessionService.deleteSessionsOfUser(user);
             List<FileMetadata> userFiles = fileMetadataRepository.findByUser(user);
             fileMetadataRepository.deleteAll(userFiles);
+            userFiles.forEach(file -> {
+                blobReferenceService.release(file.getStorageKey());
+                renditionService.invalidate(RenditionSource.FILE, file.getId());
+            });
+            renditionService.invalidate(RenditionSource.USER_AVATAR, user.getId());
+            renditionService.invalidate(RenditionSource.USER_COVER, user.getId());
             
             // 7. Finally delete the user
             userRepository.delete(user);
+            storageQuotaService.forget(userId);
+            // Deleted group chats and friendships revoke access of many viewers to many files
+            fileAccessService.invalidateAll();
             
             logAdminAction(authentication, "DELETE_USER", 
                     "Permanently deleted user and all associated data: " + user.getEmail(), "User", userId);
@@ -338,6 +433,9 @@ public class AdminController {
         
         message.setDeleted(true);
         messageRepository.save(message);
+        if (message.getFile() != null) {
+            fileAccessService.invalidateFile(message.getFile().getId());
+        }
         
         logAdminAction(authentication, "DELETE_MESSAGE", 
                 "Deleted message ID: " + messageId, "Message", messageId);
@@ -420,6 +518,8 @@ public class AdminController {
                 .userId(file.getUser().getId())
                 .uploaderName(file.getUser().getDisplayName())
                 .deleted(file.isDeleted())
+                .processingStatus(file.getProcessingStatus() != null
+                        ? file.getProcessingStatus().name() : ProcessingStatus.READY.name())
                 .build();
     }
 }
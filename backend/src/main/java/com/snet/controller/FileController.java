@@ -1,26 +1,41 @@
 package com.snet.controller;
 
 import com.snet.dto.FileResponse;
+import com.snet.model.FileCategory;
 import com.snet.model.FileMetadata;
-import com.snet.repository.FileMetadataRepository;
+import com.snet.model.RenditionSource;
+import com.snet.service.BandwidthShaper;
+import com.snet.service.FileExportService;
 import com.snet.service.FileService;
+import com.snet.service.MediaStreamService;
+import com.snet.service.RenditionService;
+import com.snet.service.ThumbnailBatchService;
+import com.snet.service.TransferAdmissionService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/api/files")
@@ -30,16 +45,43 @@ import java.util.List;
 public class FileController {
     
     private final FileService fileService;
-    private final FileMetadataRepository fileMetadataRepository;
+    private final MediaStreamService mediaStreamService;
+    private final RenditionService renditionService;
+    private final TransferAdmissionService transferAdmissionService;
+    private final BandwidthShaper bandwidthShaper;
+    private final FileExportService fileExportService;
+    private final ThumbnailBatchService thumbnailBatchService;
     
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Upload file", description = "Upload image, video or document file")
     public ResponseEntity<FileResponse> uploadFile(
             Authentication authentication,
             @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) String description,
+            @RequestParam(required = false) String sha256,
+            HttpServletRequest request) throws IOException {
+        String userEmail = authentication.getName();
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.admitTransfer(
+                TransferAdmissionService.clientKey(authentication, request))) {
+            return ResponseEntity.ok(fileService.uploadFile(userEmail, file, description, sha256));
+        }
+    }
+    
+    @PostMapping(value = "/stream", consumes = MediaType.ALL_VALUE)
+    @Operation(summary = "Upload file as raw body", description = "Stream the request body straight to storage without multipart buffering")
+    public ResponseEntity<FileResponse> uploadFileStream(
+            Authentication authentication,
+            HttpServletRequest request,
+            @RequestHeader("X-File-Name") String fileName,
+            @RequestHeader(value = "X-Content-SHA256", required = false) String contentHash,
             @RequestParam(required = false) String description) throws IOException {
         String userEmail = authentication.getName();
-        return ResponseEntity.ok(fileService.uploadFile(userEmail, file, description));
+        String decodedName = URLDecoder.decode(fileName, StandardCharsets.UTF_8);
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.admitTransfer(
+                TransferAdmissionService.clientKey(authentication, request))) {
+            return ResponseEntity.ok(fileService.uploadStream(userEmail, request.getInputStream(), decodedName,
+                    request.getContentType(), request.getContentLengthLong(), description, contentHash));
+        }
     }
     
     @GetMapping("/{fileId}")
@@ -48,71 +90,86 @@ public class FileController {
     }
     
     @GetMapping("/{fileId}/download")
-    public ResponseEntity<Resource> downloadFile(
+    public void downloadFile(
             @PathVariable Long fileId,
             @RequestParam(required = false) String token,
-            Authentication authentication) {
-        FileResponse fileInfo = fileService.getFileInfo(fileId);
-        byte[] fileData = fileService.getFileData(fileId, authentication);
-        
-        // Use larger buffer for better download speed (8MB buffer)
-        int bufferSize = 8 * 1024 * 1024; // 8MB
-        InputStreamResource resource = new InputStreamResource(
-            new ByteArrayInputStream(fileData), 
-            "File download"
-        );
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        FileMetadata file = fileService.getAccessibleFile(fileId, authentication);
         
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileInfo.getFileName() + "\"")
-                .contentType(MediaType.parseMediaType(fileInfo.getFileType()))
-                .contentLength(fileData.length)
-                .header(HttpHeaders.CACHE_CONTROL, "no-transform, max-age=3600")
-                .header("X-Content-Type-Options", "nosniff")
-                .body(resource);
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.transferPermit(
+                TransferAdmissionService.clientKey(authentication, request))) {
+            mediaStreamService.streamFile(file, request, response, MediaStreamService.Options.builder()
+                    .admission(permit)
+                    .attachmentName(file.getFileName())
+                    .cacheControl("no-transform, max-age=3600")
+                    .eTag(fileService.getETag(file, null))
+                    .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                    .bandwidth(bandwidthShaper.profile(authentication, request, BandwidthShaper.TrafficClass.BULK))
+                    .build());
+        }
     }
     
     @GetMapping("/{fileId}/preview")
-    public ResponseEntity<Resource> previewFile(
+    public void previewFile(
             @PathVariable Long fileId,
             @RequestParam(required = false) String token,
             @RequestParam(defaultValue = "full") String size,
-            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
-            Authentication authentication) {
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         try {
             System.out.println("🎬 Preview request for file ID: " + fileId + " with size: " + size);
             System.out.println("👤 User: " + (authentication != null ? authentication.getName() : "Anonymous"));
-            System.out.println("📊 Range header: " + rangeHeader);
+            System.out.println("📊 Range header: " + request.getHeader(HttpHeaders.RANGE));
             
-            FileResponse fileInfo = fileService.getFileInfo(fileId);
-            System.out.println("📄 File info: " + fileInfo.getFileName() + " (" + fileInfo.getFileType() + ")");
+            FileMetadata file = fileService.getAccessibleFile(fileId, authentication);
+            System.out.println("📄 File info: " + file.getFileName() + " (" + file.getFileType() + ")");
             
-            byte[] fileData = fileService.getFileData(fileId, authentication);
-            System.out.println("✅ File data retrieved, size: " + fileData.length + " bytes");
+            String client = TransferAdmissionService.clientKey(authentication, request);
             
-            // Resize images if not full size
-            if (!size.equals("full") && fileInfo.getFileType().startsWith("image/")) {
-                try {
-                    fileData = fileService.resizeImage(fileData, size);
-                    System.out.println("✅ Image resized to " + size + ", new size: " + fileData.length + " bytes");
+            // Serve the stored rendition for standard sizes, generated once on first request
+            if (RenditionService.RENDITIONS.contains(size) && file.getFileType().startsWith("image/")) {
+                MediaStreamService.Options renditionOptions = MediaStreamService.Options.builder()
+                        .cacheControl("public, max-age=3600")
+                        .eTag(fileService.getETag(file, size))
+                        .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                        .build();
+                
+                // Revalidation is answered before the rendition is loaded or generated
+                if (mediaStreamService.checkNotModified(request, response, renditionOptions)) {
+                    return;
+                }
+                // A stored rendition is a small cached read and takes no transfer slot; the original
+                // only counts against the heap budget when the rendition has to be generated
+                try (TransferAdmissionService.Permit buffer = transferAdmissionService.bufferPermit(client, file.getFileSize())) {
+                    byte[] resized = renditionService.getRendition(RenditionSource.FILE, file.getId(),
+                            file.getStorageKey(), size, fileService.getPendingOrientation(file),
+                            () -> {
+                                buffer.acquire();
+                                return fileService.readContent(file);
+                            });
+                    System.out.println("✅ Image rendition " + size + ": " + resized.length + " bytes");
+                    mediaStreamService.streamBytes(resized, MediaType.IMAGE_JPEG_VALUE, request, response, renditionOptions);
+                    return;
+                } catch (TransferAdmissionService.RejectedException e) {
+                    throw e;
                 } catch (Exception e) {
                     System.err.println("⚠️ Failed to resize image, using original: " + e.getMessage());
                 }
             }
             
-            // Handle Range requests (Safari iOS requires this for video)
-            if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                return handleRangeRequest(rangeHeader, fileData, fileInfo);
+            try (TransferAdmissionService.Permit permit = transferAdmissionService.transferPermit(client)) {
+                // Range requests (Safari iOS requires them for video) are served straight from disk
+                mediaStreamService.streamFile(file, request, response, MediaStreamService.Options.builder()
+                        .admission(permit)
+                        .cacheControl("public, max-age=3600")
+                        .eTag(fileService.getETag(file, null))
+                        .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                        .bandwidth(bandwidthShaper.profile(authentication, request, BandwidthShaper.TrafficClass.INTERACTIVE))
+                        .build());
             }
-            
-            // Normal full response
-            InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(fileData));
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(fileInfo.getFileType()))
-                    .contentLength(fileData.length)
-                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                    .header(HttpHeaders.CACHE_CONTROL, "public, max-age=3600")
-                    .body(resource);
         } catch (Exception e) {
             System.err.println("❌ Error in preview: " + e.getMessage());
             e.printStackTrace();
@@ -120,49 +177,15 @@ public class FileController {
         }
     }
     
-    private ResponseEntity<Resource> handleRangeRequest(String rangeHeader, byte[] fileData, FileResponse fileInfo) {
-        try {
-            // Parse range header: bytes=start-end
-            String range = rangeHeader.replace("bytes=", "");
-            String[] parts = range.split("-");
-            
-            long fileLength = fileData.length;
-            long start = Long.parseLong(parts[0]);
-            long end = parts.length > 1 && !parts[1].isEmpty() 
-                ? Long.parseLong(parts[1]) 
-                : fileLength - 1;
-            
-            // Validate range
-            if (start > end || start < 0 || end >= fileLength) {
-                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength)
-                    .build();
-            }
-            
-            int rangeLength = (int) (end - start + 1);
-            byte[] rangeData = new byte[rangeLength];
-            System.arraycopy(fileData, (int) start, rangeData, 0, rangeLength);
-            
-            InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(rangeData));
-            
-            String contentRange = String.format("bytes %d-%d/%d", start, end, fileLength);
-            System.out.println("✅ Sending range: " + contentRange);
-            
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                    .contentType(MediaType.parseMediaType(fileInfo.getFileType()))
-                    .contentLength(rangeLength)
-                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                    .header(HttpHeaders.CONTENT_RANGE, contentRange)
-                    .header(HttpHeaders.CACHE_CONTROL, "max-age=3600")
-                    .body(resource);
-        } catch (Exception e) {
-            System.err.println("❌ Error handling range request: " + e.getMessage());
-            throw new RuntimeException("Failed to handle range request", e);
-        }
-    }
-    
     @GetMapping("/{fileId}/thumbnail")
-    public ResponseEntity<byte[]> getThumbnail(@PathVariable Long fileId) {
+    public ResponseEntity<byte[]> getThumbnail(@PathVariable Long fileId, WebRequest webRequest) {
+        // The thumbnail is written once background processing finishes, so the status is part of the version
+        FileMetadata file = fileService.getFile(fileId);
+        String eTag = fileService.getETag(file, "thumbnail-" + file.getProcessingStatus());
+        if (webRequest.checkNotModified(eTag, MediaStreamService.epochMillis(file.getUploadedAt()))) {
+            return null;
+        }
+        
         byte[] thumbnail = fileService.getThumbnail(fileId);
         if (thumbnail == null) {
             return ResponseEntity.notFound().build();
@@ -173,46 +196,61 @@ public class FileController {
                 .body(thumbnail);
     }
     
+    @GetMapping("/thumbnails")
+    @Operation(summary = "Batch thumbnails", description = "File thumbnails and user avatars of one screen as a multipart/mixed response, one part per Content-ID <file-ID> or <avatar-ID>")
+    public void getThumbnails(
+            @RequestParam(required = false) List<Long> fileIds,
+            @RequestParam(required = false) String fileRendition,
+            @RequestParam(required = false) List<Long> userIds,
+            @RequestParam(defaultValue = "thumbnail") String avatarSize,
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        // Resolved before anything is written, so a bad request is still an error status
+        ThumbnailBatchService.Batch batch = thumbnailBatchService.resolve(
+                authentication != null ? authentication.getName() : null, fileIds, fileRendition, userIds, avatarSize);
+        
+        // Thumbnails and avatars are small cached reads, no transfer slot; renditions generated
+        // on the way still take heap budget per item
+        String boundary = UUID.randomUUID().toString();
+        response.setContentType("multipart/mixed; boundary=" + boundary);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        thumbnailBatchService.write(batch, boundary, TransferAdmissionService.clientKey(authentication, request),
+                response.getOutputStream());
+    }
+    
     @GetMapping("/{fileId}/public-preview")
-    public ResponseEntity<Resource> publicPreviewFile(
+    public void publicPreviewFile(
             @PathVariable Long fileId,
-            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader) {
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         try {
             System.out.println("🌍 Public preview request for file ID: " + fileId);
             
             // Directly get file from repository
-            FileMetadata file = fileMetadataRepository.findById(fileId)
-                    .orElseThrow(() -> new RuntimeException("File not found"));
+            FileMetadata file = fileService.getFile(fileId);
             
             System.out.println("📄 File info: " + file.getFileName() + " (" + file.getFileType() + ")");
             
-            byte[] fileData = file.getFileData();
-            System.out.println("✅ Public file data retrieved, size: " + fileData.length + " bytes");
-            
-            // Handle Range requests (Safari iOS requires this for video)
-            if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                FileResponse fileInfo = FileResponse.builder()
-                    .id(file.getId())
-                    .fileName(file.getFileName())
-                    .fileType(file.getFileType())
-                    .fileSize(file.getFileSize())
-                    .build();
-                return handleRangeRequest(rangeHeader, fileData, fileInfo);
+            try (TransferAdmissionService.Permit permit = transferAdmissionService.transferPermit(
+                    TransferAdmissionService.clientKey(null, request))) {
+                mediaStreamService.streamFile(file, request, response, MediaStreamService.Options.builder()
+                        .admission(permit)
+                        .cacheControl("max-age=3600")
+                        .eTag(fileService.getETag(file, null))
+                        .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                        .bandwidth(bandwidthShaper.profile(null, request, BandwidthShaper.TrafficClass.INTERACTIVE))
+                        .build());
             }
-            
-            // Normal full response
-            InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(fileData));
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(file.getFileType()))
-                    .contentLength(fileData.length)
-                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                    .header(HttpHeaders.CACHE_CONTROL, "max-age=3600")
-                    .body(resource);
+        } catch (TransferAdmissionService.RejectedException e) {
+            throw e;
         } catch (Exception e) {
             System.err.println("❌ Error in public preview: " + e.getMessage());
             e.printStackTrace();
-            return ResponseEntity.notFound().build();
+            if (!response.isCommitted()) {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
         }
     }
 
@@ -222,6 +260,39 @@ public class FileController {
         return ResponseEntity.ok(fileService.getUserFiles(userEmail));
     }
     
+    @GetMapping("/export")
+    @Operation(summary = "Export files as ZIP", description = "Stream the selected files (ids or category, default all) as one ZIP archive")
+    public ResponseEntity<StreamingResponseBody> exportFiles(
+            Authentication authentication,
+            @RequestParam(required = false) List<Long> ids,
+            @RequestParam(required = false) FileCategory category,
+            HttpServletRequest request) {
+        List<FileMetadata> files = fileExportService.selectFiles(authentication.getName(), ids, category);
+        
+        BandwidthShaper.Profile profile = bandwidthShaper.profile(authentication, request, BandwidthShaper.TrafficClass.BULK);
+        
+        // Admitted here so a rejection is still a 503; the ZIP itself is written on an async thread
+        TransferAdmissionService.Permit permit = transferAdmissionService.admitTransfer(
+                TransferAdmissionService.clientKey(authentication, request));
+        // The body may never run (executor queue full, timeout while queued); completion always fires
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(permit, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                permit.close();
+            }
+        });
+        StreamingResponseBody body = out -> {
+            try (permit; BandwidthShaper.Throttle throttle = bandwidthShaper.open(profile)) {
+                fileExportService.writeZip(files, throttle != null ? throttle.wrap(out) : out);
+            }
+        };
+        
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"snet-export-" + LocalDate.now() + ".zip\"")
+                .body(body);
+    }
+    
     @DeleteMapping("/{fileId}")
     public ResponseEntity<Void> deleteFile(
             Authentication authentication,
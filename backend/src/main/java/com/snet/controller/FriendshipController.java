@@ -46,6 +46,15 @@ public class FriendshipController {
         return ResponseEntity.ok().build();
     }
     
+    @DeleteMapping("/{friendId}")
+    public ResponseEntity<Void> removeFriend(
+            Authentication authentication,
+            @PathVariable Long friendId) {
+        Long userId = userService.getCurrentUser(authentication.getName()).getId();
+        friendshipService.removeFriend(userId, friendId);
+        return ResponseEntity.ok().build();
+    }
+    
     @GetMapping
     public ResponseEntity<List<UserResponse>> getFriendsList(Authentication authentication) {
         Long userId = userService.getCurrentUser(authentication.getName()).getId();
@@ -3,6 +3,7 @@ package com.snet.controller;
 import com.snet.dto.CreateGroupRequest;
 import com.snet.dto.GroupResponse;
 import com.snet.service.GroupService;
+import com.snet.service.MediaStreamService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -11,6 +12,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -59,8 +61,16 @@ public class GroupController {
     
     @GetMapping("/{groupId}/avatar")
     @Operation(summary = "Get group avatar", description = "Get group avatar image")
-    public ResponseEntity<byte[]> getAvatar(@PathVariable Long groupId) {
-        byte[] avatar = groupService.getGroupAvatar(groupId);
+    public ResponseEntity<byte[]> getAvatar(
+            @PathVariable Long groupId,
+            @RequestParam(defaultValue = "full") String size,
+            WebRequest webRequest) throws IOException {
+        long version = MediaStreamService.epochMillis(groupService.getGroupAvatarVersion(groupId));
+        if (webRequest.checkNotModified("\"g" + groupId + "-avatar-" + size + "-" + version + "\"", version)) {
+            return null;
+        }
+        
+        byte[] avatar = groupService.getGroupAvatar(groupId, size);
         if (avatar == null) {
             return ResponseEntity.notFound().build();
         }
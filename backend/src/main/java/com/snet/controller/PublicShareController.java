@@ -1,16 +1,23 @@
 package com.snet.controller;
 
 import com.snet.dto.PublicShareResponse;
+import com.snet.model.FileMetadata;
+import com.snet.service.BandwidthShaper;
+import com.snet.service.FileService;
+import com.snet.service.MediaStreamService;
 import com.snet.service.PublicShareService;
+import com.snet.service.TransferAdmissionService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 
 @RestController
@@ -20,6 +27,10 @@ import java.time.LocalDateTime;
 public class PublicShareController {
     
     private final PublicShareService publicShareService;
+    private final MediaStreamService mediaStreamService;
+    private final FileService fileService;
+    private final TransferAdmissionService transferAdmissionService;
+    private final BandwidthShaper bandwidthShaper;
     
     @PostMapping("/share/{fileId}")
     public ResponseEntity<PublicShareResponse> createPublicShare(
@@ -30,24 +41,34 @@ public class PublicShareController {
     }
     
     @GetMapping("/share/{shareToken}")
-    public ResponseEntity<byte[]> accessPublicShareFile(@PathVariable String shareToken) {
-        PublicShareResponse shareInfo = publicShareService.getShareInfo(shareToken);
-        byte[] fileData = publicShareService.accessPublicShare(shareToken);
+    public void accessPublicShareFile(
+            @PathVariable String shareToken,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        FileMetadata file = publicShareService.accessPublicShare(shareToken);
         
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(shareInfo.getFileType()))
-                .body(fileData);
+        streamShare(shareToken, file, request, response, MediaStreamService.Options.builder()
+                .cacheControl("private, no-cache")
+                .eTag(fileService.getETag(file, null))
+                .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                .bandwidth(bandwidthShaper.profile(null, request, BandwidthShaper.TrafficClass.INTERACTIVE))
+                .build());
     }
     
     @GetMapping("/share/{shareToken}/download")
-    public ResponseEntity<byte[]> downloadPublicShare(@PathVariable String shareToken) {
-        PublicShareResponse shareInfo = publicShareService.getShareInfo(shareToken);
-        byte[] fileData = publicShareService.accessPublicShare(shareToken);
+    public void downloadPublicShare(
+            @PathVariable String shareToken,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        FileMetadata file = publicShareService.accessPublicShare(shareToken);
         
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + shareInfo.getFileName() + "\"")
-                .contentType(MediaType.parseMediaType(shareInfo.getFileType()))
-                .body(fileData);
+        streamShare(shareToken, file, request, response, MediaStreamService.Options.builder()
+                .attachmentName(file.getFileName())
+                .cacheControl("private, no-cache")
+                .eTag(fileService.getETag(file, null))
+                .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                .bandwidth(bandwidthShaper.profile(null, request, BandwidthShaper.TrafficClass.BULK))
+                .build());
     }
     
     @GetMapping("/share/{shareToken}/info")
@@ -69,4 +90,26 @@ public class PublicShareController {
         publicShareService.deactivateShare(shareId);
         return ResponseEntity.ok().build();
     }
+    
+    /**
+     * Every response with a body counts against maxAccessCount, ranged ones included, otherwise
+     * a limited link could be fetched whole in slices. HEAD and 304 answers are free; no-cache
+     * makes clients revalidate instead of re-downloading.
+     */
+    private void streamShare(String shareToken, FileMetadata file, HttpServletRequest request,
+                             HttpServletResponse response, MediaStreamService.Options options) throws IOException {
+        if (mediaStreamService.checkNotModified(request, response, options)) {
+            return;
+        }
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.transferPermit(
+                TransferAdmissionService.clientKey(null, request))) {
+            if (!"HEAD".equals(request.getMethod())) {
+                // Admitted before the access is counted, a request turned away with 503 does not use one up;
+                // streamFile lets the slot go again when the body is handed to sendfile
+                permit.acquire();
+                publicShareService.claimAccess(shareToken);
+            }
+            mediaStreamService.streamFile(file, request, response, options.toBuilder().admission(permit).build());
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package com.snet.controller;
+
+import com.snet.dto.CreateUploadSessionRequest;
+import com.snet.dto.FileResponse;
+import com.snet.dto.UploadSessionResponse;
+import com.snet.service.TransferAdmissionService;
+import com.snet.service.UploadSessionService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/files/uploads")
+@RequiredArgsConstructor
+@Tag(name = "Resumable Uploads", description = "Chunked upload APIs that survive dropped connections")
+@SecurityRequirement(name = "bearerAuth")
+public class UploadSessionController {
+    
+    private final UploadSessionService uploadSessionService;
+    private final TransferAdmissionService transferAdmissionService;
+    
+    @PostMapping
+    @Operation(summary = "Create upload session", description = "Reserve quota and get an upload id for chunked upload")
+    public ResponseEntity<UploadSessionResponse> createSession(
+            Authentication authentication,
+            @RequestBody CreateUploadSessionRequest request) throws IOException {
+        return ResponseEntity.ok(uploadSessionService.createSession(authentication.getName(), request));
+    }
+    
+    @PutMapping(value = "/{uploadId}", consumes = MediaType.ALL_VALUE)
+    @Operation(summary = "Upload chunk", description = "Append the raw request body at the given offset")
+    public ResponseEntity<UploadSessionResponse> uploadChunk(
+            Authentication authentication,
+            @PathVariable String uploadId,
+            @RequestParam long offset,
+            HttpServletRequest request) throws IOException {
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.admitTransfer(
+                TransferAdmissionService.clientKey(authentication, request))) {
+            return ResponseEntity.ok(uploadSessionService.writeChunk(uploadId, authentication.getName(), offset,
+                    request.getInputStream()));
+        }
+    }
+    
+    @GetMapping("/{uploadId}")
+    @Operation(summary = "Get upload progress", description = "Bytes received so far, the offset for the next chunk")
+    public ResponseEntity<UploadSessionResponse> getProgress(
+            Authentication authentication,
+            @PathVariable String uploadId) {
+        return ResponseEntity.ok(uploadSessionService.getProgress(uploadId, authentication.getName()));
+    }
+    
+    @PostMapping("/{uploadId}/complete")
+    @Operation(summary = "Complete upload", description = "Store the assembled file and release the session")
+    public ResponseEntity<FileResponse> completeSession(
+            Authentication authentication,
+            @PathVariable String uploadId,
+            HttpServletRequest request) throws IOException {
+        // Ingesting the assembled file reads it back in full, so it counts as a transfer too
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.admitTransfer(
+                TransferAdmissionService.clientKey(authentication, request))) {
+            return ResponseEntity.ok(uploadSessionService.completeSession(uploadId, authentication.getName()));
+        }
+    }
+    
+    @DeleteMapping("/{uploadId}")
+    @Operation(summary = "Cancel upload", description = "Discard received chunks and release reserved quota")
+    public ResponseEntity<Void> cancelSession(
+            Authentication authentication,
+            @PathVariable String uploadId) {
+        uploadSessionService.cancelSession(uploadId, authentication.getName());
+        return ResponseEntity.ok().build();
+    }
+}
@@ -2,6 +2,7 @@ package com.snet.controller;
 
 import com.snet.dto.UserResponse;
 import com.snet.model.User;
+import com.snet.service.MediaStreamService;
 import com.snet.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -11,6 +12,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -97,20 +99,20 @@ public class UserController {
     @GetMapping("/{userId}/avatar")
     public ResponseEntity<byte[]> getUserAvatar(
             @PathVariable Long userId,
-            @RequestParam(defaultValue = "medium") String size) {
+            @RequestParam(defaultValue = "medium") String size,
+            WebRequest webRequest) {
         System.out.println("🔍 Avatar request for user ID: " + userId + " with size: " + size);
+        // The version also moves with profile updates, which covers the initial in the default SVG
+        long version = MediaStreamService.epochMillis(userService.getAvatarVersion(userId));
+        if (webRequest.checkNotModified("\"u" + userId + "-avatar-" + size + "-" + version + "\"", version)) {
+            return null;
+        }
         byte[] avatar = userService.getUserAvatar(userId, size);
         if (avatar == null || avatar.length == 0) {
             System.out.println("❌ No avatar found for user: " + userId);
             // Trả về default avatar SVG thay vì 404
             User user = userService.getUserById(userId);
-            String initial = user.getDisplayName() != null ? user.getDisplayName().substring(0, 1).toUpperCase() : "?";
-            String svg = String.format(
-                "<svg xmlns='http://www.w3.org/2000/svg' viewBox='0 0 200 200'>" +
-                "<rect fill='%236366f1' width='200' height='200'/>" +
-                "<text x='100' y='120' font-size='80' fill='white' text-anchor='middle' font-family='Arial' font-weight='bold'>%s</text>" +
-                "</svg>", initial
-            );
+            String svg = UserService.defaultAvatarSvg(user.getDisplayName());
             return ResponseEntity.ok()
                     .contentType(MediaType.valueOf("image/svg+xml"))
                     .body(svg.getBytes());
@@ -125,8 +127,13 @@ public class UserController {
     @GetMapping("/{userId}/cover")
     public ResponseEntity<byte[]> getUserCoverPhoto(
             @PathVariable Long userId,
-            @RequestParam(defaultValue = "medium") String size) {
+            @RequestParam(defaultValue = "medium") String size,
+            WebRequest webRequest) {
         System.out.println("📸 Request for cover photo of user: " + userId + " with size: " + size);
+        long version = MediaStreamService.epochMillis(userService.getCoverPhotoVersion(userId));
+        if (webRequest.checkNotModified("\"u" + userId + "-cover-" + size + "-" + version + "\"", version)) {
+            return null;
+        }
         byte[] coverPhoto = userService.getUserCoverPhoto(userId, size);
         if (coverPhoto == null || coverPhoto.length == 0) {
             System.out.println("⚠️ No cover photo found for user: " + userId);
@@ -1,18 +1,18 @@
 package com.snet.controller;
 
 import com.snet.model.FileMetadata;
-import com.snet.repository.FileMetadataRepository;
+import com.snet.service.BandwidthShaper;
+import com.snet.service.FileService;
+import com.snet.service.MediaStreamService;
+import com.snet.service.TransferAdmissionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 
 /**
  * Optimized controller for video streaming with Range requests
@@ -23,94 +23,61 @@ import java.io.ByteArrayInputStream;
 @RequiredArgsConstructor
 public class VideoStreamController {
     
-    private final FileMetadataRepository fileMetadataRepository;
+    // Optimize chunk size for better throughput (8MB chunks for 8MB/s speed)
+    // Larger chunks = fewer requests = better throughput
+    private static final long MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    
+    private final FileService fileService;
+    private final MediaStreamService mediaStreamService;
+    private final TransferAdmissionService transferAdmissionService;
+    private final BandwidthShaper bandwidthShaper;
     
     @GetMapping("/{fileId}/stream")
-    public ResponseEntity<Resource> streamVideo(
+    public void streamVideo(
             @PathVariable Long fileId,
-            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
-            Authentication authentication) {
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         
-        try {
-            System.out.println("🎬 Video stream request for file: " + fileId);
-            System.out.println("📊 Range: " + rangeHeader);
-            
-            // Get file from database
-            FileMetadata file = fileMetadataRepository.findById(fileId)
-                    .orElseThrow(() -> new RuntimeException("File not found"));
-            
-            // Check if deleted
-            if (file.isDeleted()) {
-                return ResponseEntity.notFound().build();
-            }
+        try (TransferAdmissionService.Permit permit = transferAdmissionService.transferPermit(
+                TransferAdmissionService.clientKey(authentication, request))) {
+            try {
+                System.out.println("🎬 Video stream request for file: " + fileId);
+                System.out.println("📊 Range: " + request.getHeader(HttpHeaders.RANGE));
             
-            // Get full file data (unavoidable with MySQL LONGBLOB)
-            byte[] fileData = file.getFileData();
-            long fileLength = fileData.length;
+                // Get file metadata from database
+                FileMetadata file = fileService.getFile(fileId);
             
-            System.out.println("📁 File: " + file.getFileName() + " (" + fileLength + " bytes)");
+                // Check if deleted
+                if (file.isDeleted()) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
             
-            // If no range header, return full file
-            if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
-                InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(fileData));
-                
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(file.getFileType()))
-                        .contentLength(fileLength)
-                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                        .header(HttpHeaders.CACHE_CONTROL, "no-cache")
-                        .body(resource);
-            }
-            
-            // Parse range header
-            String range = rangeHeader.replace("bytes=", "");
-            String[] parts = range.split("-");
+                System.out.println("📁 File: " + file.getFileName() + " (" + file.getFileSize() + " bytes)");
             
-            long start = Long.parseLong(parts[0]);
-            long end = (parts.length > 1 && !parts[1].isEmpty()) 
-                    ? Long.parseLong(parts[1]) 
-                    : fileLength - 1;
+                // Ranges are sent straight from the blob file (sendfile / transferTo);
+                // no-cache still lets the player revalidate with If-None-Match and get a 304
+                mediaStreamService.streamFile(file, request, response, MediaStreamService.Options.builder()
+                        .admission(permit)
+                        .cacheControl("no-cache")
+                        .maxOpenRangeLength(MAX_CHUNK_SIZE)
+                        .eTag(fileService.getETag(file, null))
+                        .lastModified(MediaStreamService.epochMillis(file.getUploadedAt()))
+                        .bandwidth(bandwidthShaper.profile(authentication, request, BandwidthShaper.TrafficClass.INTERACTIVE))
+                        .build());
             
-            // Validate range
-            if (start > end || start < 0 || end >= fileLength) {
-                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength)
-                        .build();
+            } catch (TransferAdmissionService.RejectedException e) {
+                // Must reach the client as 503 rather than 500
+                throw e;
+            } catch (Exception e) {
+                System.err.println("❌ Video streaming error: " + e.getMessage());
+                e.printStackTrace();
+                if (!response.isCommitted()) {
+                    response.reset();
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
             }
-            
-            // Calculate chunk size
-            long chunkSize = end - start + 1;
-            
-            // Optimize chunk size for better throughput (8MB chunks for 8MB/s speed)
-            // Larger chunks = fewer requests = better throughput
-            long maxChunkSize = 8 * 1024 * 1024;  // 8MB chunks
-            if (chunkSize > maxChunkSize) {
-                end = start + maxChunkSize - 1;
-                chunkSize = end - start + 1;
-            }
-            
-            // Extract the requested range
-            byte[] rangeData = new byte[(int) chunkSize];
-            System.arraycopy(fileData, (int) start, rangeData, 0, (int) chunkSize);
-            
-            InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(rangeData));
-            
-            String contentRange = String.format("bytes %d-%d/%d", start, end, fileLength);
-            System.out.println("✅ Streaming range: " + contentRange);
-            
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                    .contentType(MediaType.parseMediaType(file.getFileType()))
-                    .contentLength(chunkSize)
-                    .header(HttpHeaders.CONTENT_RANGE, contentRange)
-                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                    .header(HttpHeaders.CACHE_CONTROL, "no-cache")
-                    .body(resource);
-            
-        } catch (Exception e) {
-            System.err.println("❌ Video streaming error: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 }
-
@@ -0,0 +1,24 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BandwidthStats {
+    private int activeClients;
+    private int interactiveStreams;
+    private int bulkStreams;
+    private long totalBytesPerSecond;
+    private long allocatedBytesPerSecond;
+    private long userBytesPerSecond;
+    private long adminBytesPerSecond;
+    private long anonymousBytesPerSecond;
+    private long openedStreams;
+    private long shapedBytes;
+    private long throttledMs;
+}
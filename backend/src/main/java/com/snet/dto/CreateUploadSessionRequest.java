@@ -0,0 +1,17 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CreateUploadSessionRequest {
+    private String fileName;
+    private String fileType;
+    private Long totalSize;
+    private String description;
+}
@@ -17,4 +17,7 @@ public class DashboardStats {
     private Long totalMessages;
     private Long totalStorageUsed;
     private Long totalStorageQuota;
+    // Deduplicated payloads: logical bytes and bytes actually on disk after compression at rest
+    private Long blobLogicalSize;
+    private Long blobStoredSize;
 }
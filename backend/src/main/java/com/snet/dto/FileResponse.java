@@ -22,4 +22,10 @@ public class FileResponse {
     private Long userId;
     private String uploaderName;
     private boolean deleted;
+    private String processingStatus;
+    private Long durationMs;
+    private Integer width;
+    private Integer height;
+    private String codec;
+    private String blurhash;
 }
@@ -0,0 +1,23 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MediaProcessingStats {
+    private int workers;
+    private int activeWorkers;
+    private int queueDepth;
+    private int queueCapacity;
+    private long completedTasks;
+    private long failedTasks;
+    private long rejectedTasks;
+    private double averageQueueWaitMs;
+    private double averageProcessingMs;
+    private long maxProcessingMs;
+}
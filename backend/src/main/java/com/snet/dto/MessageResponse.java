@@ -27,6 +27,9 @@ public class MessageResponse {
     private String type;
     private Long fileId;
     private String fileName;
+    private Integer fileWidth;
+    private Integer fileHeight;
+    private String fileBlurhash;
     private String status;
     private LocalDateTime sentAt;
     private LocalDateTime readAt;
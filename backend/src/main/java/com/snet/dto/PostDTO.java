@@ -18,6 +18,9 @@ public class PostDTO {
     private String fileType;
     private Long fileSize;
     private String fileUrl;
+    private Integer fileWidth;
+    private Integer fileHeight;
+    private String fileBlurhash;
     private String videoUrl;
     private String videoPlatform;
     private String privacy;
@@ -50,6 +53,10 @@ public class PostDTO {
             this.fileType = post.getFile().getFileType();
             this.fileSize = post.getFile().getFileSize();
             this.fileUrl = "/api/files/" + post.getFile().getId() + "/public-preview";
+            // Lets the feed reserve the image's box and paint a placeholder before it loads
+            this.fileWidth = post.getFile().getWidth();
+            this.fileHeight = post.getFile().getHeight();
+            this.fileBlurhash = post.getFile().getBlurhash();
             System.out.println("🗂️ File info: " + this.fileName + " (" + this.fileType + ")");
             System.out.println("🔗 Public File URL: " + this.fileUrl);
         }
@@ -106,6 +113,15 @@ public class PostDTO {
     public String getFileUrl() { return fileUrl; }
     public void setFileUrl(String fileUrl) { this.fileUrl = fileUrl; }
 
+    public Integer getFileWidth() { return fileWidth; }
+    public void setFileWidth(Integer fileWidth) { this.fileWidth = fileWidth; }
+
+    public Integer getFileHeight() { return fileHeight; }
+    public void setFileHeight(Integer fileHeight) { this.fileHeight = fileHeight; }
+
+    public String getFileBlurhash() { return fileBlurhash; }
+    public void setFileBlurhash(String fileBlurhash) { this.fileBlurhash = fileBlurhash; }
+
     public String getVideoUrl() { return videoUrl; }
     public void setVideoUrl(String videoUrl) { this.videoUrl = videoUrl; }
 
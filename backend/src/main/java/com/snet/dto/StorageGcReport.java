@@ -0,0 +1,30 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StorageGcReport {
+    private boolean dryRun;
+    private LocalDateTime startedAt;
+    private long durationMs;
+    private long scannedBlobs;
+    private long orphanedBlobs;
+    private long orphanedBlobBytes;
+    private long orphanedRenditions;
+    private long orphanedRenditionBytes;
+    private long orphanedUploadPartBytes;
+    private long temporaryFileBytes;
+    private long staleQrCodes;
+    private long staleQrCodeBytes;
+    // Sum of the above, or what a real run would reclaim when dryRun
+    private long reclaimedBytes;
+    private int errors;
+}
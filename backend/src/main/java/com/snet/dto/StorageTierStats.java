@@ -0,0 +1,31 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StorageTierStats {
+    private long hotFiles;
+    private long hotBytes;
+    private long archiveFiles;
+    private long archiveBytes;
+    private int coldAfterDays;
+    private long archivedBlobs;
+    private long promotedBlobs;
+    private long droppedPromotions;
+    private int queuedPromotions;
+    private int pendingAccessUpdates;
+    private long hotReads;
+    private long hotAvgOpenMicros;
+    private long hotAvgFirstByteMicros;
+    private double hotReadMiBPerSecond;
+    private long archiveReads;
+    private long archiveAvgOpenMicros;
+    private long archiveAvgFirstByteMicros;
+    private double archiveReadMiBPerSecond;
+}
@@ -0,0 +1,23 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TransferAdmissionStats {
+    private int activeTransfers;
+    private int maxTransfers;
+    private int maxTransfersPerClient;
+    private long bufferedBytes;
+    private long maxBufferedBytes;
+    private int waiting;
+    private long trackedClients;
+    private long admittedTotal;
+    private long queuedTotal;
+    private long rejectedTotal;
+}
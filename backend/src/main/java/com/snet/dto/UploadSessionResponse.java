@@ -0,0 +1,20 @@
+package com.snet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSessionResponse {
+    private String uploadId;
+    private String fileName;
+    private Long totalSize;
+    private Long receivedBytes;
+    private LocalDateTime expiresAt;
+}
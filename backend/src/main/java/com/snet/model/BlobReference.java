@@ -0,0 +1,36 @@
+package com.snet.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Reference count of a BlobStore payload. Every FileMetadata row with the same
+ * storage key shares one payload, which is only removed when the count reaches zero.
+ */
+@Entity
+@Table(name = "blob_references")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BlobReference {
+    
+    @Id
+    @Column(name = "storage_key", length = 64)
+    private String storageKey;
+    
+    @Column(nullable = false)
+    private Long size;
+    
+    // Bytes on disk, below size when compressed at rest; null for rows backfilled before it was tracked
+    @Column(name = "stored_size")
+    private Long storedSize;
+    
+    @Column(name = "ref_count", nullable = false)
+    private Long refCount;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
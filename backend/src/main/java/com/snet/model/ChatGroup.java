@@ -33,6 +33,8 @@ public class ChatGroup {
     @Column(name = "avatar", columnDefinition = "LONGBLOB")
     private byte[] avatar;
     
+    private LocalDateTime avatarUpdatedAt;
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "creator_id", nullable = false)
     private User creator;
@@ -0,0 +1,31 @@
+package com.snet.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Binary columns of the files table, mapped separately from FileMetadata so that
+ * descriptor queries (listings, posts, admin views) never read blob columns.
+ * Rows are created through FileMetadata, this entity is only used for blob reads and updates.
+ */
+@Entity
+@Table(name = "files")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileContent {
+    
+    @Id
+    private Long id;
+    
+    // Legacy in-database payload, moved to the BlobStore by BlobMigrationService
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Column(columnDefinition = "LONGBLOB")
+    private byte[] fileData;
+    
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Column(columnDefinition = "MEDIUMBLOB")
+    private byte[] thumbnail;
+}
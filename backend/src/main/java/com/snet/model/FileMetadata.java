@@ -7,8 +7,12 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import java.time.LocalDateTime;
 
+/**
+ * Descriptor of an uploaded file. The legacy payload and thumbnail columns of the
+ * same table are mapped by FileContent so loading this entity never reads blobs.
+ */
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = @Index(name = "idx_files_storage_key", columnList = "storage_key"))
 @EntityListeners(AuditingEntityListener.class)
 @Data
 @NoArgsConstructor
@@ -33,13 +37,9 @@ public class FileMetadata {
     @Column(nullable = false)
     private Long fileSize;
     
-    @Lob
-    @Column(nullable = false, columnDefinition = "LONGBLOB")
-    private byte[] fileData;
-    
-    @Lob
-    @Column(columnDefinition = "MEDIUMBLOB")
-    private byte[] thumbnail;
+    // SHA-256 key of the payload in the BlobStore
+    @Column(name = "storage_key", length = 64)
+    private String storageKey;
     
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
@@ -47,6 +47,46 @@ public class FileMetadata {
     
     private String description;
     
+    // Images get EXIF rotation and a thumbnail, MP4 videos fast-start, in the background; null on rows from before that
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private ProcessingStatus processingStatus;
+    
+    // Read from the moov box of MP4/QuickTime videos, null for everything else
+    private Long durationMs;
+    
+    // Upright pixel size, captured during video and image processing
+    private Integer width;
+    
+    private Integer height;
+    
+    @Column(length = 16)
+    private String codec;
+    
+    // EXIF orientation as uploaded; non-null means the stored image is already upright
+    private Integer orientation;
+    
+    // RGB, RGBA, GRAY, ... of the decoded image
+    @Column(length = 16)
+    private String colorModel;
+    
+    // BlurHash of the upright image, decoded by clients into a placeholder while the image loads
+    @Column(length = 40)
+    private String blurhash;
+    
+    // Tier holding the payload, null on rows from before tiering (hot). Moved together for
+    // every row sharing the storage key, only through StorageTierService
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16, updatable = false)
+    private StorageTier storageTier;
+    
+    // Reads served to clients, flushed in batches by StorageTierService
+    @Column(updatable = false)
+    private Long accessCount;
+    
+    @Column(updatable = false)
+    private LocalDateTime lastAccessedAt;
+    
     @CreatedDate
     @Column(nullable = false, updatable = false)
     private LocalDateTime uploadedAt;
@@ -0,0 +1,47 @@
+package com.snet.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A resized copy of an image (thumbnail/preview/medium) stored in the BlobStore.
+ * sourceVersion identifies the original it was made from; a mismatch means the
+ * original changed and the rendition is regenerated.
+ */
+@Entity
+@Table(name = "image_renditions", uniqueConstraints = @UniqueConstraint(
+        name = "uk_image_renditions_source", columnNames = {"source_type", "source_id", "rendition"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageRendition {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "source_type", nullable = false, length = 20)
+    private RenditionSource sourceType;
+    
+    @Column(name = "source_id", nullable = false)
+    private Long sourceId;
+    
+    @Column(nullable = false, length = 20)
+    private String rendition;
+    
+    @Column(name = "source_version", length = 64)
+    private String sourceVersion;
+    
+    @Column(name = "storage_key", nullable = false, length = 64)
+    private String storageKey;
+    
+    @Column(nullable = false)
+    private Long size;
+    
+    @Column(nullable = false)
+    private LocalDateTime generatedAt;
+}
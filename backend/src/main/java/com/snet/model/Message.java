@@ -8,7 +8,7 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = @Index(name = "idx_messages_file_id", columnList = "file_id"))
 @EntityListeners(AuditingEntityListener.class)
 @Data
 @NoArgsConstructor
@@ -8,7 +8,7 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "posts")
+@Table(name = "posts", indexes = @Index(name = "idx_posts_file_id", columnList = "file_id"))
 public class Post {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
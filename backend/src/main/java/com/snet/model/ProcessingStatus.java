@@ -0,0 +1,7 @@
+package com.snet.model;
+
+public enum ProcessingStatus {
+    PROCESSING,
+    READY,
+    FAILED
+}
@@ -36,7 +36,8 @@ public class PublicShare {
     
     private Integer maxAccessCount;
     
-    @Column(nullable = false)
+    // Only moved by PublicShareRepository.claimAccess, a save of a stale entity must not roll it back
+    @Column(nullable = false, updatable = false)
     private Integer accessCount = 0;
     
     private boolean active = true;
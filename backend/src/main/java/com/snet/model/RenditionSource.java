@@ -0,0 +1,8 @@
+package com.snet.model;
+
+public enum RenditionSource {
+    FILE,
+    USER_AVATAR,
+    USER_COVER,
+    GROUP_AVATAR
+}
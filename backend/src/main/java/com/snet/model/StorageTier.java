@@ -0,0 +1,6 @@
+package com.snet.model;
+
+public enum StorageTier {
+    HOT,
+    ARCHIVE
+}
@@ -40,6 +40,11 @@ public class User {
     @Column(columnDefinition = "LONGBLOB")
     private byte[] coverPhoto;
     
+    // Validators for avatar/cover responses, updatedAt also moves on unrelated profile edits
+    private LocalDateTime avatarUpdatedAt;
+    
+    private LocalDateTime coverPhotoUpdatedAt;
+    
     @Column(length = 500)
     private String bio;
     
@@ -77,10 +82,11 @@ public class User {
     @Column(nullable = false)
     private UserStatus status = UserStatus.ACTIVE;
     
-    @Column(nullable = false)
+    // Both are written only by StorageQuotaService's UPDATE statements, never by saving the entity
+    @Column(nullable = false, updatable = false)
     private Long storageQuota = 5368709120L; // 5GB default
     
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private Long storageUsed = 0L;
     
     @Column(nullable = false)
@@ -0,0 +1,62 @@
+package com.snet.repository;
+
+import com.snet.model.BlobReference;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface BlobReferenceRepository extends JpaRepository<BlobReference, String> {
+    
+    // Atomic create-or-increment, concurrent uploads of the same content never race on the insert
+    @Modifying
+    @Query(value = "INSERT INTO blob_references (storage_key, size, stored_size, ref_count, created_at) " +
+                   "VALUES (:key, :size, :storedSize, 1, NOW()) ON DUPLICATE KEY UPDATE ref_count = ref_count + 1",
+           nativeQuery = true)
+    int acquire(@Param("key") String storageKey, @Param("size") long size, @Param("storedSize") long storedSize);
+    
+    @Query("SELECT COALESCE(SUM(b.size), 0), COALESCE(SUM(COALESCE(b.storedSize, b.size)), 0) FROM BlobReference b")
+    List<Object[]> sumLogicalAndStoredSize();
+    
+    // Tier moves change the bytes on disk, not the content
+    @Modifying
+    @Transactional
+    @Query("UPDATE BlobReference b SET b.storedSize = :storedSize WHERE b.storageKey = :key")
+    int updateStoredSize(@Param("key") String storageKey, @Param("storedSize") long storedSize);
+    
+    @Modifying
+    @Query("UPDATE BlobReference b SET b.refCount = b.refCount - 1 WHERE b.storageKey = :key AND b.refCount > 0")
+    int release(@Param("key") String storageKey);
+    
+    @Modifying
+    @Query("DELETE FROM BlobReference b WHERE b.storageKey = :key AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("key") String storageKey);
+    
+    // Keys of the batch still used by a file or a rendition, the mark phase of StorageGarbageCollector
+    @Query(value = "SELECT storage_key FROM files WHERE storage_key IN (:keys) " +
+                   "UNION SELECT storage_key FROM image_renditions WHERE storage_key IN (:keys)",
+           nativeQuery = true)
+    List<String> findReferencedKeys(@Param("keys") Collection<String> storageKeys);
+    
+    // Waits for an upload holding the row, then re-checks the referrers it may just have committed
+    @Modifying
+    @Query(value = "DELETE FROM blob_references WHERE storage_key = :key " +
+                   "AND NOT EXISTS (SELECT 1 FROM files WHERE storage_key = :key) " +
+                   "AND NOT EXISTS (SELECT 1 FROM image_renditions WHERE storage_key = :key)",
+           nativeQuery = true)
+    int deleteIfOrphaned(@Param("key") String storageKey);
+    
+    // Rows written before reference counting existed
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO blob_references (storage_key, size, ref_count, created_at) " +
+                   "SELECT storage_key, MAX(file_size), COUNT(*), NOW() FROM files " +
+                   "WHERE storage_key IS NOT NULL GROUP BY storage_key",
+           nativeQuery = true)
+    int backfillFromFiles();
+}
@@ -7,7 +7,9 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ChatGroupRepository extends JpaRepository<ChatGroup, Long> {
@@ -22,4 +24,11 @@ public interface ChatGroupRepository extends JpaRepository<ChatGroup, Long> {
     List<ChatGroup> findByAdmin(@Param("user") User user);
     
     List<ChatGroup> findByDeletedFalse();
+    
+    @Query("SELECT COALESCE(g.avatarUpdatedAt, g.updatedAt, g.createdAt) FROM ChatGroup g WHERE g.id = :id")
+    Optional<LocalDateTime> findAvatarVersion(@Param("id") Long id);
+    
+    // Rendition source version, only moves when the avatar itself is replaced
+    @Query("SELECT g.avatarUpdatedAt FROM ChatGroup g WHERE g.id = :id")
+    Optional<LocalDateTime> findAvatarUpdatedAt(@Param("id") Long id);
 }
@@ -0,0 +1,38 @@
+package com.snet.repository;
+
+import com.snet.model.FileContent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface FileContentRepository extends JpaRepository<FileContent, Long> {
+    
+    @Query("SELECT c.thumbnail FROM FileContent c WHERE c.id = :id")
+    byte[] findThumbnailById(@Param("id") Long id);
+    
+    @Query("SELECT c.fileData FROM FileContent c WHERE c.id = :id")
+    byte[] findFileDataById(@Param("id") Long id);
+    
+    // Byte length of the legacy payload, computed by MySQL without sending the blob over
+    @Query(value = "SELECT LENGTH(file_data) FROM files WHERE id = :id", nativeQuery = true)
+    Long findFileDataLengthById(@Param("id") Long id);
+    
+    @Modifying
+    @Query("UPDATE FileContent c SET c.thumbnail = :thumbnail WHERE c.id = :id")
+    int updateThumbnail(@Param("id") Long id, @Param("thumbnail") byte[] thumbnail);
+    
+    @Modifying
+    @Query("UPDATE FileContent c SET c.fileData = NULL WHERE c.id = :id")
+    int clearFileData(@Param("id") Long id);
+    
+    // Both entities map the files table, so this is a self-join on the primary key
+    @Query("SELECT c.id FROM FileContent c, FileMetadata f WHERE f.id = c.id " +
+           "AND f.storageKey IS NULL AND c.fileData IS NOT NULL ORDER BY c.id")
+    List<Long> findIdsPendingBlobMigration(Pageable pageable);
+}
@@ -2,11 +2,16 @@ package com.snet.repository;
 
 import com.snet.model.FileCategory;
 import com.snet.model.FileMetadata;
+import com.snet.model.ProcessingStatus;
+import com.snet.model.StorageTier;
 import com.snet.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -48,4 +53,24 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
     
     @Query("SELECT SUM(f.fileSize) FROM FileMetadata f WHERE f.deleted = false")
     Long sumFileSizeByDeletedFalse();
+    
+    @Query("SELECT f.id FROM FileMetadata f WHERE f.processingStatus = :status ORDER BY f.id")
+    List<Long> findIdsByProcessingStatus(@Param("status") ProcessingStatus status, Pageable pageable);
+    
+    // Hot payloads none of whose files was read (or, never read, uploaded) since the cutoff;
+    // payloads still being processed stay where the worker reads them
+    @Query("SELECT f.storageKey FROM FileMetadata f WHERE f.storageKey IS NOT NULL GROUP BY f.storageKey " +
+           "HAVING SUM(CASE WHEN f.storageTier = 'ARCHIVE' OR f.processingStatus = 'PROCESSING' THEN 1 ELSE 0 END) = 0 " +
+           "AND MAX(COALESCE(f.lastAccessedAt, f.uploadedAt)) < :cutoff")
+    List<String> findColdStorageKeys(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+    
+    // Every row sharing a payload is on its tier
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileMetadata f SET f.storageTier = :tier WHERE f.storageKey = :key")
+    int updateStorageTier(@Param("key") String storageKey, @Param("tier") StorageTier tier);
+    
+    @Query("SELECT f.storageTier, COUNT(f), COALESCE(SUM(f.fileSize), 0) FROM FileMetadata f " +
+           "WHERE f.deleted = false GROUP BY f.storageTier")
+    List<Object[]> countByStorageTier();
 }
@@ -0,0 +1,28 @@
+package com.snet.repository;
+
+import com.snet.model.ImageRendition;
+import com.snet.model.RenditionSource;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ImageRenditionRepository extends JpaRepository<ImageRendition, Long> {
+    
+    Optional<ImageRendition> findBySourceTypeAndSourceIdAndRendition(RenditionSource sourceType, Long sourceId, String rendition);
+    
+    List<ImageRendition> findBySourceTypeAndSourceId(RenditionSource sourceType, Long sourceId);
+    
+    // Renditions whose source row is gone, e.g. removed by a path that skipped RenditionService.invalidate
+    @Query("SELECT r FROM ImageRendition r WHERE r.id > :afterId AND (" +
+           "(r.sourceType = 'FILE' AND NOT EXISTS (SELECT f.id FROM FileMetadata f WHERE f.id = r.sourceId)) " +
+           "OR (r.sourceType IN ('USER_AVATAR', 'USER_COVER') AND NOT EXISTS (SELECT u.id FROM User u WHERE u.id = r.sourceId)) " +
+           "OR (r.sourceType = 'GROUP_AVATAR' AND NOT EXISTS (SELECT g.id FROM ChatGroup g WHERE g.id = r.sourceId))) " +
+           "ORDER BY r.id")
+    List<ImageRendition> findOrphaned(@Param("afterId") Long afterId, Pageable pageable);
+}
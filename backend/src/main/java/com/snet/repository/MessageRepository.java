@@ -11,6 +11,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -45,6 +46,17 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     void deleteByReceiverId(Long receiverId);
     void deleteByGroupId(Long groupId);
     
+    // File access check through chat, served by idx_messages_file_id
+    @Query("SELECT CASE WHEN COUNT(m) > 0 THEN true ELSE false END FROM Message m LEFT JOIN m.group g " +
+           "WHERE m.file.id = :fileId AND m.deleted = false AND (m.sender = :viewer OR m.receiver = :viewer " +
+           "OR (g.deleted = false AND :viewer MEMBER OF g.members))")
+    boolean existsMessageWithFileVisibleTo(@Param("fileId") Long fileId, @Param("viewer") User viewer);
+    
+    @Query("SELECT DISTINCT m.file.id FROM Message m LEFT JOIN m.group g " +
+           "WHERE m.file.id IN :fileIds AND m.deleted = false AND (m.sender = :viewer OR m.receiver = :viewer " +
+           "OR (g.deleted = false AND :viewer MEMBER OF g.members))")
+    List<Long> findFileIdsInMessagesVisibleTo(@Param("fileIds") Collection<Long> fileIds, @Param("viewer") User viewer);
+    
     // Set file to null when file is deleted
     @Modifying
     @Query("UPDATE Message m SET m.file = null WHERE m.file.id = :fileId")
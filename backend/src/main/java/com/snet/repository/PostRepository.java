@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -27,6 +28,28 @@ public interface PostRepository extends JpaRepository<Post, Long> {
     @Query("SELECT p FROM Post p WHERE p.privacy = 'PUBLIC' OR (p.user IN :friends AND p.privacy IN ('PUBLIC', 'FRIENDS_ONLY')) OR p.user = :currentUser ORDER BY p.createdAt DESC")
     Page<Post> findPostsForUser(@Param("currentUser") User currentUser, @Param("friends") List<User> friends, Pageable pageable);
     
+    // File access checks, both served by idx_posts_file_id
+    @Query("SELECT CASE WHEN COUNT(p) > 0 THEN true ELSE false END FROM Post p " +
+           "WHERE p.file.id = :fileId AND p.privacy = 'PUBLIC'")
+    boolean existsPublicPostWithFile(@Param("fileId") Long fileId);
+    
+    // Accepted friendships are stored in both directions, one lookup on (user, friend) is enough
+    @Query("SELECT CASE WHEN COUNT(p) > 0 THEN true ELSE false END FROM Post p " +
+           "WHERE p.file.id = :fileId AND (p.privacy = 'PUBLIC' OR p.user = :viewer " +
+           "OR (p.privacy = 'FRIENDS_ONLY' AND EXISTS (SELECT f.id FROM Friendship f " +
+           "WHERE f.user = :viewer AND f.friend = p.user AND f.status = 'ACCEPTED')))")
+    boolean existsPostWithFileVisibleTo(@Param("fileId") Long fileId, @Param("viewer") User viewer);
+    
+    // Batch forms of the two checks above: which of these files are visible
+    @Query("SELECT DISTINCT p.file.id FROM Post p WHERE p.file.id IN :fileIds AND p.privacy = 'PUBLIC'")
+    List<Long> findFileIdsInPublicPosts(@Param("fileIds") Collection<Long> fileIds);
+    
+    @Query("SELECT DISTINCT p.file.id FROM Post p " +
+           "WHERE p.file.id IN :fileIds AND (p.privacy = 'PUBLIC' OR p.user = :viewer " +
+           "OR (p.privacy = 'FRIENDS_ONLY' AND EXISTS (SELECT f.id FROM Friendship f " +
+           "WHERE f.user = :viewer AND f.friend = p.user AND f.status = 'ACCEPTED')))")
+    List<Long> findFileIdsInPostsVisibleTo(@Param("fileIds") Collection<Long> fileIds, @Param("viewer") User viewer);
+    
     // Đếm số bài đăng của user
     long countByUser(User user);
     
@@ -3,7 +3,10 @@ package com.snet.repository;
 import com.snet.model.Post;
 import com.snet.model.PostShare;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -13,4 +16,17 @@ public interface PostShareRepository extends JpaRepository<PostShare, Long> {
     Optional<PostShare> findByShareToken(String shareToken);
     List<PostShare> findByPost(Post post);
     Optional<PostShare> findFirstByPostAndActiveTrueOrderByCreatedAtDesc(Post post);
+    
+    // QR images of shares that can no longer be opened; PostShareService regenerates a missing one on demand
+    @Query(value = "SELECT COUNT(*), COALESCE(SUM(LENGTH(qr_code)), 0) FROM post_shares " +
+                   "WHERE qr_code IS NOT NULL AND (active = false OR expires_at < NOW())",
+           nativeQuery = true)
+    List<Object[]> sumStaleQrCodes();
+    
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE post_shares SET qr_code = NULL " +
+                   "WHERE qr_code IS NOT NULL AND (active = false OR expires_at < NOW())",
+           nativeQuery = true)
+    int clearStaleQrCodes();
 }
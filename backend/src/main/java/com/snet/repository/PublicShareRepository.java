@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -33,4 +34,23 @@ public interface PublicShareRepository extends JpaRepository<PublicShare, Long>
     void deleteByFileId(@Param("fileId") Long fileId);
     
     List<PublicShare> findByFile(FileMetadata file);
+    
+    /**
+     * Counts one access if the share is still usable. Check and increment are one statement, so
+     * concurrent downloads can never take the count past maxAccessCount.
+     *
+     * @return 1 when the access was granted, 0 when the share is inactive, expired or used up
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE PublicShare ps SET ps.accessCount = ps.accessCount + 1 " +
+           "WHERE ps.shareToken = :shareToken AND ps.active = true " +
+           "AND (ps.expiresAt IS NULL OR ps.expiresAt > :now) " +
+           "AND (ps.maxAccessCount IS NULL OR ps.accessCount < ps.maxAccessCount)")
+    int claimAccess(@Param("shareToken") String shareToken, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE PublicShare ps SET ps.active = false WHERE ps.id = :id")
+    void deactivate(@Param("id") Long id);
 }
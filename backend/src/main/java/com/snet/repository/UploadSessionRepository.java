@@ -0,0 +1,36 @@
+package com.snet.repository;
+
+import com.snet.model.UploadSession;
+import com.snet.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    
+    Optional<UploadSession> findByIdAndUserEmail(String id, String email);
+    
+    List<UploadSession> findByExpiresAtBefore(LocalDateTime now);
+    
+    List<UploadSession> findByUser(User user);
+    
+    // Expired sessions can no longer complete, they stop counting before the sweeper removes them
+    @Query("SELECT COALESCE(SUM(s.totalSize), 0) FROM UploadSession s WHERE s.user = :user AND s.expiresAt > :now")
+    long sumReservedByUser(@Param("user") User user, @Param("now") LocalDateTime now);
+    
+    // Only moves forward from the offset the chunk was written at
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.receivedBytes = :receivedBytes, s.expiresAt = :expiresAt " +
+           "WHERE s.id = :id AND s.receivedBytes = :offset")
+    int advance(@Param("id") String id, @Param("offset") Long offset,
+                @Param("receivedBytes") Long receivedBytes, @Param("expiresAt") LocalDateTime expiresAt);
+}
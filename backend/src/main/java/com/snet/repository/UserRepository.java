@@ -2,9 +2,16 @@ package com.snet.repository;
 
 import com.snet.model.User;
 import com.snet.model.UserStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,4 +23,48 @@ public interface UserRepository extends JpaRepository<User, Long> {
     List<User> findByStatus(UserStatus status);
     List<User> findByDisplayNameContainingIgnoreCase(String displayName);
     List<User> findByEmailContainingIgnoreCaseOrDisplayNameContainingIgnoreCase(String email, String displayName);
+    
+    // Versions for conditional GETs, never touch the blob columns
+    @Query("SELECT COALESCE(u.avatarUpdatedAt, u.updatedAt, u.createdAt) FROM User u WHERE u.id = :id")
+    Optional<LocalDateTime> findAvatarVersion(@Param("id") Long id);
+    
+    @Query("SELECT COALESCE(u.coverPhotoUpdatedAt, u.updatedAt, u.createdAt) FROM User u WHERE u.id = :id")
+    Optional<LocalDateTime> findCoverPhotoVersion(@Param("id") Long id);
+    
+    // Rendition source versions, only move when the image itself is replaced
+    @Query("SELECT u.avatarUpdatedAt FROM User u WHERE u.id = :id")
+    Optional<LocalDateTime> findAvatarUpdatedAt(@Param("id") Long id);
+    
+    @Query("SELECT u.coverPhotoUpdatedAt FROM User u WHERE u.id = :id")
+    Optional<LocalDateTime> findCoverPhotoUpdatedAt(@Param("id") Long id);
+    
+    // id, displayName, whether an avatar is stored; for batch avatar responses
+    @Query("SELECT u.id, u.displayName, CASE WHEN u.avatar IS NULL THEN false ELSE true END FROM User u WHERE u.id IN :ids")
+    List<Object[]> findAvatarSummaries(@Param("ids") Collection<Long> ids);
+    
+    // Storage accounting, see StorageQuotaService. Single statements so concurrent uploads serialize on the row
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.storageUsed = u.storageUsed + :bytes " +
+           "WHERE u.id = :id AND u.storageUsed + :bytes <= u.storageQuota")
+    int addStorageUsed(@Param("id") Long id, @Param("bytes") long bytes);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.storageUsed = CASE WHEN u.storageUsed > :bytes THEN u.storageUsed - :bytes ELSE 0 END " +
+           "WHERE u.id = :id")
+    int releaseStorageUsed(@Param("id") Long id, @Param("bytes") long bytes);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.storageUsed = :actual WHERE u.id = :id AND u.storageUsed = :expected")
+    int compareAndSetStorageUsed(@Param("id") Long id, @Param("expected") long expected, @Param("actual") long actual);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.storageQuota = :quota WHERE u.id = :id")
+    int updateStorageQuota(@Param("id") Long id, @Param("quota") long quota);
+    
+    @Query("SELECT u.id, u.storageUsed FROM User u ORDER BY u.id")
+    List<Object[]> findStorageUsed(Pageable pageable);
 }
@@ -0,0 +1,257 @@
+package com.snet.service;
+
+import com.snet.dto.BandwidthStats;
+import com.snet.model.UserRole;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token-bucket shaping of media response bodies. Active clients (users, or the remote address
+ * for anonymous requests) split media.bandwidth.total-bytes-per-second max-min fairly, each
+ * capped by the limit of its role, and bandwidth a capped client cannot use goes to the
+ * others. A client with interactive streams (playback) weighs four times a bulk-only one, and
+ * within a client the share is split the same way, so a download running next to a video
+ * never makes it stutter. Rates are rebalanced when a stream opens or closes; the byte path
+ * only touches its own bucket. Off unless a limit is configured: with none, open() returns null
+ * and responses keep the sendfile path.
+ */
+@Service
+@Slf4j
+public class BandwidthShaper {
+
+    // Bytes released per token check, small enough that a slow stream still gets steady writes
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // Idle time a bucket may bank, bounds the burst after a pause
+    private static final double BURST_SECONDS = 0.25;
+
+    public enum TrafficClass {
+        INTERACTIVE(4),
+        BULK(1);
+
+        private final int weight;
+
+        TrafficClass(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Who a response is charged to.
+     *
+     * @param role null for anonymous requests
+     */
+    public record Profile(String client, UserRole role, TrafficClass trafficClass) {
+    }
+
+    private final long totalBytesPerSecond;
+    private final long userBytesPerSecond;
+    private final long adminBytesPerSecond;
+    private final long anonymousBytesPerSecond;
+
+    // Guarded by this, only touched when streams open or close
+    private final Map<String, List<Throttle>> clients = new HashMap<>();
+
+    private final LongAdder shapedBytes = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder openedStreams = new LongAdder();
+
+    public BandwidthShaper(@Value("${media.bandwidth.total-bytes-per-second:0}") long totalBytesPerSecond,
+                           @Value("${media.bandwidth.user-bytes-per-second:0}") long userBytesPerSecond,
+                           @Value("${media.bandwidth.admin-bytes-per-second:0}") long adminBytesPerSecond,
+                           @Value("${media.bandwidth.anonymous-bytes-per-second:0}") long anonymousBytesPerSecond) {
+        this.totalBytesPerSecond = totalBytesPerSecond;
+        this.userBytesPerSecond = userBytesPerSecond;
+        this.adminBytesPerSecond = adminBytesPerSecond;
+        this.anonymousBytesPerSecond = anonymousBytesPerSecond;
+    }
+
+    public Profile profile(Authentication authentication, HttpServletRequest request, TrafficClass trafficClass) {
+        UserRole role = null;
+        if (authentication != null && authentication.isAuthenticated()) {
+            role = authentication.getAuthorities().stream()
+                    .anyMatch(a -> ("ROLE_" + UserRole.ADMIN.name()).equals(a.getAuthority()))
+                    ? UserRole.ADMIN : UserRole.USER;
+        }
+        return new Profile(TransferAdmissionService.clientKey(authentication, request), role, trafficClass);
+    }
+
+    /**
+     * Registers a response body about to be written. Close it when the body is done.
+     *
+     * @return null when nothing would limit this stream, so callers can keep zero-copy paths
+     */
+    public Throttle open(Profile profile) {
+        if (totalBytesPerSecond <= 0 && roleLimit(profile.role()) <= 0) {
+            return null;
+        }
+        Throttle throttle = new Throttle(profile);
+        synchronized (this) {
+            clients.computeIfAbsent(profile.client(), key -> new ArrayList<>()).add(throttle);
+            rebalance();
+        }
+        openedStreams.increment();
+        return throttle;
+    }
+
+    public synchronized BandwidthStats getStats() {
+        int interactive = 0;
+        int bulk = 0;
+        double allocated = 0;
+        for (List<Throttle> streams : clients.values()) {
+            for (Throttle throttle : streams) {
+                if (throttle.profile.trafficClass() == TrafficClass.INTERACTIVE) {
+                    interactive++;
+                } else {
+                    bulk++;
+                }
+                allocated += throttle.rate;
+            }
+        }
+        return BandwidthStats.builder()
+                .activeClients(clients.size())
+                .interactiveStreams(interactive)
+                .bulkStreams(bulk)
+                .totalBytesPerSecond(totalBytesPerSecond)
+                .allocatedBytesPerSecond((long) allocated)
+                .userBytesPerSecond(userBytesPerSecond)
+                .adminBytesPerSecond(adminBytesPerSecond)
+                .anonymousBytesPerSecond(anonymousBytesPerSecond)
+                .openedStreams(openedStreams.sum())
+                .shapedBytes(shapedBytes.sum())
+                .throttledMs(TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum()))
+                .build();
+    }
+
+    private long roleLimit(UserRole role) {
+        if (role == null) {
+            return anonymousBytesPerSecond;
+        }
+        return role == UserRole.ADMIN ? adminBytesPerSecond : userBytesPerSecond;
+    }
+
+    private synchronized void close(Throttle throttle) {
+        List<Throttle> streams = clients.get(throttle.profile.client());
+        if (streams != null && streams.remove(throttle) && streams.isEmpty()) {
+            clients.remove(throttle.profile.client());
+        }
+        rebalance();
+    }
+
+    /**
+     * Weighted max-min fair split: clients are served in order of how little they can take per
+     * unit of weight, so whatever a capped client leaves over is shared by the rest.
+     */
+    private void rebalance() {
+        record Demand(List<Throttle> streams, int weight, long cap) {
+        }
+        List<Demand> demands = new ArrayList<>();
+        long totalWeight = 0;
+        for (List<Throttle> streams : clients.values()) {
+            int weight = streams.stream().mapToInt(t -> t.profile.trafficClass().weight).max().orElse(1);
+            long cap = roleLimit(streams.get(0).profile.role());
+            demands.add(new Demand(streams, weight, cap > 0 ? cap : Long.MAX_VALUE));
+            totalWeight += weight;
+        }
+        demands.sort(Comparator.comparingDouble(d -> (double) d.cap() / d.weight()));
+
+        double remaining = totalBytesPerSecond > 0 ? totalBytesPerSecond : Double.MAX_VALUE;
+        for (Demand demand : demands) {
+            double fair = totalBytesPerSecond > 0 ? remaining * demand.weight() / totalWeight : Double.MAX_VALUE;
+            double share = Math.min(fair, demand.cap());
+            remaining -= share;
+            totalWeight -= demand.weight();
+
+            int streamWeight = demand.streams().stream().mapToInt(t -> t.profile.trafficClass().weight).sum();
+            for (Throttle throttle : demand.streams()) {
+                throttle.rate = share == Double.MAX_VALUE ? 0 : share * throttle.profile.trafficClass().weight / streamWeight;
+            }
+        }
+    }
+
+    /**
+     * Token bucket of one response. Used by the request thread only; the rate is set by rebalance.
+     */
+    public final class Throttle implements AutoCloseable {
+        private final Profile profile;
+        // Bytes per second, 0 while unlimited
+        private volatile double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private Throttle(Profile profile) {
+            this.profile = profile;
+        }
+
+        /**
+         * Blocks until the bucket has paid for the bytes. Tokens may go negative, the sleep
+         * covers the debt and the next refill counts the time slept.
+         */
+        public void acquire(int bytes) throws IOException {
+            shapedBytes.add(bytes);
+            double current = rate;
+            if (current <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            double burst = Math.max(current * BURST_SECONDS, CHUNK_SIZE);
+            tokens = Math.min(burst, tokens + (now - lastRefill) * current / 1_000_000_000.0);
+            lastRefill = now;
+            tokens -= bytes;
+            if (tokens < 0) {
+                long waitNanos = (long) (-tokens / current * 1_000_000_000.0);
+                throttledNanos.add(waitNanos);
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while shaping response");
+                }
+            }
+        }
+
+        /**
+         * Wraps a response stream so every write goes through this bucket in CHUNK_SIZE pieces.
+         */
+        public OutputStream wrap(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    acquire(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    int position = off;
+                    int end = off + len;
+                    while (position < end) {
+                        int n = Math.min(CHUNK_SIZE, end - position);
+                        acquire(n);
+                        out.write(b, position, n);
+                        position += n;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            BandwidthShaper.this.close(this);
+        }
+    }
+}
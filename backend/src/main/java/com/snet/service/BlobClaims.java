@@ -0,0 +1,120 @@
+package com.snet.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps payloads that a write is about to reuse from being deleted underneath it.
+ * BlobStore.put claims the key before it decides whether the payload already exists, and the
+ * claim is held until the reference to it is committed (BlobReferenceService.acquire) or the
+ * write is abandoned. Deleters read {@link #generationIfUnclaimed} before their database
+ * checks and delete the payload through {@link #deleteIfUnclaimed}: a claim taken at any point
+ * in between keeps the payload, so a delete can never race a deduplicated upload. A kept
+ * payload nothing ends up referencing is left to StorageGarbageCollector.
+ * <p>
+ * Claims and deletes of keys in the same stripe are serialized; nothing slow runs under the
+ * lock. Claims never released (a write that failed between put and acquire) lapse after
+ * file.storage.claim-timeout-ms.
+ */
+@Service
+public class BlobClaims {
+
+    private static final int STRIPES = 256;
+
+    private record Claim(int count, long claimedAt) {
+    }
+
+    private final Object[] locks = new Object[STRIPES];
+    // Bumped by every claim of a key in the stripe, lets a deleter see claims already released again
+    private final long[] generations = new long[STRIPES];
+    private final Map<String, Claim> claims = new HashMap<>();
+    private final long timeoutMs;
+
+    public BlobClaims(@Value("${file.storage.claim-timeout-ms:3600000}") long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @FunctionalInterface
+    public interface PayloadDelete {
+        boolean delete() throws IOException;
+    }
+
+    public void claim(String key) {
+        int stripe = stripe(key);
+        synchronized (locks[stripe]) {
+            long now = System.currentTimeMillis();
+            synchronized (claims) {
+                claims.merge(key, new Claim(1, now), (held, claim) -> new Claim(held.count() + 1, now));
+            }
+            generations[stripe]++;
+        }
+    }
+
+    /**
+     * Drops one claim of the key, a no-op when it has none left.
+     */
+    public void release(String key) {
+        synchronized (locks[stripe(key)]) {
+            synchronized (claims) {
+                claims.computeIfPresent(key, (k, held) -> held.count() > 1
+                        ? new Claim(held.count() - 1, held.claimedAt()) : null);
+            }
+        }
+    }
+
+    /**
+     * Start of a delete: read before checking the database for references.
+     *
+     * @return -1 when the key is claimed right now and must not be deleted
+     */
+    public long generationIfUnclaimed(String key) {
+        int stripe = stripe(key);
+        synchronized (locks[stripe]) {
+            return isClaimed(key) ? -1 : generations[stripe];
+        }
+    }
+
+    /**
+     * Runs delete unless the key was claimed since generation was read. A claim of another key
+     * in the same stripe also keeps the payload; it stays for the garbage collector.
+     *
+     * @return false when the payload was kept or delete returned false
+     */
+    public boolean deleteIfUnclaimed(String key, long generation, PayloadDelete delete) throws IOException {
+        if (generation < 0) {
+            return false;
+        }
+        int stripe = stripe(key);
+        synchronized (locks[stripe]) {
+            if (generations[stripe] != generation || isClaimed(key)) {
+                return false;
+            }
+            return delete.delete();
+        }
+    }
+
+    private boolean isClaimed(String key) {
+        synchronized (claims) {
+            Claim claim = claims.get(key);
+            if (claim == null) {
+                return false;
+            }
+            if (System.currentTimeMillis() - claim.claimedAt() > timeoutMs) {
+                claims.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+}
@@ -0,0 +1,115 @@
+package com.snet.service;
+
+import com.snet.model.FileMetadata;
+import com.snet.repository.BlobReferenceRepository;
+import com.snet.repository.FileContentRepository;
+import com.snet.repository.FileMetadataRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Moves legacy LONGBLOB payloads out of the files table into the BlobStore.
+ * Runs in small batches, one row per transaction, while reads keep falling back
+ * to files.file_data until a row has its storage key.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BlobMigrationService {
+
+    private final FileMetadataRepository fileMetadataRepository;
+    private final FileContentRepository fileContentRepository;
+    private final BlobReferenceRepository blobReferenceRepository;
+    private final BlobStore blobStore;
+    private final BlobReferenceService blobReferenceService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${file.storage.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.storage.migration.batch-size:20}")
+    private int batchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void relaxLegacyColumn() {
+        // ddl-auto=update never drops NOT NULL, and new uploads leave file_data empty
+        try {
+            jdbcTemplate.execute("ALTER TABLE files MODIFY COLUMN file_data LONGBLOB NULL");
+        } catch (DataAccessException e) {
+            log.warn("⚠️ Could not relax files.file_data constraint: {}", e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillBlobReferences() {
+        Integer created = transactionTemplate.execute(status -> blobReferenceRepository.backfillFromFiles());
+        if (created != null && created > 0) {
+            log.info("📦 Created {} missing blob reference counts", created);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${file.storage.migration.initial-delay-ms:60000}",
+               fixedDelayString = "${file.storage.migration.interval-ms:30000}")
+    public void migrateBatch() {
+        if (!enabled) {
+            return;
+        }
+
+        List<Long> ids = fileContentRepository.findIdsPendingBlobMigration(PageRequest.of(0, batchSize));
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        int migrated = 0;
+        for (Long id : ids) {
+            try {
+                if (migrateFile(id)) {
+                    migrated++;
+                }
+            } catch (RuntimeException e) {
+                log.error("❌ Blob migration failed for file {}: {}", id, e.getMessage());
+            }
+        }
+        log.info("📦 Migrated {}/{} files to blob store", migrated, ids.size());
+    }
+
+    private boolean migrateFile(Long fileId) {
+        Boolean result = transactionTemplate.execute(status -> {
+            FileMetadata file = fileMetadataRepository.findById(fileId).orElse(null);
+            if (file == null || file.getStorageKey() != null) {
+                return false;
+            }
+            byte[] fileData = fileContentRepository.findFileDataById(fileId);
+            if (fileData == null) {
+                return false;
+            }
+            try {
+                BlobStore.StoredBlob blob = blobStore.put(new ByteArrayInputStream(fileData), null,
+                        FileService.isCompressibleCategory(file.getCategory()));
+                file.setStorageKey(blob.key());
+                fileMetadataRepository.save(file);
+                fileContentRepository.clearFileData(fileId);
+                blobReferenceService.acquire(blob);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return Boolean.TRUE.equals(result);
+    }
+}
@@ -0,0 +1,107 @@
+package com.snet.service;
+
+import com.snet.repository.BlobReferenceRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+
+/**
+ * Reference counting for deduplicated payloads. Files with identical content share
+ * one blob; the payload is deleted after the transaction that drops the last reference commits.
+ * BlobStore.put claims the payload it returns (see BlobClaims), the claim is released once the
+ * reference taken here is committed, so a payload being reused is never collected in between.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BlobReferenceService {
+
+    private final BlobReferenceRepository blobReferenceRepository;
+    private final BlobStore blobStore;
+    private final BlobClaims blobClaims;
+    private final PlatformTransactionManager transactionManager;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void acquire(BlobStore.StoredBlob blob) {
+        blobReferenceRepository.acquire(blob.key(), blob.size(), blob.storedSize());
+        // The row stays locked until commit, a concurrent collect() waits for it and then sees the reference
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                blobClaims.release(blob.key());
+            }
+        });
+    }
+    
+    /**
+     * Ends put's claim on a payload that needs no new reference, e.g. one the file already points at.
+     */
+    public void unclaim(String storageKey) {
+        blobClaims.release(storageKey);
+    }
+
+    /**
+     * Drops one reference. Must run inside the transaction that deletes the FileMetadata row.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(String storageKey) {
+        if (storageKey == null) {
+            return;
+        }
+        blobReferenceRepository.release(storageKey);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                collect(storageKey);
+            }
+        });
+    }
+
+    /**
+     * Deletes a blob that was stored but never referenced, e.g. an upload rejected after writing.
+     * Ends the claim of the put that returned it.
+     */
+    public void discardIfUnreferenced(String storageKey) {
+        blobClaims.release(storageKey);
+        long generation = blobClaims.generationIfUnclaimed(storageKey);
+        if (generation < 0 || blobReferenceRepository.existsById(storageKey)) {
+            return;
+        }
+        deletePayload(storageKey, generation);
+    }
+
+    private void collect(String storageKey) {
+        // Read before the row goes: a put claiming the payload from here on keeps it
+        long generation = blobClaims.generationIfUnclaimed(storageKey);
+        if (generation < 0) {
+            // About to be referenced again, the row it finds at ref_count 0 is simply incremented
+            return;
+        }
+        // afterCommit still sees the finished transaction, the delete needs its own
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Integer removed = template.execute(status -> blobReferenceRepository.deleteIfUnreferenced(storageKey));
+        if (removed != null && removed > 0) {
+            deletePayload(storageKey, generation);
+        }
+    }
+
+    private void deletePayload(String storageKey, long generation) {
+        try {
+            if (!blobClaims.deleteIfUnclaimed(storageKey, generation, () -> blobStore.delete(storageKey))) {
+                log.info("♻️ Blob {} was claimed by a new upload, kept", storageKey);
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to delete blob {}: {}", storageKey, e.getMessage());
+        }
+    }
+}
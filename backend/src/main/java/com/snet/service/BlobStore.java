@@ -0,0 +1,124 @@
+package com.snet.service;
+
+import com.snet.model.StorageTier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed storage for file payloads.
+ * Keys are the lowercase hex SHA-256 of the logical bytes, so identical content maps to the same key
+ * whether or not the store compressed it at rest. Sizes are logical unless stated otherwise.
+ * A blob lives on one tier at a time; reads are transparent whichever it is.
+ */
+public interface BlobStore {
+
+    default StoredBlob put(InputStream content) throws IOException {
+        return put(content, null);
+    }
+
+    /**
+     * Stores content whose key the caller already knows or claims.
+     * When a blob with expectedKey exists the content is only hashed to verify it, not written
+     * again, and the blob counts as just written for garbage collection.
+     * Throws IllegalArgumentException if the content does not hash to expectedKey.
+     */
+    default StoredBlob put(InputStream content, String expectedKey) throws IOException {
+        return put(content, expectedKey, false);
+    }
+
+    /**
+     * @param compressible the content may be compressed at rest if a probe of its start shows it
+     *                     is worth it; reads are transparent either way
+     */
+    StoredBlob put(InputStream content, String expectedKey, boolean compressible) throws IOException;
+
+    InputStream open(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    /**
+     * Bytes the payload occupies in the store, less than size() when compressed at rest.
+     */
+    long storedSize(String key) throws IOException;
+
+    boolean exists(String key);
+
+    /**
+     * When the blob was written or last claimed by a duplicate upload, as BlobEntry.lastModified.
+     *
+     * @return null when the blob does not exist
+     */
+    Instant lastModified(String key) throws IOException;
+
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Path of the blob on the local filesystem, used for zero-copy serving.
+     * Empty when the store is not disk-backed, the blob is missing, compressed at rest or archived.
+     */
+    Optional<Path> localPath(String key);
+
+    /**
+     * @return null when the blob does not exist
+     */
+    StorageTier tier(String key);
+
+    /**
+     * Moves the blob to the cheaper archive tier, compressed. Does nothing when it is already there.
+     *
+     * @return false when the blob does not exist
+     */
+    boolean archive(String key) throws IOException;
+
+    /**
+     * Moves an archived blob back to the hot tier. Does nothing when it is already hot.
+     *
+     * @param compressible as for put: stay compressed when a probe shows it is worth it,
+     *                     otherwise the payload is inflated so it can be served zero-copy again
+     * @return false when the blob does not exist
+     */
+    boolean restore(String key, boolean compressible) throws IOException;
+
+    /**
+     * Every stored blob on every tier, for garbage collection. The stream holds directory
+     * handles and must be closed.
+     */
+    Stream<BlobEntry> list() throws IOException;
+
+    /**
+     * Removes what writes that never finished (a crash mid-upload) left behind.
+     *
+     * @param olderThan only leftovers last written before this, so writes in progress are kept
+     * @return bytes freed, or that would be freed on a dry run
+     */
+    long purgeTemporaryFiles(Instant olderThan, boolean dryRun) throws IOException;
+
+    static String keyOf(byte[] content) {
+        return HexFormat.of().formatHex(sha256().digest(content));
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    record StoredBlob(String key, long size, long storedSize) {
+    }
+
+    /**
+     * @param lastModified when the blob was written or last claimed by a duplicate upload
+     */
+    record BlobEntry(String key, StorageTier tier, long storedSize, Instant lastModified) {
+    }
+}
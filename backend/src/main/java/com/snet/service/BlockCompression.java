@@ -0,0 +1,329 @@
+package com.snet.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block-framed DEFLATE for payloads compressed at rest. The content is cut into fixed-size
+ * blocks that are compressed independently, followed by an index of block offsets, so a read
+ * starting at any position only inflates from the block that contains it:
+ * <pre>
+ * block 0 .. block n-1 | n x long offset | long logicalSize, int blockSize, int blockCount, long indexOffset, int magic
+ * </pre>
+ * A block that does not shrink is stored raw; its stored length then equals its logical length,
+ * which a deflated block never does.
+ */
+final class BlockCompression {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    // Bytes of the start of a payload deflated to decide whether compressing it is worthwhile
+    static final int PROBE_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x534E5A31; // "SNZ1"
+    private static final int TRAILER_SIZE = 8 + 4 + 4 + 8 + 4;
+    // Compress only when the probe saves at least 15%
+    private static final double MAX_PROBE_RATIO = 0.85;
+
+    private BlockCompression() {
+    }
+
+    /**
+     * Deflates the sample at the fastest level and reports whether it shrank enough.
+     * Already-compressed data (JPEG, MP4, ZIP-based office files) fails this immediately.
+     */
+    static boolean isCompressible(byte[] sample, int length) {
+        if (length < 512) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] out = new byte[length];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+                if (compressed > length * MAX_PROBE_RATIO) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static OutputStream newWriter(OutputStream out) {
+        return new BlockWriter(out);
+    }
+
+    static InputStream open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BlockReader(channel, readIndex(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static long logicalSize(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readTrailer(channel).getLong(0);
+        }
+    }
+
+    private record Index(long logicalSize, int blockSize, long[] offsets, long indexOffset) {
+        int blockCount() {
+            return offsets.length;
+        }
+
+        long storedLength(int block) {
+            return (block + 1 < offsets.length ? offsets[block + 1] : indexOffset) - offsets[block];
+        }
+
+        int logicalLength(int block) {
+            return (int) Math.min(blockSize, logicalSize - (long) block * blockSize);
+        }
+    }
+
+    private static ByteBuffer readTrailer(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < TRAILER_SIZE) {
+            throw new IOException("Not a compressed blob");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        if (trailer.getInt(24) != MAGIC) {
+            throw new IOException("Not a compressed blob");
+        }
+        return trailer;
+    }
+
+    private static Index readIndex(FileChannel channel) throws IOException {
+        ByteBuffer trailer = readTrailer(channel);
+        long logicalSize = trailer.getLong(0);
+        int blockSize = trailer.getInt(8);
+        int blockCount = trailer.getInt(12);
+        long indexOffset = trailer.getLong(16);
+        if (blockSize <= 0 || blockCount < 0 || indexOffset + (long) blockCount * 8 + TRAILER_SIZE != channel.size()) {
+            throw new IOException("Corrupt compressed blob index");
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(blockCount * 8);
+        readFully(channel, index, indexOffset);
+        long[] offsets = new long[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            offsets[i] = index.getLong(i * 8);
+        }
+        return new Index(logicalSize, blockSize, offsets, indexOffset);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("Compressed blob truncated");
+            }
+            offset += read;
+        }
+        buffer.flip();
+    }
+
+    private static final class BlockWriter extends OutputStream {
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[BLOCK_SIZE + 1024];
+        private long[] offsets = new long[16];
+        private int blockCount;
+        private int filled;
+        private long written;
+        private long logicalSize;
+        private boolean closed;
+
+        BlockWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int position = off;
+            int end = off + len;
+            while (position < end) {
+                int n = Math.min(BLOCK_SIZE - filled, end - position);
+                System.arraycopy(b, position, block, filled, n);
+                filled += n;
+                position += n;
+                if (filled == BLOCK_SIZE) {
+                    flushBlock();
+                }
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, blockCount * 2);
+            }
+            offsets[blockCount++] = written;
+
+            deflater.reset();
+            deflater.setInput(block, 0, filled);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < filled) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            if (deflater.finished() && length < filled) {
+                out.write(compressed, 0, length);
+                written += length;
+            } else {
+                out.write(block, 0, filled);
+                written += filled;
+            }
+            logicalSize += filled;
+            filled = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (filled > 0) {
+                    flushBlock();
+                }
+                ByteBuffer tail = ByteBuffer.allocate(blockCount * 8 + TRAILER_SIZE);
+                for (int i = 0; i < blockCount; i++) {
+                    tail.putLong(offsets[i]);
+                }
+                tail.putLong(logicalSize).putInt(BLOCK_SIZE).putInt(blockCount).putLong(written).putInt(MAGIC);
+                out.write(tail.array());
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    private static final class BlockReader extends InputStream {
+        private final FileChannel channel;
+        private final Index index;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] block;
+        private byte[] stored = new byte[0];
+        // Logical position of the next byte returned
+        private long position;
+        // Block held in the buffer, -1 before the first read
+        private int current = -1;
+        private int currentLength;
+
+        BlockReader(FileChannel channel, Index index) {
+            this.channel = channel;
+            this.index = index;
+            this.block = new byte[index.blockSize()];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= index.logicalSize()) {
+                return -1;
+            }
+            int target = (int) (position / index.blockSize());
+            if (target != current) {
+                load(target);
+            }
+            int within = (int) (position - (long) current * index.blockSize());
+            int n = Math.min(len, currentLength - within);
+            System.arraycopy(block, within, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * Seeks through the index: blocks that are skipped entirely are never read or inflated.
+         */
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, index.logicalSize() - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            if (current < 0 || position >= index.logicalSize()) {
+                return 0;
+            }
+            long end = (long) current * index.blockSize() + currentLength;
+            return (int) Math.max(0, end - position);
+        }
+
+        private void load(int target) throws IOException {
+            int storedLength = (int) index.storedLength(target);
+            int logicalLength = index.logicalLength(target);
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(stored, 0, storedLength);
+            readFully(channel, buffer, index.offsets()[target]);
+
+            if (storedLength == logicalLength) {
+                System.arraycopy(stored, 0, block, 0, logicalLength);
+            } else {
+                inflater.reset();
+                inflater.setInput(stored, 0, storedLength);
+                try {
+                    int inflated = 0;
+                    while (inflated < logicalLength) {
+                        int n = inflater.inflate(block, inflated, logicalLength - inflated);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                            throw new IOException("Compressed block " + target + " is truncated");
+                        }
+                        inflated += n;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Compressed block " + target + " is corrupt", e);
+                }
+            }
+            current = target;
+            currentLength = logicalLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.snet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.snet.model.FileMetadata;
+import com.snet.model.User;
+import com.snet.model.UserRole;
+import com.snet.repository.MessageRepository;
+import com.snet.repository.PostRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Decides whether a non-owner may read a file: through a post they can see, or a chat
+ * message they sent, received or can read in a group. Both are indexed EXISTS queries on
+ * file_id; decisions are cached per (viewer, file) for a short TTL and dropped when a post,
+ * message, friendship or group membership that could change them is written.
+ */
+@Service
+@Slf4j
+public class FileAccessService {
+
+    private record AccessKey(Long viewerId, Long fileId) {}
+
+    private final PostRepository postRepository;
+    private final MessageRepository messageRepository;
+    private final Cache<AccessKey, Boolean> decisions;
+
+    public FileAccessService(PostRepository postRepository,
+                             MessageRepository messageRepository,
+                             @Value("${file.access.cache-ttl-ms:30000}") long cacheTtlMs,
+                             @Value("${file.access.cache-max-entries:100000}") long cacheMaxEntries) {
+        this.postRepository = postRepository;
+        this.messageRepository = messageRepository;
+        this.decisions = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(cacheTtlMs))
+                .maximumSize(cacheMaxEntries)
+                .build();
+    }
+
+    /**
+     * @param viewer null for anonymous requests, which only see files in public posts
+     */
+    public boolean canAccess(FileMetadata file, User viewer) {
+        if (viewer != null && (viewer.getRole() == UserRole.ADMIN || file.getUser().getId().equals(viewer.getId()))) {
+            return true;
+        }
+        AccessKey key = new AccessKey(viewer != null ? viewer.getId() : null, file.getId());
+        return decisions.get(key, k -> resolve(file.getId(), viewer));
+    }
+
+    /**
+     * canAccess for a whole batch: cached decisions are used as they are, the rest is resolved
+     * with one IN query per source and cached like single decisions.
+     *
+     * @return ids of the files the viewer may read
+     */
+    public Set<Long> accessibleFileIds(Collection<FileMetadata> files, User viewer) {
+        Long viewerId = viewer != null ? viewer.getId() : null;
+        Set<Long> accessible = new HashSet<>();
+        Set<Long> unresolved = new HashSet<>();
+        for (FileMetadata file : files) {
+            if (viewer != null && (viewer.getRole() == UserRole.ADMIN || file.getUser().getId().equals(viewerId))) {
+                accessible.add(file.getId());
+                continue;
+            }
+            Boolean decision = decisions.getIfPresent(new AccessKey(viewerId, file.getId()));
+            if (decision == null) {
+                unresolved.add(file.getId());
+            } else if (decision) {
+                accessible.add(file.getId());
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return accessible;
+        }
+
+        Set<Long> granted = new HashSet<>();
+        if (viewer == null) {
+            granted.addAll(postRepository.findFileIdsInPublicPosts(unresolved));
+        } else {
+            granted.addAll(postRepository.findFileIdsInPostsVisibleTo(unresolved, viewer));
+            Set<Long> rest = new HashSet<>(unresolved);
+            rest.removeAll(granted);
+            if (!rest.isEmpty()) {
+                granted.addAll(messageRepository.findFileIdsInMessagesVisibleTo(rest, viewer));
+            }
+        }
+        for (Long fileId : unresolved) {
+            decisions.put(new AccessKey(viewerId, fileId), granted.contains(fileId));
+        }
+        accessible.addAll(granted);
+        return accessible;
+    }
+
+    /**
+     * A post or message attaching this file was created, changed privacy, or was removed.
+     */
+    public void invalidateFile(Long fileId) {
+        if (fileId != null) {
+            invalidate(key -> fileId.equals(key.fileId()));
+        }
+    }
+
+    /**
+     * The viewer's friendships or group memberships changed.
+     */
+    public void invalidateViewer(Long userId) {
+        if (userId != null) {
+            invalidate(key -> userId.equals(key.viewerId()));
+        }
+    }
+
+    /**
+     * Too many viewers and files changed to name them, e.g. a user and everything they wrote was removed.
+     */
+    public void invalidateAll() {
+        invalidate(key -> true);
+    }
+
+    private boolean resolve(Long fileId, User viewer) {
+        if (viewer == null) {
+            return postRepository.existsPublicPostWithFile(fileId);
+        }
+        return postRepository.existsPostWithFileVisibleTo(fileId, viewer)
+                || messageRepository.existsMessageWithFileVisibleTo(fileId, viewer);
+    }
+
+    // Again after commit, so a check racing the write cannot keep the old decision for a full TTL
+    private void invalidate(Predicate<AccessKey> filter) {
+        decisions.asMap().keySet().removeIf(filter);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    decisions.asMap().keySet().removeIf(filter);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.snet.service;
+
+import com.snet.model.FileCategory;
+import com.snet.model.FileMetadata;
+import com.snet.model.User;
+import com.snet.repository.FileMetadataRepository;
+import com.snet.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Bulk export of a user's files as one ZIP written straight to the response. Entries are read
+ * one after another from the BlobStore through a fixed buffer, so memory stays constant
+ * whatever the export size. Media that is already compressed is STORED (a CRC pass reads it
+ * once before it is written, usually from page cache), documents are DEFLATEd. Files are
+ * grouped in one folder per category.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Deflating these again costs CPU and gains nothing
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/vnd.rar", "application/x-bzip2", "application/x-xz",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation");
+
+    private static final Set<String> UNCOMPRESSED_MEDIA_TYPES = Set.of(
+            "image/bmp", "image/x-ms-bmp", "image/tiff", "image/svg+xml", "audio/wav", "audio/x-wav", "audio/aiff");
+
+    private final FileMetadataRepository fileMetadataRepository;
+    private final UserRepository userRepository;
+    private final FileService fileService;
+
+    /**
+     * The user's own files, either the given ids or everything (optionally of one category),
+     * oldest first. Ids of other users' files are rejected rather than skipped.
+     */
+    public List<FileMetadata> selectFiles(String userEmail, List<Long> fileIds, FileCategory category) {
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        List<FileMetadata> files;
+        if (fileIds != null && !fileIds.isEmpty()) {
+            files = fileMetadataRepository.findAllById(fileIds);
+            if (files.size() != new HashSet<>(fileIds).size()) {
+                throw new RuntimeException("File not found");
+            }
+            if (files.stream().anyMatch(f -> !f.getUser().getId().equals(user.getId()))) {
+                throw new RuntimeException("Unauthorized to export this file");
+            }
+        } else {
+            files = fileMetadataRepository.findByUserAndDeletedFalse(user);
+        }
+        return files.stream()
+                .filter(f -> !f.isDeleted())
+                .filter(f -> category == null || f.getCategory() == category)
+                .sorted(Comparator.comparing(FileMetadata::getId))
+                .toList();
+    }
+
+    /**
+     * Writes the ZIP and finishes it; the caller owns and closes out.
+     */
+    public void writeZip(List<FileMetadata> files, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Set<String> names = new HashSet<>();
+
+        for (FileMetadata file : files) {
+            ZipEntry entry = new ZipEntry(uniqueName(file, names));
+            if (file.getUploadedAt() != null) {
+                entry.setTime(file.getUploadedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            }
+            if (isCompressed(file.getFileType())) {
+                // STORED entries carry size and CRC in the local header, so they must be known up front
+                CRC32 crc = new CRC32();
+                long size = 0;
+                try (InputStream in = fileService.openContent(file)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        crc.update(buffer, 0, read);
+                        size += read;
+                    }
+                }
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(crc.getValue());
+            } else {
+                entry.setMethod(ZipEntry.DEFLATED);
+            }
+
+            zip.putNextEntry(entry);
+            try (InputStream in = fileService.openContent(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    zip.write(buffer, 0, read);
+                }
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+        log.info("📦 Exported {} files as ZIP", files.size());
+    }
+
+    private static boolean isCompressed(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        if (COMPRESSED_TYPES.contains(type)) {
+            return true;
+        }
+        return (type.startsWith("image/") || type.startsWith("video/") || type.startsWith("audio/"))
+                && !UNCOMPRESSED_MEDIA_TYPES.contains(type);
+    }
+
+    /**
+     * category/filename, with " (n)" before the extension when the same name was already used.
+     */
+    private static String uniqueName(FileMetadata file, Set<String> used) {
+        String folder = file.getCategory() != null ? file.getCategory().name().toLowerCase(Locale.ROOT) : "other";
+        String fileName = file.getFileName() != null ? file.getFileName() : "file-" + file.getId();
+        // Entry names must not escape the archive or create nested folders
+        fileName = fileName.replaceAll("[/\\\\:]", "_").replaceAll("^\\.+", "_");
+        if (fileName.isBlank()) {
+            fileName = "file-" + file.getId();
+        }
+
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        String name = folder + "/" + fileName;
+        for (int n = 2; !used.add(name.toLowerCase(Locale.ROOT)); n++) {
+            name = folder + "/" + base + " (" + n + ")" + extension;
+        }
+        return name;
+    }
+}
@@ -7,24 +7,30 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageReader;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.stream.ImageInputStream;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Service
@@ -32,72 +38,165 @@ import java.util.stream.Collectors;
 public class FileService {
     
     private final FileMetadataRepository fileMetadataRepository;
+    private final FileContentRepository fileContentRepository;
     private final UserRepository userRepository;
     private final PublicShareRepository publicShareRepository;
     private final PostRepository postRepository;
     private final MessageRepository messageRepository;
-    private final FriendshipRepository friendshipRepository;
+    private final BlobStore blobStore;
+    private final BlobReferenceService blobReferenceService;
+    private final ImageCache imageCache;
+    private final FileAccessService fileAccessService;
+    private final StorageQuotaService storageQuotaService;
+    private final StorageTierService storageTierService;
+    private final PlatformTransactionManager transactionManager;
+    
+    // Upload thumbnail width, height follows the aspect ratio
+    private static final int THUMBNAIL_WIDTH = 400;
+    // Placeholders only carry a few DCT components, a tiny source encodes as well as the master
+    private static final int BLURHASH_SOURCE_SIZE = 32;
+    
+    private RenditionService renditionService;
+    private MediaProcessingService mediaProcessingService;
     
     @Value("${file.max-file-size}")
     private long maxFileSize;
     
-    @Transactional
+    @Value("${file.upload.buffer-size:65536}")
+    private int uploadBufferSize;
+    
+    @Value("${file.upload.max-in-memory-image-size:20971520}")
+    private long maxInMemoryImageSize;
+    
+    // Setter injection to avoid circular dependency (both services call back into FileService)
+    public void setRenditionService(RenditionService renditionService) {
+        this.renditionService = renditionService;
+    }
+    
+    public void setMediaProcessingService(MediaProcessingService mediaProcessingService) {
+        this.mediaProcessingService = mediaProcessingService;
+    }
+    
     public FileResponse uploadFile(String userEmail, MultipartFile file, String description) throws IOException {
+        return uploadFile(userEmail, file, description, null);
+    }
+    
+    public FileResponse uploadFile(String userEmail, MultipartFile file, String description, String contentHash) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return uploadStream(userEmail, in, file.getOriginalFilename(), file.getContentType(), file.getSize(),
+                    description, contentHash);
+        }
+    }
+    
+    /**
+     * Streams an upload straight into the BlobStore in fixed-size buffers, so heap per
+     * upload stays bounded whatever the file size. The body is read with no transaction open,
+     * a slow client never holds a pooled connection; only the quota charge, the metadata row
+     * and the blob reference are written in one short transaction afterwards. Images are
+     * committed as PROCESSING and get EXIF rotation, a thumbnail, renditions and a BlurHash from
+     * MediaProcessingService after the upload returns; MP4/QuickTime videos are queued the same
+     * way for fast-start rewriting. Content already stored under the same SHA-256 is shared
+     * instead of written again; a client-supplied contentHash lets even streamed duplicates skip
+     * the disk write.
+     */
+    public FileResponse uploadStream(String userEmail, InputStream source, String fileName,
+                                     String declaredType, long declaredSize, String description,
+                                     String contentHash) throws IOException {
         User user = userRepository.findByEmail(userEmail)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
-        if (file.getSize() > maxFileSize) {
+        if (declaredSize > maxFileSize) {
             throw new RuntimeException("File size exceeds maximum limit");
         }
         
-        long newStorageUsed = user.getStorageUsed() + file.getSize();
-        if (newStorageUsed > user.getStorageQuota()) {
-            throw new RuntimeException("Storage quota exceeded");
-        }
-        
-        // Detect MIME type from filename if unknown
-        String contentType = file.getContentType();
-        if (contentType == null || contentType.equals("application/octet-stream")) {
-            String filename = file.getOriginalFilename();
-            if (filename != null) {
-                String lower = filename.toLowerCase();
-                if (lower.endsWith(".mp4") || lower.endsWith(".avi") || lower.endsWith(".mov") || 
-                    lower.endsWith(".mkv") || lower.endsWith(".webm")) {
-                    contentType = "video/mp4";
-                } else if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
-                    contentType = "image/jpeg";
-                } else if (lower.endsWith(".png")) {
-                    contentType = "image/png";
-                } else if (lower.endsWith(".gif")) {
-                    contentType = "image/gif";
-                }
+        String expectedKey = null;
+        if (contentHash != null && !contentHash.isBlank()) {
+            expectedKey = contentHash.trim().toLowerCase();
+            if (!expectedKey.matches("[0-9a-f]{64}")) {
+                throw new RuntimeException("Invalid content hash");
             }
         }
         
-        FileCategory category = determineFileCategory(contentType);
-        
-        FileMetadata fileMetadata = FileMetadata.builder()
-                .user(user)
-                .fileName(file.getOriginalFilename())
-                .fileType(contentType)
-                .fileSize(file.getSize())
-                .fileData(category == FileCategory.IMAGE ? rotateImageByExif(file.getBytes()) : file.getBytes())
-                .category(category)
-                .description(description)
-                .build();
-        
-        // Generate thumbnail for images
-        if (category == FileCategory.IMAGE) {
-            fileMetadata.setThumbnail(generateThumbnail(fileMetadata.getFileData()));
+        // Held while the body streams and until the charge commits, so parallel uploads see each other
+        try (StorageQuotaService.Reservation reservation = storageQuotaService.reserve(user, declaredSize)) {
+            SizeLimitedInputStream counted = new SizeLimitedInputStream(source, maxFileSize);
+            BufferedInputStream in = new BufferedInputStream(counted, uploadBufferSize);
+            
+            // Sniff the real type from the first bytes, then rewind
+            in.mark(MediaTypeSniffer.HEADER_LENGTH);
+            byte[] header = in.readNBytes(MediaTypeSniffer.HEADER_LENGTH);
+            in.reset();
+            
+            String contentType = MediaTypeSniffer.sniff(header, guessContentType(declaredType, fileName));
+            FileCategory category = determineFileCategory(contentType);
+            
+            BlobStore.StoredBlob blob = blobStore.put(in, expectedKey, isCompressibleCategory(category));
+            
+            long fileSize = counted.getCount();
+            boolean needsProcessing = category == FileCategory.IMAGE
+                    || (category == FileCategory.VIDEO && Mp4FastStart.supports(contentType));
+            
+            FileMetadata fileMetadata;
+            try {
+                // Joins the caller's transaction when there is one (completing an upload session)
+                fileMetadata = new TransactionTemplate(transactionManager).execute(status -> {
+                    if (!storageQuotaService.charge(user.getId(), fileSize)) {
+                        throw new RuntimeException("Storage quota exceeded");
+                    }
+                    FileMetadata saved = fileMetadataRepository.saveAndFlush(FileMetadata.builder()
+                            .user(user)
+                            .fileName(fileName)
+                            .fileType(contentType)
+                            .fileSize(fileSize)
+                            .storageKey(blob.key())
+                            // Duplicate content may already sit in the archive, the first read promotes it
+                            .storageTier(blobStore.tier(blob.key()))
+                            .category(category)
+                            .description(description)
+                            .processingStatus(needsProcessing ? ProcessingStatus.PROCESSING : ProcessingStatus.READY)
+                            .build());
+                    blobReferenceService.acquire(blob);
+                    
+                    // EXIF rotation / thumbnail or MP4 fast-start run on the media executor once this commits
+                    if (needsProcessing) {
+                        mediaProcessingService.submitAfterCommit(saved.getId());
+                    }
+                    return saved;
+                });
+            } catch (RuntimeException e) {
+                blobReferenceService.discardIfUnreferenced(blob.key());
+                throw e;
+            }
+            return convertToResponse(fileMetadata);
         }
-        
-        fileMetadata = fileMetadataRepository.save(fileMetadata);
-        
-        // Update user storage
-        user.setStorageUsed(newStorageUsed);
-        userRepository.save(user);
-        
-        return convertToResponse(fileMetadata);
+    }
+    
+    /**
+     * Categories worth probing for compression at rest; images, video and audio are already compressed.
+     */
+    public static boolean isCompressibleCategory(FileCategory category) {
+        return category == FileCategory.DOCUMENT || category == FileCategory.OTHER;
+    }
+    
+    // Detect MIME type from filename if unknown
+    private String guessContentType(String contentType, String filename) {
+        if (contentType != null && !contentType.equals("application/octet-stream")) {
+            return contentType;
+        }
+        if (filename != null) {
+            String lower = filename.toLowerCase();
+            if (lower.endsWith(".mp4") || lower.endsWith(".avi") || lower.endsWith(".mov") || 
+                lower.endsWith(".mkv") || lower.endsWith(".webm")) {
+                return "video/mp4";
+            } else if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+                return "image/jpeg";
+            } else if (lower.endsWith(".png")) {
+                return "image/png";
+            } else if (lower.endsWith(".gif")) {
+                return "image/gif";
+            }
+        }
+        return contentType;
     }
     
     public FileResponse getFileInfo(Long fileId) {
@@ -106,16 +205,14 @@ public class FileService {
         return convertToResponse(file);
     }
     
-    public byte[] getFileData(Long fileId) {
-        FileMetadata file = fileMetadataRepository.findById(fileId)
+    public FileMetadata getFile(Long fileId) {
+        return fileMetadataRepository.findById(fileId)
                 .orElseThrow(() -> new RuntimeException("File not found"));
-        return file.getFileData();
     }
     
-    public byte[] getFileData(Long fileId, Authentication authentication) {
+    public FileMetadata getAccessibleFile(Long fileId, Authentication authentication) {
         System.out.println("🔍 Getting file data for fileId: " + fileId);
-        FileMetadata file = fileMetadataRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
+        FileMetadata file = getFile(fileId);
         
         System.out.println("📁 File found: " + file.getFileName() + ", deleted: " + file.isDeleted());
         
@@ -134,64 +231,87 @@ public class FileService {
             System.out.println("👤 Current user: " + currentUser.getEmail() + " (Role: " + currentUser.getRole() + ")");
         }
         
-        // Allow if admin or file owner
-        if (currentUser != null && 
-            (currentUser.getRole() == UserRole.ADMIN || 
-             file.getUser().getId().equals(currentUser.getId()))) {
-            System.out.println("✅ Access granted (owner/admin)");
-            return file.getFileData();
-        }
-        
-        // Check if file is used in a post that current user can view
-        List<Post> postsWithFile = postRepository.findAll().stream()
-            .filter(p -> p.getFile() != null && p.getFile().getId().equals(fileId))
-            .collect(java.util.stream.Collectors.toList());
-        
-        for (Post post : postsWithFile) {
-            if (canViewPost(post, currentUser, post.getUser())) {
-                System.out.println("✅ Access granted via post: " + post.getId());
-                return file.getFileData();
-            }
+        // Owner/admin, or a post or chat message the user can see (indexed lookups, cached per viewer)
+        if (fileAccessService.canAccess(file, currentUser)) {
+            System.out.println("✅ Access granted");
+            return file;
         }
         
         System.out.println("❌ Access denied!");
         throw new RuntimeException("You don't have permission to access this file");
     }
     
-    private boolean canViewPost(Post post, User currentUser, User postOwner) {
-        if (currentUser != null && currentUser.getId().equals(postOwner.getId())) {
-            return true;
+    /**
+     * Opens the stored payload, falling back to the legacy LONGBLOB for rows
+     * that BlobMigrationService has not moved yet.
+     */
+    public InputStream openContent(FileMetadata file) throws IOException {
+        if (file.getStorageKey() != null) {
+            return storageTierService.open(file.getStorageKey());
         }
-        
-        switch (post.getPrivacy()) {
-            case PUBLIC:
-                return true;
-            case FRIENDS_ONLY:
-                if (currentUser == null) return false;
-                return friendshipRepository.areFriends(currentUser, postOwner, FriendshipStatus.ACCEPTED);
-            case PRIVATE:
-                return false;
-            default:
-                return false;
+        byte[] fileData = fileContentRepository.findFileDataById(file.getId());
+        if (fileData != null) {
+            return new ByteArrayInputStream(fileData);
         }
+        throw new RuntimeException("File content not found");
     }
     
-    public byte[] getPublicFileData(Long fileId) {
-        System.out.println("🌍 Getting public file data for fileId: " + fileId);
-        FileMetadata file = fileMetadataRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
-        
-        System.out.println("📁 File found: " + file.getFileName());
-        
-        // For public access, we allow files that are used in posts
-        System.out.println("✅ Returning public file data, size: " + file.getFileData().length + " bytes");
-        return file.getFileData();
+    public long getContentLength(FileMetadata file) throws IOException {
+        if (file.getStorageKey() != null) {
+            return blobStore.size(file.getStorageKey());
+        }
+        // The byte length of what openContent will stream; file_size is the client's declared size
+        Long length = fileContentRepository.findFileDataLengthById(file.getId());
+        if (length != null) {
+            return length;
+        }
+        throw new RuntimeException("File content not found");
     }
-
+    
+    public Optional<Path> getLocalPath(FileMetadata file) {
+        if (file.getStorageKey() == null) {
+            return Optional.empty();
+        }
+        return blobStore.localPath(file.getStorageKey());
+    }
+    
+    /**
+     * Strong validator for a served variant of the file. The storage key is the content hash,
+     * so it changes whenever the bytes do (including after background EXIF rotation).
+     */
+    public String getETag(FileMetadata file, String variant) {
+        String base = file.getStorageKey() != null
+                ? file.getStorageKey()
+                : "file-" + file.getId() + "-" + MediaStreamService.epochMillis(file.getUploadedAt());
+        return variant != null ? base + "-" + variant : base;
+    }
+    
+    public byte[] readContent(FileMetadata file) throws IOException {
+        try (InputStream in = openContent(file)) {
+            return in.readAllBytes();
+        }
+    }
+    
+    /**
+     * Copies bytes [start, end] of the payload to the output without buffering the whole file.
+     */
+    public void writeContent(FileMetadata file, OutputStream out, long start, long end) throws IOException {
+        try (InputStream in = openContent(file)) {
+            StreamUtils.copyRange(in, out, start, end);
+        }
+    }
+    
     public byte[] getThumbnail(Long fileId) {
-        FileMetadata file = fileMetadataRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
-        return file.getThumbnail();
+        try {
+            return imageCache.get(RenditionSource.FILE, fileId, "upload-thumbnail", null, () -> {
+                if (!fileMetadataRepository.existsById(fileId)) {
+                    throw new RuntimeException("File not found");
+                }
+                return fileContentRepository.findThumbnailById(fileId);
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load thumbnail", e);
+        }
     }
     
     public List<FileResponse> getUserFiles(String userEmail) {
@@ -231,12 +351,13 @@ public class FileService {
         publicShareRepository.deleteByFileId(fileId);
         
         // Step 4: Update user storage BEFORE deleting file
-        user.setStorageUsed(user.getStorageUsed() - file.getFileSize());
-        userRepository.save(user);
-        System.out.println("💾 Updated user storage: " + user.getStorageUsed() + " bytes");
+        storageQuotaService.release(user.getId(), file.getFileSize());
+        System.out.println("💾 Released " + file.getFileSize() + " bytes of user storage");
         
         // Step 5: HARD DELETE - Remove file from database completely
         fileMetadataRepository.delete(file);
+        blobReferenceService.release(file.getStorageKey());
+        renditionService.invalidate(RenditionSource.FILE, fileId);
         System.out.println("✅ File permanently deleted from database!");
     }
     
@@ -260,49 +381,147 @@ public class FileService {
     
     public byte[] rotateImageByExif(byte[] imageData) throws IOException {
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(imageData);
-            BufferedImage image = ImageIO.read(bais);
-            
-            if (image == null) return imageData;
-            
-            // Đọc EXIF orientation
-            com.drew.metadata.Metadata metadata = com.drew.imaging.ImageMetadataReader.readMetadata(new ByteArrayInputStream(imageData));
-            com.drew.metadata.exif.ExifIFD0Directory exifDir = metadata.getFirstDirectoryOfType(com.drew.metadata.exif.ExifIFD0Directory.class);
-            
-            if (exifDir == null || !exifDir.containsTag(com.drew.metadata.exif.ExifIFD0Directory.TAG_ORIENTATION)) {
-                System.out.println("✅ No EXIF orientation found");
+            // Đọc EXIF orientation trước, chỉ decode toàn bộ ảnh khi thật sự cần xoay
+            int orientation = readExifOrientation(imageData);
+            int angle = rotationAngle(orientation);
+            if (angle == 0) {
+                System.out.println("✅ No EXIF rotation needed");
                 return imageData;
             }
             
-            int orientation = exifDir.getInt(com.drew.metadata.exif.ExifIFD0Directory.TAG_ORIENTATION);
-            System.out.println("🔄 EXIF Orientation: " + orientation);
-            BufferedImage rotatedImage = image;
-            
-            switch (orientation) {
-                case 3: // 180 độ
-                    System.out.println("🔄 Rotating 180°");
-                    rotatedImage = rotateImage(image, 180);
-                    break;
-                case 6: // 90 độ phải
-                    System.out.println("🔄 Rotating 90° right");
-                    rotatedImage = rotateImage(image, 90);
-                    break;
-                case 8: // 90 độ trái
-                    System.out.println("🔄 Rotating 90° left");
-                    rotatedImage = rotateImage(image, 270);
-                    break;
-            }
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+            if (image == null) return imageData;
             
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(rotatedImage, "jpg", baos);
+            System.out.println("🔄 EXIF Orientation: " + orientation + ", rotating " + angle + "°");
+            byte[] rotated = encodeJpeg(rotateImage(image, angle));
             System.out.println("✅ Image rotated and saved");
-            return baos.toByteArray();
+            return rotated;
         } catch (Exception e) {
             System.out.println("❌ EXIF rotation error: " + e.getMessage());
             return imageData;
         }
     }
     
+    /**
+     * Ingests a stored image: up to file.upload.max-in-memory-image-size it is read into memory
+     * and gets an upright master, anything larger is decoded from a stream instead.
+     *
+     * @return null when the content is not a decodable image
+     */
+    IngestedImage ingestImage(FileMetadata file) throws IOException {
+        if (file.getFileSize() != null && file.getFileSize() > maxInMemoryImageSize) {
+            return ingestLargeImage(file);
+        }
+        return ingestImage(readContent(file));
+    }
+    
+    /**
+     * Single pass over an uploaded image: EXIF read once, pixels decoded once, and the upright
+     * master, the upload thumbnail and every standard rendition derived from that one raster.
+     * Without rotation the master stays byte-identical, so the decode is only as large as the
+     * biggest derived size needs.
+     *
+     * @return null when the data is not a decodable image
+     */
+    IngestedImage ingestImage(byte[] imageData) throws IOException {
+        int orientation = readExifOrientation(imageData);
+        int angle = rotationAngle(orientation);
+        
+        ImageDownscaler.Decoded decoded = ImageDownscaler.decode(imageData, derivedBoxes(angle, angle != 0));
+        if (decoded == null) {
+            return null;
+        }
+        
+        BufferedImage upright = angle != 0 ? rotateImage(decoded.image(), angle) : decoded.image();
+        byte[] master = angle != 0 ? encodeJpeg(upright) : null;
+        return derive(master, orientation, angle, decoded, upright);
+    }
+    
+    /**
+     * Same derived sizes for an image too large to hold in memory: the content is streamed
+     * through the subsampling decoder, so the raster is only as large as the biggest rendition
+     * needs. The full-resolution master is never re-encoded; it keeps its EXIF tag, and the
+     * orientation is left unrecorded so readers still apply it.
+     */
+    private IngestedImage ingestLargeImage(FileMetadata file) throws IOException {
+        int orientation;
+        try (InputStream in = openContent(file)) {
+            orientation = readExifOrientation(in);
+        }
+        int angle = rotationAngle(orientation);
+        
+        ImageDownscaler.Decoded decoded;
+        try (InputStream in = openContent(file)) {
+            decoded = ImageDownscaler.decode(in, derivedBoxes(angle, false));
+        }
+        if (decoded == null) {
+            return null;
+        }
+        
+        BufferedImage upright = angle != 0 ? rotateImage(decoded.image(), angle) : decoded.image();
+        return derive(null, angle != 0 ? null : orientation, angle, decoded, upright);
+    }
+    
+    /**
+     * Boxes in source orientation; renditions are square so only the thumbnail box turns.
+     */
+    private static int[][] derivedBoxes(int angle, boolean fullResolution) {
+        boolean quarterTurn = angle == 90 || angle == 270;
+        List<int[]> boxes = new ArrayList<>();
+        boxes.add(quarterTurn ? new int[]{Integer.MAX_VALUE, THUMBNAIL_WIDTH} : new int[]{THUMBNAIL_WIDTH, Integer.MAX_VALUE});
+        RenditionService.RENDITION_SIZES.values().forEach(size -> boxes.add(new int[]{size, size}));
+        if (fullResolution) {
+            // The rotated master is re-encoded at full resolution
+            boxes.add(new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE});
+        }
+        return boxes.toArray(new int[0][]);
+    }
+    
+    private static IngestedImage derive(byte[] master, Integer orientation, int angle,
+                                        ImageDownscaler.Decoded decoded, BufferedImage upright) throws IOException {
+        boolean quarterTurn = angle == 90 || angle == 270;
+        byte[] thumbnail = encodeJpeg(ImageDownscaler.scaleToFit(upright, THUMBNAIL_WIDTH, Integer.MAX_VALUE));
+        
+        Map<String, byte[]> renditions = new HashMap<>();
+        for (Map.Entry<String, Integer> rendition : RenditionService.RENDITION_SIZES.entrySet()) {
+            renditions.put(rendition.getKey(),
+                    encodeJpeg(ImageDownscaler.scaleToFit(upright, rendition.getValue(), rendition.getValue())));
+        }
+        
+        return new IngestedImage(master, thumbnail, renditions, orientation,
+                quarterTurn ? decoded.sourceHeight() : decoded.sourceWidth(),
+                quarterTurn ? decoded.sourceWidth() : decoded.sourceHeight(),
+                describeColorModel(decoded.image()), placeholder(upright));
+    }
+    
+    /**
+     * BlurHash with 4 components along the long side and 3 along the short one, about 28 characters.
+     */
+    private static String placeholder(BufferedImage upright) {
+        BufferedImage small = ImageDownscaler.scaleToFit(upright, BLURHASH_SOURCE_SIZE, BLURHASH_SOURCE_SIZE);
+        boolean portrait = small.getHeight() > small.getWidth();
+        return BlurHash.encode(small, portrait ? 3 : 4, portrait ? 4 : 3);
+    }
+    
+    /**
+     * @param master      upright re-encoding of the image, null when the stored one is kept
+     * @param orientation EXIF orientation as uploaded when the stored master is upright, null
+     *                    when it still carries its orientation tag
+     * @param width       upright width of the full-resolution image
+     * @param blurhash    placeholder shown by clients until the image has loaded
+     */
+    record IngestedImage(byte[] master, byte[] thumbnail, Map<String, byte[]> renditions,
+                         Integer orientation, int width, int height, String colorModel, String blurhash) {
+    }
+    
+    /**
+     * EXIF orientation still to apply to a stored image: ingested masters are already upright,
+     * null means it has to be read from the image itself.
+     */
+    public Integer getPendingOrientation(FileMetadata file) {
+        return file.getOrientation() != null ? 1 : null;
+    }
+    
     private BufferedImage rotateImage(BufferedImage image, int angle) {
         int width = image.getWidth();
         int height = image.getHeight();
@@ -341,27 +560,6 @@ public class FileService {
         return rotated;
     }
     
-    private byte[] generateThumbnail(byte[] imageData) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(imageData);
-        BufferedImage originalImage = ImageIO.read(bais);
-        
-        if (originalImage == null) {
-            return null;
-        }
-        
-        int thumbnailWidth = 400;
-        int thumbnailHeight = (int) (originalImage.getHeight() * ((double) thumbnailWidth / originalImage.getWidth()));
-        
-        BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = thumbnail.createGraphics();
-        g.drawImage(originalImage.getScaledInstance(thumbnailWidth, thumbnailHeight, Image.SCALE_SMOOTH), 0, 0, null);
-        g.dispose();
-        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(thumbnail, "jpg", baos);
-        return baos.toByteArray();
-    }
-    
     private FileResponse convertToResponse(FileMetadata file) {
         return FileResponse.builder()
                 .id(file.getId())
@@ -373,169 +571,152 @@ public class FileService {
                 .uploadedAt(file.getUploadedAt())
                 .userId(file.getUser().getId())
                 .uploaderName(file.getUser().getDisplayName())
+                .processingStatus(file.getProcessingStatus() != null
+                        ? file.getProcessingStatus().name() : ProcessingStatus.READY.name())
+                .durationMs(file.getDurationMs())
+                .width(file.getWidth())
+                .height(file.getHeight())
+                .codec(file.getCodec())
+                .blurhash(file.getBlurhash())
                 .build();
     }
     
     public byte[] resizeImage(byte[] imageBytes, String size) throws IOException {
-        int targetSize;
-        switch (size) {
-            case "thumbnail":
-                targetSize = 150;  // 150px for thumbnails
-                break;
-            case "preview":
-                targetSize = 400;  // 400px for preview in chat
-                break;
-            case "medium":
-                targetSize = 800;  // 800px for medium
-                break;
-            default:
-                return imageBytes;  // Return original for unknown sizes
-        }
-        
-        ByteArrayInputStream bais = new ByteArrayInputStream(imageBytes);
-        BufferedImage originalImage = ImageIO.read(bais);
-        
-        if (originalImage == null) {
-            return imageBytes; // Return original if can't read
+        return resizeImage(imageBytes, size, null);
+    }
+    
+    /**
+     * @param orientation EXIF orientation to apply, null to read it from imageBytes
+     */
+    public byte[] resizeImage(byte[] imageBytes, String size, Integer orientation) throws IOException {
+        Integer targetSize = RenditionService.RENDITION_SIZES.get(size);
+        if (targetSize == null) {
+            return imageBytes;  // Return original for unknown sizes
         }
         
-        // Handle EXIF orientation (auto-rotate)
-        originalImage = autoRotateImage(imageBytes, originalImage);
-        
-        // Calculate aspect ratio
-        int originalWidth = originalImage.getWidth();
-        int originalHeight = originalImage.getHeight();
-        double aspectRatio = (double) originalWidth / originalHeight;
+        // Fit the longer side to targetSize, decoding only the pixels that needs
+        BufferedImage resizedImage = ImageDownscaler.fit(imageBytes, targetSize, targetSize);
         
-        int newWidth, newHeight;
-        
-        // Adjust dimensions to maintain aspect ratio
-        if (aspectRatio > 1) {
-            // Landscape
-            newWidth = targetSize;
-            newHeight = (int) (targetSize / aspectRatio);
-        } else {
-            // Portrait or Square
-            newHeight = targetSize;
-            newWidth = (int) (targetSize * aspectRatio);
+        if (resizedImage == null) {
+            return imageBytes; // Return original if can't read
         }
         
-        // Create resized image
-        BufferedImage resizedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = resizedImage.createGraphics();
-        
-        // Enable high-quality rendering
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        g.drawImage(originalImage, 0, 0, newWidth, newHeight, null);
-        g.dispose();
-        
-        // Convert to byte array with compression
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(resizedImage, "jpg", baos);
+        // Handle EXIF orientation (auto-rotate); the box is square, so rotating after scaling is equivalent and cheap
+        int angle = rotationAngle(orientation != null ? orientation : readExifOrientation(imageBytes));
+        if (angle != 0) {
+            resizedImage = rotateImage(resizedImage, angle);
+        }
         
-        return baos.toByteArray();
+        return encodeJpeg(resizedImage);
     }
     
-    private BufferedImage autoRotateImage(byte[] imageBytes, BufferedImage image) {
-        try {
-            // Get EXIF orientation
-            int orientation = getExifOrientation(imageBytes);
-            
-            if (orientation == 1) {
-                return image; // No rotation needed
-            }
-            
-            // Apply rotation based on EXIF orientation
-            AffineTransform transform = new AffineTransform();
-            
-            switch (orientation) {
-                case 3: // 180 degrees
-                    transform.translate(image.getWidth(), image.getHeight());
-                    transform.rotate(Math.PI);
-                    break;
-                case 6: // 90 degrees CW (Rotate 270 CCW)
-                    transform.translate(image.getHeight(), 0);
-                    transform.rotate(Math.PI / 2);
-                    break;
-                case 8: // 90 degrees CCW (Rotate 90 CW)
-                    transform.translate(0, image.getWidth());
-                    transform.rotate(-Math.PI / 2);
-                    break;
-                default:
-                    return image; // Unknown orientation, return original
-            }
-            
-            // Create new image with swapped dimensions for 90/270 degree rotations
-            int newWidth = (orientation == 6 || orientation == 8) ? image.getHeight() : image.getWidth();
-            int newHeight = (orientation == 6 || orientation == 8) ? image.getWidth() : image.getHeight();
-            
-            BufferedImage rotatedImage = new BufferedImage(newWidth, newHeight, image.getType());
-            Graphics2D g = rotatedImage.createGraphics();
-            g.setTransform(transform);
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        if (image.getColorModel().hasAlpha()) {
+            // The JPEG writer rejects alpha, flatten onto RGB first
+            BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
             g.drawImage(image, 0, 0, null);
             g.dispose();
-            
-            return rotatedImage;
-        } catch (Exception e) {
-            System.err.println("⚠️ Failed to auto-rotate image: " + e.getMessage());
-            return image; // Return original on error
+            image = rgb;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", baos);
+        return baos.toByteArray();
+    }
+    
+    // Mirrored orientations (2, 4, 5, 7) are left as they are
+    private static int rotationAngle(int orientation) {
+        switch (orientation) {
+            case 3: return 180;
+            case 6: return 90;
+            case 8: return 270;
+            default: return 0;
         }
     }
     
-    private int getExifOrientation(byte[] imageBytes) {
+    private static String describeColorModel(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        String base;
+        switch (colorModel.getColorSpace().getType()) {
+            case ColorSpace.TYPE_GRAY: base = "GRAY"; break;
+            case ColorSpace.TYPE_CMYK: base = "CMYK"; break;
+            default: base = "RGB";
+        }
+        return colorModel.hasAlpha() ? base + "A" : base;
+    }
+    
+    /**
+     * Reads only the metadata segments, no pixels; 1 (normal) when there is no orientation tag.
+     */
+    private int readExifOrientation(byte[] imageBytes) {
+        return readExifOrientation(new ByteArrayInputStream(imageBytes));
+    }
+    
+    private int readExifOrientation(InputStream imageStream) {
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(imageBytes);
-            ImageInputStream iis = ImageIO.createImageInputStream(bais);
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
-            
-            if (readers.hasNext()) {
-                ImageReader reader = readers.next();
-                reader.setInput(iis);
-                
-                IIOMetadata metadata = reader.getImageMetadata(0);
-                if (metadata != null) {
-                    Node root = metadata.getAsTree(metadata.getNativeMetadataFormatName());
-                    return findOrientation(root);
-                }
-                
-                reader.dispose();
+            com.drew.metadata.Metadata metadata = com.drew.imaging.ImageMetadataReader.readMetadata(imageStream);
+            com.drew.metadata.exif.ExifIFD0Directory exifDir = metadata.getFirstDirectoryOfType(com.drew.metadata.exif.ExifIFD0Directory.class);
+            if (exifDir != null && exifDir.containsTag(com.drew.metadata.exif.ExifIFD0Directory.TAG_ORIENTATION)) {
+                return exifDir.getInt(com.drew.metadata.exif.ExifIFD0Directory.TAG_ORIENTATION);
             }
-            
-            iis.close();
         } catch (Exception e) {
             System.err.println("⚠️ Failed to read EXIF orientation: " + e.getMessage());
         }
-        
         return 1; // Default: no rotation
     }
     
-    private int findOrientation(Node node) {
-        if (node.getNodeName().equals("app1")) {
-            NodeList children = node.getChildNodes();
-            for (int i = 0; i < children.getLength(); i++) {
-                Node child = children.item(i);
-                if (child.getNodeName().equals("app1Marker")) {
-                    NamedNodeMap attributes = child.getAttributes();
-                    Node orientationNode = attributes.getNamedItem("Orientation");
-                    if (orientationNode != null) {
-                        return Integer.parseInt(orientationNode.getNodeValue());
-                    }
-                }
+    /**
+     * Counts bytes read from an upload and fails once it grows past the configured maximum.
+     */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        
+        private final long limit;
+        private long count;
+        
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+        
+        long getCount() {
+            return count;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                advance(1);
             }
+            return b;
         }
         
-        // Search recursively
-        NodeList children = node.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            int orientation = findOrientation(children.item(i));
-            if (orientation != 1) {
-                return orientation;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                advance(read);
             }
+            return read;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            advance(skipped);
+            return skipped;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
         }
         
-        return 1; // Default
+        private void advance(long bytes) throws IOException {
+            count += bytes;
+            if (count > limit) {
+                throw new RuntimeException("File size exceeds maximum limit");
+            }
+        }
     }
 }
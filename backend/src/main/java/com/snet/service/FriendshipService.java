@@ -23,6 +23,7 @@ public class FriendshipService {
     private final FriendshipRepository friendshipRepository;
     private final UserRepository userRepository;
     private final NotificationService notificationService;
+    private final FileAccessService fileAccessService;
     
     @Transactional
     public void sendFriendRequest(Long userId, Long friendId) {
@@ -79,6 +80,10 @@ public class FriendshipService {
                 .build();
         friendshipRepository.save(reverseFriendship);
         
+        // Each side can now see the other's friends-only attachments
+        fileAccessService.invalidateViewer(friendship.getUser().getId());
+        fileAccessService.invalidateViewer(friendship.getFriend().getId());
+        
         // Gửi thông báo cho người gửi lời mời
         notificationService.notifyFriendAccept(friendship.getUser(), friendship.getFriend());
     }
@@ -92,6 +97,27 @@ public class FriendshipService {
         friendshipRepository.save(friendship);
     }
     
+    @Transactional
+    public void removeFriend(Long userId, Long friendId) {
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
+        User friend = userRepository.findById(friendId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
+        
+        // Both directions, accepted friendships are stored once per side
+        List<Friendship> friendships = new ArrayList<>();
+        friendshipRepository.findByUserAndFriend(user, friend).ifPresent(friendships::add);
+        friendshipRepository.findByUserAndFriend(friend, user).ifPresent(friendships::add);
+        if (friendships.isEmpty()) {
+            throw new RuntimeException("Hai người không phải là bạn bè");
+        }
+        friendshipRepository.deleteAll(friendships);
+        
+        // Neither side may keep seeing the other's friends-only attachments from a cached decision
+        fileAccessService.invalidateViewer(user.getId());
+        fileAccessService.invalidateViewer(friend.getId());
+    }
+    
     public List<UserResponse> getFriendsList(Long userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
@@ -4,6 +4,7 @@ import com.snet.dto.CreateGroupRequest;
 import com.snet.dto.GroupResponse;
 import com.snet.dto.UserResponse;
 import com.snet.model.ChatGroup;
+import com.snet.model.RenditionSource;
 import com.snet.model.User;
 import com.snet.repository.ChatGroupRepository;
 import com.snet.repository.UserRepository;
@@ -13,6 +14,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -24,6 +26,9 @@ public class GroupService {
     
     private final ChatGroupRepository groupRepository;
     private final UserRepository userRepository;
+    private final RenditionService renditionService;
+    private final ImageCache imageCache;
+    private final FileAccessService fileAccessService;
     
     @Transactional
     public GroupResponse createGroup(String creatorEmail, CreateGroupRequest request) {
@@ -69,7 +74,9 @@ public class GroupService {
         }
         
         group.setAvatar(file.getBytes());
+        group.setAvatarUpdatedAt(LocalDateTime.now());
         group = groupRepository.save(group);
+        renditionService.invalidate(RenditionSource.GROUP_AVATAR, groupId);
         
         return convertToResponse(group);
     }
@@ -92,6 +99,7 @@ public class GroupService {
         
         group.getMembers().add(newMember);
         group = groupRepository.save(group);
+        fileAccessService.invalidateViewer(newMember.getId());
         
         return convertToResponse(group);
     }
@@ -120,6 +128,7 @@ public class GroupService {
         group.getMembers().remove(memberToRemove);
         group.getAdmins().remove(memberToRemove);
         group = groupRepository.save(group);
+        fileAccessService.invalidateViewer(memberToRemove.getId());
         
         return convertToResponse(group);
     }
@@ -136,10 +145,13 @@ public class GroupService {
         if (user.equals(group.getCreator())) {
             group.setDeleted(true);
             groupRepository.save(group);
+            // Nobody reads the group's attachments any more
+            group.getMembers().forEach(member -> fileAccessService.invalidateViewer(member.getId()));
         } else {
             group.getMembers().remove(user);
             group.getAdmins().remove(user);
             groupRepository.save(group);
+            fileAccessService.invalidateViewer(user.getId());
         }
     }
     
@@ -164,6 +176,20 @@ public class GroupService {
         return group.getAvatar();
     }
     
+    public LocalDateTime getGroupAvatarVersion(Long groupId) {
+        return groupRepository.findAvatarVersion(groupId)
+                .orElseThrow(() -> new RuntimeException("Group not found"));
+    }
+    
+    public byte[] getGroupAvatar(Long groupId, String size) throws IOException {
+        String version = RenditionService.sourceVersion(groupRepository.findAvatarUpdatedAt(groupId));
+        if ("full".equals(size)) {
+            return imageCache.get(RenditionSource.GROUP_AVATAR, groupId, "full", version, () -> getGroupAvatar(groupId));
+        }
+        return renditionService.getRendition(RenditionSource.GROUP_AVATAR, groupId, version, size, null,
+                () -> getGroupAvatar(groupId));
+    }
+    
     private GroupResponse convertToResponse(ChatGroup group) {
         return GroupResponse.builder()
                 .id(group.getId())
@@ -0,0 +1,106 @@
+package com.snet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.snet.dto.ImageCacheStats;
+import com.snet.model.RenditionSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Byte-weighted W-TinyLFU cache for avatars, covers, renditions and thumbnails.
+ * Entries are keyed by (source, id, rendition, version) plus a per-source generation;
+ * invalidate() bumps the generation so entries loaded before an update are never served again.
+ * Entries expire after media.cache.expire-after-write-minutes, which also bounds how long the
+ * generation of an invalidated source has to be remembered.
+ */
+@Service
+public class ImageCache {
+
+    // Missing images are cached too, most users have no avatar
+    private static final byte[] ABSENT = new byte[0];
+
+    // Rough per-entry overhead of key, array header and cache node
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Cache<String, byte[]> cache;
+    // Expire the same time after their last bump as entries do after being written: by the time a
+    // source falls back to generation 0, every entry loaded before its last invalidation is gone
+    private final Map<String, Long> generations;
+    private final long maxWeightBytes;
+
+    public ImageCache(@Value("${media.cache.max-size-mb:256}") long maxSizeMb,
+                      @Value("${media.cache.expire-after-write-minutes:1440}") long expireAfterWriteMinutes) {
+        this.maxWeightBytes = maxSizeMb * 1024 * 1024;
+        Duration lifetime = Duration.ofMinutes(expireAfterWriteMinutes);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String key, byte[] value) -> value.length + ENTRY_OVERHEAD)
+                .expireAfterWrite(lifetime)
+                .recordStats()
+                .build();
+        this.generations = Caffeine.newBuilder()
+                .expireAfterWrite(lifetime)
+                .<String, Long>build()
+                .asMap();
+    }
+
+    /**
+     * @param version identifies the original (e.g. storage key), null when only explicit invalidation applies
+     */
+    public byte[] get(RenditionSource sourceType, Long sourceId, String rendition, String version,
+                      RenditionService.SourceLoader loader) throws IOException {
+        String key = key(sourceType, sourceId, rendition, version);
+        byte[] cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached == ABSENT ? null : cached;
+        }
+
+        byte[] loaded = loader.load();
+        cache.put(key, loaded != null ? loaded : ABSENT);
+        return loaded;
+    }
+
+    /**
+     * Drops every cached image of a source, again after commit so a read racing the
+     * update cannot re-cache the old bytes under the new generation.
+     */
+    public void invalidate(RenditionSource sourceType, Long sourceId) {
+        String source = sourceType + ":" + sourceId;
+        generations.merge(source, 1L, Long::sum);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    generations.merge(source, 1L, Long::sum);
+                }
+            });
+        }
+    }
+
+    public ImageCacheStats getStats() {
+        CacheStats stats = cache.stats();
+        return ImageCacheStats.builder()
+                .entries(cache.estimatedSize())
+                .weightBytes(cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .maxWeightBytes(maxWeightBytes)
+                .hitCount(stats.hitCount())
+                .missCount(stats.missCount())
+                .hitRate(stats.hitRate())
+                .evictionCount(stats.evictionCount())
+                .evictionWeightBytes(stats.evictionWeight())
+                .build();
+    }
+
+    private String key(RenditionSource sourceType, Long sourceId, String rendition, String version) {
+        String source = sourceType + ":" + sourceId;
+        return source + ":" + rendition + ":" + version + ":" + generations.getOrDefault(source, 0L);
+    }
+}
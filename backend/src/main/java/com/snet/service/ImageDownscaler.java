@@ -0,0 +1,127 @@
+package com.snet.service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Decodes images at roughly the size they will be shown in. ImageReader source subsampling
+ * drops pixels while decoding, so a 48 MP photo headed for a 400 px thumbnail never exists
+ * as a full-resolution raster; the decoded image is at most 4x the target on each side.
+ * The remaining factor is covered by successive bilinear halvings, close to SCALE_SMOOTH
+ * in quality at a fraction of its cost.
+ */
+final class ImageDownscaler {
+
+    private ImageDownscaler() {
+    }
+
+    /**
+     * Decodes the first image scaled to fit within maxWidth x maxHeight, keeping the aspect
+     * ratio and never upscaling. Pass Integer.MAX_VALUE for an unconstrained side.
+     *
+     * @return null when no ImageIO reader understands the data
+     */
+    static BufferedImage fit(byte[] data, int maxWidth, int maxHeight) throws IOException {
+        Decoded decoded = decode(data, new int[]{maxWidth, maxHeight});
+        return decoded != null ? scaleToFit(decoded.image(), maxWidth, maxHeight) : null;
+    }
+
+    /**
+     * Decodes once, subsampled only as far as the most demanding of the target boxes
+     * ({maxWidth, maxHeight}, in source orientation) allows, so every one of them can be
+     * derived from the same raster.
+     *
+     * @return null when no ImageIO reader understands the data
+     */
+    static Decoded decode(byte[] data, int[]... boxes) throws IOException {
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            return decode(in, boxes);
+        }
+    }
+
+    /**
+     * Same as {@link #decode(byte[], int[]...)} for content too large to hold as a byte array;
+     * the stream is read once and never buffered whole.
+     */
+    static Decoded decode(InputStream data, int[]... boxes) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(data)) {
+            return in != null ? decode(in, boxes) : null;
+        }
+    }
+
+    private static Decoded decode(ImageInputStream in, int[]... boxes) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            // Header only, nothing is decoded yet
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+
+            int subsampling = Integer.MAX_VALUE;
+            for (int[] box : boxes) {
+                int[] target = fitSize(width, height, box[0], box[1]);
+                // Keep at least twice the target resolution so the halvings can filter out aliasing
+                subsampling = Math.min(subsampling, Math.min(width / (2 * target[0]), height / (2 * target[1])));
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(Math.max(1, subsampling), Math.max(1, subsampling), 0, 0);
+
+            return new Decoded(reader.read(0, param), width, height);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+        int[] target = fitSize(image.getWidth(), image.getHeight(), maxWidth, maxHeight);
+        return downscale(image, target[0], target[1]);
+    }
+
+    private static int[] fitSize(int width, int height, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+        return new int[]{Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale))};
+    }
+
+    /**
+     * Halves with bilinear filtering until within 2x of the target, then does one last bilinear
+     * step. Bilinear alone only samples a 2x2 neighbourhood, so larger single steps would alias.
+     */
+    static BufferedImage downscale(BufferedImage source, int targetWidth, int targetHeight) {
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(width / 2, targetWidth);
+            height = Math.max(height / 2, targetHeight);
+
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * @param sourceWidth full-resolution width from the image header, before subsampling
+     */
+    record Decoded(BufferedImage image, int sourceWidth, int sourceHeight) {
+    }
+}
@@ -0,0 +1,386 @@
+package com.snet.service;
+
+import com.snet.model.StorageTier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local-disk blob store.
+ * Blobs live under {root}/ab/cd/abcd... so no single directory grows too large. Payloads
+ * compressed at rest sit next to them as abcd....z in BlockCompression framing. The archive
+ * tier is a second directory with the same layout, standing in for cheaper storage; every
+ * archived payload is in BlockCompression framing, so range reads still seek by block.
+ * Moves write the destination completely before removing the source, a reader always finds
+ * one of the two.
+ */
+@Service
+@Slf4j
+public class LocalBlobStore implements BlobStore {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile("([0-9a-f]{64})(\\.z)?");
+    private static final String COMPRESSED_SUFFIX = ".z";
+
+    private final Path root;
+    private final Path tmpDir;
+    private final Path archiveRoot;
+    private final Path archiveTmpDir;
+    private final int bufferSize;
+    private final BlobClaims claims;
+
+    public LocalBlobStore(BlobClaims claims,
+                          @Value("${file.storage.root}") String root,
+                          @Value("${file.storage.archive-root}") String archiveRoot,
+                          @Value("${file.upload.buffer-size:65536}") int bufferSize) throws IOException {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.archiveRoot = Paths.get(archiveRoot).toAbsolutePath().normalize();
+        this.bufferSize = bufferSize;
+        this.claims = claims;
+        this.tmpDir = this.root.resolve("tmp");
+        // Temp files on the destination's filesystem, so the final move is atomic
+        this.archiveTmpDir = this.archiveRoot.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        Files.createDirectories(archiveTmpDir);
+        log.info("📦 Blob store root: {}, archive: {}", this.root, this.archiveRoot);
+    }
+
+    @Override
+    public StoredBlob put(InputStream content, String expectedKey, boolean compressible) throws IOException {
+        String claimed = null;
+        try {
+            if (expectedKey != null) {
+                // Claimed before looking, so the payload found here cannot be collected before it is referenced
+                claims.claim(expectedKey);
+                claimed = expectedKey;
+                if (exists(expectedKey)) {
+                    StoredBlob blob = verifyExisting(content, expectedKey);
+                    claimed = null;
+                    return blob;
+                }
+            }
+            StoredBlob blob = write(content, expectedKey, compressible);
+            claimed = null;
+            return blob;
+        } finally {
+            if (claimed != null) {
+                claims.release(claimed);
+            }
+        }
+    }
+
+    private StoredBlob write(InputStream content, String expectedKey, boolean compressible) throws IOException {
+        MessageDigest digest = BlobStore.sha256();
+        Path tmp = Files.createTempFile(tmpDir, "blob-", ".tmp");
+        String claimed = null;
+        try {
+            long size = 0;
+            byte[] buffer = new byte[Math.max(bufferSize, BlockCompression.PROBE_SIZE)];
+            // The probe is the first chunk of the upload, read before deciding how to write it
+            int probed = compressible ? content.readNBytes(buffer, 0, BlockCompression.PROBE_SIZE) : 0;
+            boolean compress = BlockCompression.isCompressible(buffer, probed);
+            try (OutputStream out = compress
+                    ? BlockCompression.newWriter(Files.newOutputStream(tmp))
+                    : Files.newOutputStream(tmp)) {
+                if (probed > 0) {
+                    digest.update(buffer, 0, probed);
+                    out.write(buffer, 0, probed);
+                    size += probed;
+                }
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            String key = HexFormat.of().formatHex(digest.digest());
+            if (expectedKey != null && !expectedKey.equals(key)) {
+                throw new IllegalArgumentException("Content hash mismatch");
+            }
+            if (expectedKey == null) {
+                claims.claim(key);
+                claimed = key;
+            }
+            Path target = compress ? resolveCompressed(key) : resolve(key);
+            if (!exists(key)) {
+                Files.createDirectories(target.getParent());
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                touch(key);
+            }
+            StoredBlob blob = new StoredBlob(key, size, storedSize(key));
+            claimed = null;
+            return blob;
+        } finally {
+            if (claimed != null) {
+                claims.release(claimed);
+            }
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        Path path = resolve(key);
+        if (Files.exists(path)) {
+            return Files.newInputStream(path);
+        }
+        Path compressed = resolveCompressed(key);
+        if (Files.exists(compressed)) {
+            // Decompresses block by block; skip() seeks through the block index
+            return BlockCompression.open(compressed);
+        }
+        Path archived = resolveArchived(key);
+        if (Files.exists(archived)) {
+            return BlockCompression.open(archived);
+        }
+        throw new FileNotFoundException("Blob not found: " + key);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        Path path = resolve(key);
+        if (Files.exists(path)) {
+            return Files.size(path);
+        }
+        Path compressed = resolveCompressed(key);
+        return BlockCompression.logicalSize(Files.exists(compressed) ? compressed : resolveArchived(key));
+    }
+
+    @Override
+    public long storedSize(String key) throws IOException {
+        Path path = resolve(key);
+        if (Files.exists(path)) {
+            return Files.size(path);
+        }
+        Path compressed = resolveCompressed(key);
+        return Files.size(Files.exists(compressed) ? compressed : resolveArchived(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return tier(key) != null;
+    }
+
+    @Override
+    public Instant lastModified(String key) throws IOException {
+        Instant latest = null;
+        // A payload caught mid tier move has two copies, the newer one counts
+        for (Path path : List.of(resolve(key), resolveCompressed(key), resolveArchived(key))) {
+            try {
+                Instant modified = Files.getLastModifiedTime(path).toInstant();
+                if (latest == null || modified.isAfter(latest)) {
+                    latest = modified;
+                }
+            } catch (NoSuchFileException e) {
+                // Not on this tier or in this form
+            }
+        }
+        return latest;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = Files.deleteIfExists(resolve(key));
+        deleted |= Files.deleteIfExists(resolveCompressed(key));
+        return Files.deleteIfExists(resolveArchived(key)) || deleted;
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        Path path = resolve(key);
+        return Files.exists(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    @Override
+    public StorageTier tier(String key) {
+        if (Files.exists(resolve(key)) || Files.exists(resolveCompressed(key))) {
+            return StorageTier.HOT;
+        }
+        return Files.exists(resolveArchived(key)) ? StorageTier.ARCHIVE : null;
+    }
+
+    @Override
+    public boolean archive(String key) throws IOException {
+        Path archived = resolveArchived(key);
+        Path hot = Files.exists(resolve(key)) ? resolve(key) : resolveCompressed(key);
+        if (!Files.exists(hot)) {
+            return Files.exists(archived);
+        }
+
+        Path tmp = Files.createTempFile(archiveTmpDir, "archive-", ".tmp");
+        try {
+            if (hot.equals(resolveCompressed(key))) {
+                // Already in block framing, copied as is
+                Files.copy(hot, tmp, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (InputStream in = Files.newInputStream(hot);
+                     OutputStream out = BlockCompression.newWriter(Files.newOutputStream(tmp))) {
+                    in.transferTo(out);
+                }
+            }
+            Files.createDirectories(archived.getParent());
+            Files.move(tmp, archived, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Files.deleteIfExists(hot);
+        return true;
+    }
+
+    @Override
+    public boolean restore(String key, boolean compressible) throws IOException {
+        Path archived = resolveArchived(key);
+        if (!Files.exists(archived)) {
+            return tier(key) == StorageTier.HOT;
+        }
+
+        boolean keepCompressed = false;
+        if (compressible) {
+            try (InputStream in = BlockCompression.open(archived)) {
+                byte[] probe = in.readNBytes(BlockCompression.PROBE_SIZE);
+                keepCompressed = BlockCompression.isCompressible(probe, probe.length);
+            }
+        }
+
+        Path target = keepCompressed ? resolveCompressed(key) : resolve(key);
+        Path tmp = Files.createTempFile(tmpDir, "restore-", ".tmp");
+        try {
+            if (keepCompressed) {
+                Files.copy(archived, tmp, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (InputStream in = BlockCompression.open(archived)) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.createDirectories(target.getParent());
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Files.deleteIfExists(archived);
+        return true;
+    }
+
+    @Override
+    public Stream<BlobEntry> list() throws IOException {
+        Stream<BlobEntry> hot = entries(root, tmpDir, StorageTier.HOT);
+        try {
+            return Stream.concat(hot, entries(archiveRoot, archiveTmpDir, StorageTier.ARCHIVE));
+        } catch (IOException | RuntimeException e) {
+            hot.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long purgeTemporaryFiles(Instant olderThan, boolean dryRun) throws IOException {
+        long bytes = 0;
+        for (Path dir : List.of(tmpDir, archiveTmpDir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attributes.isRegularFile() && attributes.lastModifiedTime().toInstant().isBefore(olderThan)
+                            && (dryRun || Files.deleteIfExists(file))) {
+                        bytes += attributes.size();
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Blob files of one tier; anything else under the root (temp files, strays) is not a blob
+    private static Stream<BlobEntry> entries(Path base, Path tmp, StorageTier tier) throws IOException {
+        return Files.walk(base)
+                .filter(path -> !path.startsWith(tmp))
+                .map(path -> {
+                    Matcher matcher = FILE_NAME_PATTERN.matcher(path.getFileName().toString());
+                    if (!matcher.matches()) {
+                        return null;
+                    }
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        return attributes.isRegularFile() ? new BlobEntry(matcher.group(1), tier, attributes.size(),
+                                attributes.lastModifiedTime().toInstant()) : null;
+                    } catch (IOException e) {
+                        // Deleted or moved to the other tier while walking
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull);
+    }
+
+    private Path resolve(String key) {
+        return shard(root, key).resolve(key);
+    }
+
+    private Path resolveArchived(String key) {
+        return shard(archiveRoot, key).resolve(key + COMPRESSED_SUFFIX);
+    }
+
+    private void touch(String key) throws IOException {
+        FileTime now = FileTime.from(Instant.now());
+        for (Path path : List.of(resolve(key), resolveCompressed(key), resolveArchived(key))) {
+            try {
+                Files.setLastModifiedTime(path, now);
+                return;
+            } catch (NoSuchFileException e) {
+                // Not on this tier or in this form
+            }
+        }
+    }
+
+    private static Path shard(Path base, String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return base.resolve(key.substring(0, 2)).resolve(key.substring(2, 4));
+    }
+
+    private Path resolveCompressed(String key) {
+        Path path = resolve(key);
+        return path.resolveSibling(path.getFileName() + COMPRESSED_SUFFIX);
+    }
+
+    // Duplicate upload: read and hash only, the payload is already on disk
+    private StoredBlob verifyExisting(InputStream content, String expectedKey) throws IOException {
+        MessageDigest digest = BlobStore.sha256();
+        byte[] buffer = new byte[bufferSize];
+        long size = 0;
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            size += read;
+        }
+        if (!expectedKey.equals(HexFormat.of().formatHex(digest.digest()))) {
+            throw new IllegalArgumentException("Content hash mismatch");
+        }
+        // Counts as freshly written, so garbage collection leaves it alone until this upload is recorded
+        touch(expectedKey);
+        return new StoredBlob(expectedKey, size, storedSize(expectedKey));
+    }
+}
@@ -0,0 +1,346 @@
+package com.snet.service;
+
+import com.snet.dto.FileResponse;
+import com.snet.dto.MediaProcessingStats;
+import com.snet.model.FileCategory;
+import com.snet.model.FileMetadata;
+import com.snet.model.ProcessingStatus;
+import com.snet.model.RenditionSource;
+import com.snet.repository.FileContentRepository;
+import com.snet.repository.FileMetadataRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Media work off the request thread: single-pass ingestion for images (one decode yields the
+ * upright master, thumbnail and every rendition) and moov relocation (fast start) plus
+ * metadata extraction for MP4/QuickTime videos.
+ * A fixed pool sized to the CPU count drains a bounded queue; when the queue is full
+ * the file simply stays PROCESSING and the periodic rescan submits it later.
+ * Owners are notified on /user/queue/files when a file leaves PROCESSING.
+ */
+@Service
+@Slf4j
+public class MediaProcessingService {
+
+    private final FileMetadataRepository fileMetadataRepository;
+    private final FileContentRepository fileContentRepository;
+    private final BlobStore blobStore;
+    private final BlobReferenceService blobReferenceService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ImageCache imageCache;
+    private final RenditionService renditionService;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private FileService fileService;
+
+    // Queued or running, keeps the rescan from submitting a file twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completedTasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+    private final LongAdder rejectedTasks = new LongAdder();
+    private final LongAdder totalQueueWaitNanos = new LongAdder();
+    private final LongAdder totalProcessingNanos = new LongAdder();
+    private final AtomicLong maxProcessingNanos = new AtomicLong();
+
+    public MediaProcessingService(FileMetadataRepository fileMetadataRepository,
+                                  FileContentRepository fileContentRepository,
+                                  BlobStore blobStore,
+                                  BlobReferenceService blobReferenceService,
+                                  SimpMessagingTemplate messagingTemplate,
+                                  ImageCache imageCache,
+                                  RenditionService renditionService,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${media.processing.threads:0}") int threads,
+                                  @Value("${media.processing.queue-capacity:200}") int queueCapacity) {
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.fileContentRepository = fileContentRepository;
+        this.blobStore = blobStore;
+        this.blobReferenceService = blobReferenceService;
+        this.messagingTemplate = messagingTemplate;
+        this.imageCache = imageCache;
+        this.renditionService = renditionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queueCapacity = queueCapacity;
+
+        int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "media-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Setter injection to avoid circular dependency (FileService submits work here)
+    public void setFileService(FileService fileService) {
+        this.fileService = fileService;
+    }
+
+    /**
+     * Queues the file once the current transaction commits, so workers never see uncommitted rows.
+     */
+    public void submitAfterCommit(Long fileId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(fileId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(fileId);
+            }
+        });
+    }
+
+    /**
+     * @return false when the file is already queued or the queue is full
+     */
+    public boolean submit(Long fileId) {
+        if (!inFlight.add(fileId)) {
+            return false;
+        }
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> run(fileId, enqueuedAt));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(fileId);
+            rejectedTasks.increment();
+            log.warn("⚠️ Media queue full, file {} stays PROCESSING until the next rescan", fileId);
+            return false;
+        }
+    }
+
+    @Scheduled(initialDelayString = "${media.processing.rescan-interval-ms:60000}",
+               fixedDelayString = "${media.processing.rescan-interval-ms:60000}")
+    public void rescanPending() {
+        int room = executor.getQueue().remainingCapacity();
+        if (room == 0) {
+            return;
+        }
+        List<Long> pending = fileMetadataRepository.findIdsByProcessingStatus(
+                ProcessingStatus.PROCESSING, PageRequest.of(0, room + inFlight.size()));
+        int submitted = 0;
+        for (Long fileId : pending) {
+            if (inFlight.contains(fileId)) {
+                continue;
+            }
+            if (!submit(fileId)) {
+                break;
+            }
+            submitted++;
+        }
+        if (submitted > 0) {
+            log.info("🖼️ Resubmitted {} pending media files", submitted);
+        }
+    }
+
+    public MediaProcessingStats getStats() {
+        long completed = completedTasks.sum();
+        long failed = failedTasks.sum();
+        long finished = completed + failed;
+        return MediaProcessingStats.builder()
+                .workers(executor.getMaximumPoolSize())
+                .activeWorkers(executor.getActiveCount())
+                .queueDepth(executor.getQueue().size())
+                .queueCapacity(queueCapacity)
+                .completedTasks(completed)
+                .failedTasks(failed)
+                .rejectedTasks(rejectedTasks.sum())
+                .averageQueueWaitMs(finished > 0 ? totalQueueWaitNanos.sum() / 1_000_000.0 / finished : 0)
+                .averageProcessingMs(finished > 0 ? totalProcessingNanos.sum() / 1_000_000.0 / finished : 0)
+                .maxProcessingMs(TimeUnit.NANOSECONDS.toMillis(maxProcessingNanos.get()))
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Queued files stay PROCESSING in the database and are picked up after restart
+        executor.shutdownNow();
+    }
+
+    private void run(Long fileId, long enqueuedAt) {
+        long startedAt = System.nanoTime();
+        totalQueueWaitNanos.add(startedAt - enqueuedAt);
+        try {
+            process(fileId);
+            completedTasks.increment();
+        } catch (Exception e) {
+            failedTasks.increment();
+            log.error("❌ Media processing failed for file {}: {}", fileId, e.getMessage());
+            finish(fileId, null, null, null, ProcessingStatus.FAILED);
+        } finally {
+            long elapsed = System.nanoTime() - startedAt;
+            totalProcessingNanos.add(elapsed);
+            maxProcessingNanos.accumulateAndGet(elapsed, Math::max);
+            inFlight.remove(fileId);
+        }
+    }
+
+    private void process(Long fileId) throws IOException {
+        FileMetadata file = fileMetadataRepository.findById(fileId).orElse(null);
+        if (file == null || file.getProcessingStatus() != ProcessingStatus.PROCESSING) {
+            return;
+        }
+        if (file.getCategory() == FileCategory.VIDEO) {
+            processVideo(file);
+            return;
+        }
+
+        FileService.IngestedImage image = fileService.ingestImage(file);
+        if (image == null) {
+            // Not decodable, served as uploaded
+            finish(fileId, null, null, null, ProcessingStatus.READY);
+            return;
+        }
+
+        BlobStore.StoredBlob uprightBlob = null;
+        if (image.master() != null) {
+            uprightBlob = blobStore.put(new ByteArrayInputStream(image.master()), BlobStore.keyOf(image.master()));
+        }
+
+        boolean finished = finish(fileId, uprightBlob, image.thumbnail(), current -> {
+            current.setOrientation(image.orientation());
+            current.setWidth(image.width());
+            current.setHeight(image.height());
+            current.setColorModel(image.colorModel());
+            current.setBlurhash(image.blurhash());
+        }, ProcessingStatus.READY);
+        if (!finished) {
+            // Deleted while we were working
+            if (uprightBlob != null) {
+                blobReferenceService.discardIfUnreferenced(uprightBlob.key());
+            }
+            return;
+        }
+
+        // Renditions come from the same decode, keyed to the master they were made from
+        String version = uprightBlob != null ? uprightBlob.key() : file.getStorageKey();
+        image.renditions().forEach((rendition, bytes) ->
+                renditionService.storeGenerated(RenditionSource.FILE, fileId, version, rendition, bytes));
+    }
+
+    /**
+     * Rewrites the video with moov ahead of mdat when needed, file to file, and records its metadata.
+     * The rewritten blob has the same size, only the box order and chunk offsets differ.
+     */
+    private void processVideo(FileMetadata file) throws IOException {
+        Path rewritten = Files.createTempFile("faststart-", ".mp4");
+        Path copy = null;
+        try {
+            Path source = fileService.getLocalPath(file).orElse(null);
+            if (source == null) {
+                copy = Files.createTempFile("faststart-src-", ".mp4");
+                try (InputStream in = fileService.openContent(file)) {
+                    Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                source = copy;
+            }
+
+            Mp4FastStart.Result result = Mp4FastStart.process(source, rewritten);
+            BlobStore.StoredBlob relocated = null;
+            if (result.rewritten()) {
+                try (InputStream in = Files.newInputStream(rewritten)) {
+                    relocated = blobStore.put(in);
+                }
+                log.info("🎬 Moved moov to the front of file {}", file.getId());
+            }
+
+            boolean finished = finish(file.getId(), relocated, null, current -> {
+                current.setDurationMs(result.durationMs());
+                current.setWidth(result.width());
+                current.setHeight(result.height());
+                current.setCodec(result.codec());
+            }, ProcessingStatus.READY);
+            if (!finished && relocated != null) {
+                blobReferenceService.discardIfUnreferenced(relocated.key());
+            }
+        } finally {
+            Files.deleteIfExists(rewritten);
+            if (copy != null) {
+                Files.deleteIfExists(copy);
+            }
+        }
+    }
+
+    /**
+     * Swaps in the processed payload and thumbnail, records the extracted details, sets the
+     * final status and notifies the owner.
+     *
+     * @return false when the file no longer exists
+     */
+    private boolean finish(Long fileId, BlobStore.StoredBlob processed, byte[] thumbnail,
+                           Consumer<FileMetadata> details, ProcessingStatus status) {
+        Notification notification = transactionTemplate.execute(tx -> {
+            FileMetadata current = fileMetadataRepository.findById(fileId).orElse(null);
+            if (current == null) {
+                return null;
+            }
+            if (processed != null && !processed.key().equals(current.getStorageKey())) {
+                blobReferenceService.acquire(processed);
+                blobReferenceService.release(current.getStorageKey());
+                current.setStorageKey(processed.key());
+                // Flushes the new key first; the tier column only moves through this update
+                fileMetadataRepository.updateStorageTier(processed.key(), blobStore.tier(processed.key()));
+            } else if (processed != null) {
+                blobReferenceService.unclaim(processed.key());
+            }
+            if (details != null) {
+                details.accept(current);
+            }
+            current.setProcessingStatus(status);
+            fileMetadataRepository.save(current);
+            if (thumbnail != null) {
+                fileContentRepository.updateThumbnail(fileId, thumbnail);
+            }
+            imageCache.invalidate(RenditionSource.FILE, fileId);
+            return new Notification(current.getUser().getEmail(), fileService.getFileInfo(fileId));
+        });
+
+        if (notification == null) {
+            return false;
+        }
+        try {
+            messagingTemplate.convertAndSendToUser(notification.ownerEmail(), "/queue/files", notification.file());
+        } catch (Exception e) {
+            log.warn("⚠️ Failed to notify {} about file {}: {}", notification.ownerEmail(), fileId, e.getMessage());
+        }
+        return true;
+    }
+
+    private record Notification(String ownerEmail, FileResponse file) {
+    }
+}
@@ -0,0 +1,415 @@
+package com.snet.service;
+
+import com.snet.model.FileMetadata;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Writes file payloads to the servlet response with HTTP range (single and multipart/byteranges)
+ * and conditional GET support.
+ * Blobs on local disk are handed to Tomcat sendfile (kernel-to-socket) when the
+ * connector supports it, otherwise copied with FileChannel.transferTo. Responses with a
+ * bandwidth profile are written through their BandwidthShaper bucket instead.
+ */
+@Service
+@RequiredArgsConstructor
+public class MediaStreamService {
+
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Ranges closer than a part header are merged, re-sending the gap is cheaper than another part
+    private static final long RANGE_MERGE_GAP = 80;
+
+    private final FileService fileService;
+    private final BandwidthShaper bandwidthShaper;
+    private final StorageTierService storageTierService;
+
+    @Value("${media.sendfile.min-size:49152}")
+    private long sendfileMinSize;
+
+    @Value("${media.range.max-parts:16}")
+    private int maxRangeParts;
+
+    public void streamFile(FileMetadata file, HttpServletRequest request, HttpServletResponse response,
+                           Options options) throws IOException {
+        if (checkNotModified(request, response, options)) {
+            return;
+        }
+        storageTierService.recordAccess(file);
+
+        long length = fileService.getContentLength(file);
+        Ranges ranges = resolveRanges(request, length, options);
+        boolean head = "HEAD".equals(request.getMethod());
+        Optional<Path> localPath = fileService.getLocalPath(file);
+        try (BandwidthShaper.Throttle throttle = options.getBandwidth() != null && !head
+                ? bandwidthShaper.open(options.getBandwidth()) : null) {
+            Slice single = ranges.isMultipart() || ranges.slices().isEmpty() ? null : ranges.slices().get(0);
+            boolean sendfile = single != null && localPath.isPresent() && canSendfile(single, throttle, request);
+            if (options.getAdmission() != null) {
+                if (head || ranges.slices().isEmpty() || sendfile) {
+                    // Tomcat's poller writes a sendfile body after the handler returns, without a
+                    // request thread or heap; holding a slot until then is not possible
+                    options.getAdmission().close();
+                } else {
+                    // Before any header is set, so a rejection still goes out as a clean 503
+                    options.getAdmission().acquire();
+                }
+            }
+
+            if (!writeHeaders(file.getFileType(), length, ranges, response, options)
+                    || ranges.slices().isEmpty() || head) {
+                return;
+            }
+
+            if (single != null) {
+                if (sendfile) {
+                    // Tomcat sends the file itself after the handler returns, end offset is exclusive
+                    request.setAttribute(SENDFILE_FILENAME_ATTR, localPath.get().toAbsolutePath().toString());
+                    request.setAttribute(SENDFILE_START_ATTR, single.start());
+                    request.setAttribute(SENDFILE_END_ATTR, single.end() + 1);
+                } else if (localPath.isPresent()) {
+                    try (FileChannel channel = FileChannel.open(localPath.get(), StandardOpenOption.READ)) {
+                        transfer(channel, single.start(), single.end(), Channels.newChannel(body(response, throttle)));
+                    }
+                } else {
+                    fileService.writeContent(file, body(response, throttle), single.start(), single.end());
+                }
+                return;
+            }
+
+            OutputStream out = body(response, throttle);
+            if (localPath.isPresent()) {
+                // One channel for every part, each copied with transferTo
+                try (FileChannel channel = FileChannel.open(localPath.get(), StandardOpenOption.READ)) {
+                    WritableByteChannel target = Channels.newChannel(out);
+                    writeParts(file.getFileType(), length, ranges, out,
+                            (start, end) -> transfer(channel, start, end, target));
+                }
+            } else {
+                // Parts are sorted and disjoint, so one forward pass over the stream serves them all
+                try (InputStream in = fileService.openContent(file)) {
+                    long[] position = {0};
+                    writeParts(file.getFileType(), length, ranges, out, (start, end) -> {
+                        StreamUtils.copyRange(in, out, start - position[0], end - position[0]);
+                        position[0] = end + 1;
+                    });
+                }
+            }
+        }
+    }
+
+    public void streamBytes(byte[] data, String contentType, HttpServletRequest request,
+                            HttpServletResponse response, Options options) throws IOException {
+        if (checkNotModified(request, response, options)) {
+            return;
+        }
+
+        Ranges ranges = resolveRanges(request, data.length, options);
+        if (!writeHeaders(contentType, data.length, ranges, response, options)
+                || ranges.slices().isEmpty() || "HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        PartWriter writer = (start, end) -> out.write(data, (int) start, (int) (end - start + 1));
+        if (ranges.isMultipart()) {
+            writeParts(contentType, data.length, ranges, out, writer);
+        } else {
+            Slice slice = ranges.slices().get(0);
+            writer.write(slice.start(), slice.end());
+        }
+    }
+
+    /**
+     * Answers If-None-Match / If-Modified-Since from the validators in options, before any
+     * payload is touched. Sets ETag and Last-Modified on the response either way.
+     *
+     * @return true when a 304 has been written and the caller must not send a body
+     */
+    public boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, Options options) {
+        if (options.getETag() == null && options.getLastModified() <= 0) {
+            return false;
+        }
+        // 304 responses carry the same caching directives as the 200 they stand for
+        if (options.getCacheControl() != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, options.getCacheControl());
+        }
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        long lastModified = options.getLastModified() > 0 ? options.getLastModified() : -1;
+        if (options.getETag() != null) {
+            return webRequest.checkNotModified(options.getETag(), lastModified);
+        }
+        return webRequest.checkNotModified(lastModified);
+    }
+
+    public static long epochMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1;
+    }
+
+    private static OutputStream body(HttpServletResponse response, BandwidthShaper.Throttle throttle) throws IOException {
+        return throttle != null ? throttle.wrap(response.getOutputStream()) : response.getOutputStream();
+    }
+
+    // Sendfile would bypass the shaper, so shaped responses are always copied
+    private boolean canSendfile(Slice slice, BandwidthShaper.Throttle throttle, HttpServletRequest request) {
+        return throttle == null && slice.length() >= sendfileMinSize
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+    }
+
+    private static void transfer(FileChannel channel, long start, long end, WritableByteChannel target) throws IOException {
+        long position = start;
+        long remaining = end - start + 1;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new EOFException("Blob ended before requested range");
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * multipart/byteranges body (RFC 7233 appendix A). Part headers are written inline and
+     * the payload of each part comes straight from the writer, nothing is buffered per part.
+     */
+    private void writeParts(String contentType, long length, Ranges ranges, OutputStream out,
+                            PartWriter writer) throws IOException {
+        for (Slice slice : ranges.slices()) {
+            out.write(partHeader(ranges.boundary(), contentType, slice, length));
+            writer.write(slice.start(), slice.end());
+        }
+        out.write(closingDelimiter(ranges.boundary()));
+    }
+
+    private static byte[] partHeader(String boundary, String contentType, Slice slice, long length) {
+        return ("\r\n--" + boundary + "\r\n"
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                + HttpHeaders.CONTENT_RANGE + ": " + contentRange(slice, length) + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] closingDelimiter(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String contentRange(Slice slice, long length) {
+        return "bytes " + slice.start() + "-" + slice.end() + "/" + length;
+    }
+
+    /**
+     * @return false when the response is already complete (416)
+     */
+    private boolean writeHeaders(String contentType, long length, Ranges ranges,
+                                 HttpServletResponse response, Options options) {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (ranges.partial() && ranges.slices().isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setContentLength(0);
+            return false;
+        }
+
+        if (options.getCacheControl() != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, options.getCacheControl());
+        }
+        if (options.getAttachmentName() != null) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    "attachment; filename=\"" + options.getAttachmentName() + "\"");
+            response.setHeader("X-Content-Type-Options", "nosniff");
+        }
+
+        if (!ranges.partial()) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+        } else if (!ranges.isMultipart()) {
+            Slice slice = ranges.slices().get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(slice, length));
+            response.setContentLengthLong(slice.length());
+        } else {
+            // Exact length up front, so the parts stream without chunked encoding
+            long bodyLength = closingDelimiter(ranges.boundary()).length;
+            for (Slice slice : ranges.slices()) {
+                bodyLength += partHeader(ranges.boundary(), contentType, slice, length).length + slice.length();
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + ranges.boundary());
+            response.setContentLengthLong(bodyLength);
+        }
+        return true;
+    }
+
+    /**
+     * Parses Range into sorted, coalesced slices: suffix ranges (bytes=-N) are resolved against
+     * the length, unsatisfiable ranges dropped, and overlapping or nearly adjacent ranges merged
+     * so no byte is sent twice. Requests with more parts than we are willing to seek through
+     * get the full representation instead (RFC 7233 section 6.1).
+     */
+    private Ranges resolveRanges(HttpServletRequest request, long length, Options options) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return Ranges.full(length);
+        }
+        if (!ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), options)) {
+            // The client's partial copy is stale, send the whole current representation
+            return Ranges.full(length);
+        }
+
+        List<HttpRange> requested;
+        try {
+            requested = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // Malformed Range headers are ignored (RFC 7233 section 3.1)
+            return Ranges.full(length);
+        }
+
+        List<Slice> slices = new ArrayList<>();
+        for (HttpRange range : requested) {
+            if (length == 0) {
+                break;
+            }
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start < length && start <= end) {
+                slices.add(new Slice(start, end));
+            }
+        }
+        if (slices.isEmpty()) {
+            return new Ranges(List.of(), true, null);
+        }
+
+        slices.sort(Comparator.comparingLong(Slice::start));
+        List<Slice> merged = new ArrayList<>();
+        Slice current = slices.get(0);
+        for (Slice next : slices.subList(1, slices.size())) {
+            if (next.start() <= current.end() + 1 + RANGE_MERGE_GAP) {
+                current = new Slice(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+
+        if (merged.size() > maxRangeParts) {
+            return Ranges.full(length);
+        }
+
+        // A single open-ended range (bytes=N-) may be served in bounded pieces
+        if (merged.size() == 1 && requested.size() == 1 && rangeHeader.trim().endsWith("-")
+                && options.getMaxOpenRangeLength() > 0 && merged.get(0).length() > options.getMaxOpenRangeLength()) {
+            Slice slice = merged.get(0);
+            merged.set(0, new Slice(slice.start(), slice.start() + options.getMaxOpenRangeLength() - 1));
+        }
+
+        String boundary = merged.size() > 1 ? UUID.randomUUID().toString().replace("-", "") : null;
+        return new Ranges(merged, true, boundary);
+    }
+
+    /**
+     * If-Range (RFC 7233 section 3.2): only a matching strong ETag or an exact Last-Modified date
+     * keeps the Range header in effect.
+     */
+    private boolean ifRangeMatches(String ifRange, Options options) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return options.getETag() != null && value.equals(quote(options.getETag()));
+        }
+        if (options.getLastModified() <= 0) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date / 1000 == options.getLastModified() / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String quote(String eTag) {
+        return eTag.startsWith("\"") ? eTag : "\"" + eTag + "\"";
+    }
+
+    private record Slice(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * @param partial false for a 200 with the whole body; true with no slices for a 416
+     * @param boundary set only for multipart/byteranges responses
+     */
+    private record Ranges(List<Slice> slices, boolean partial, String boundary) {
+        static Ranges full(long length) {
+            return new Ranges(length > 0 ? List.of(new Slice(0, length - 1)) : List.of(), false, null);
+        }
+
+        boolean isMultipart() {
+            return boundary != null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PartWriter {
+        void write(long start, long end) throws IOException;
+    }
+
+    @Getter
+    @Builder(toBuilder = true)
+    public static class Options {
+        private final String cacheControl;
+        private final String attachmentName;
+        // Upper bound for a bytes=N- response, 0 means unbounded
+        private final long maxOpenRangeLength;
+        // Strong validator, typically the content hash plus the variant served
+        private final String eTag;
+        // Epoch millis, 0 when unknown
+        private final long lastModified;
+        // Shapes the body through BandwidthShaper, null to send at full speed
+        private final BandwidthShaper.Profile bandwidth;
+        // Transfer slot from TransferAdmissionService.transferPermit, taken only when this thread
+        // copies the body; 304, HEAD and sendfile responses leave it free
+        private final TransferAdmissionService.Permit admission;
+    }
+}
@@ -0,0 +1,75 @@
+package com.snet.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Detects the content type of an upload from its leading bytes.
+ * The declared type is kept unless it is missing, generic, or claims a different
+ * top-level type (image/video/audio) than the signature.
+ */
+final class MediaTypeSniffer {
+
+    static final int HEADER_LENGTH = 16;
+
+    private MediaTypeSniffer() {
+    }
+
+    static String sniff(byte[] header, String declaredType) {
+        String detected = detect(header, declaredType);
+        if (detected == null) {
+            return declaredType != null ? declaredType : "application/octet-stream";
+        }
+        if (declaredType == null || declaredType.equals("application/octet-stream")) {
+            return detected;
+        }
+        return topLevel(declaredType).equals(topLevel(detected)) ? declaredType : detected;
+    }
+
+    private static String detect(byte[] h, String declaredType) {
+        if (startsWith(h, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(h, 0x89, 0x50, 0x4E, 0x47)) return "image/png";
+        if (ascii(h, 0, "GIF8")) return "image/gif";
+        if (ascii(h, 0, "RIFF")) {
+            if (ascii(h, 8, "WEBP")) return "image/webp";
+            if (ascii(h, 8, "WAVE")) return "audio/wav";
+            if (ascii(h, 8, "AVI ")) return "video/x-msvideo";
+        }
+        if (ascii(h, 4, "ftyp")) {
+            if (ascii(h, 8, "heic") || ascii(h, 8, "heix") || ascii(h, 8, "mif1")) return "image/heic";
+            if (ascii(h, 8, "M4A ")) return "audio/mp4";
+            return "video/mp4";
+        }
+        if (startsWith(h, 0x1A, 0x45, 0xDF, 0xA3)) return "video/webm";
+        if (ascii(h, 0, "%PDF")) return "application/pdf";
+        if (ascii(h, 0, "OggS")) return "audio/ogg";
+        if (ascii(h, 0, "fLaC")) return "audio/flac";
+        if (ascii(h, 0, "ID3")) return "audio/mpeg";
+        if (startsWith(h, 0x50, 0x4B, 0x03, 0x04)) {
+            // Office documents are zip containers, trust a specific declared type
+            return declaredType != null && declaredType.startsWith("application/") ? declaredType : "application/zip";
+        }
+        return null;
+    }
+
+    private static String topLevel(String contentType) {
+        int slash = contentType.indexOf('/');
+        return slash > 0 ? contentType.substring(0, slash) : contentType;
+    }
+
+    private static boolean startsWith(byte[] h, int... signature) {
+        if (h.length < signature.length) return false;
+        for (int i = 0; i < signature.length; i++) {
+            if ((h[i] & 0xFF) != signature[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean ascii(byte[] h, int offset, String text) {
+        byte[] expected = text.getBytes(StandardCharsets.US_ASCII);
+        if (h.length < offset + expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (h[offset + i] != expected[i]) return false;
+        }
+        return true;
+    }
+}
@@ -26,6 +26,7 @@ public class MessageService {
     private final FileMetadataRepository fileMetadataRepository;
     private final ChatGroupRepository groupRepository;
     private final SimpMessagingTemplate messagingTemplate;
+    private final FileAccessService fileAccessService;
     
     @Transactional
     public MessageResponse sendMessage(String senderEmail, MessageRequest request) {
@@ -64,6 +65,8 @@ public class MessageService {
             FileMetadata file = fileMetadataRepository.findById(request.getFileId())
                     .orElseThrow(() -> new RuntimeException("File not found"));
             message.setFile(file);
+            // Earlier denials for the recipients are no longer valid
+            fileAccessService.invalidateFile(file.getId());
         }
         
         message = messageRepository.save(message);
@@ -174,6 +177,9 @@ public class MessageService {
         
         message.setDeleted(true);
         messageRepository.save(message);
+        if (message.getFile() != null) {
+            fileAccessService.invalidateFile(message.getFile().getId());
+        }
     }
     
     @Transactional
@@ -192,6 +198,9 @@ public class MessageService {
         // Update message content to recalled
         message.setContent("Tin nhắn đã được thu hồi");
         message.setType(MessageType.TEXT);
+        if (message.getFile() != null) {
+            fileAccessService.invalidateFile(message.getFile().getId());
+        }
         message.setFile(null); // Remove file if any
         message.setStatus(MessageStatus.SENT); // Keep status
         
@@ -243,7 +252,10 @@ public class MessageService {
         
         if (message.getFile() != null) {
             builder.fileId(message.getFile().getId())
-                   .fileName(message.getFile().getFileName());
+                   .fileName(message.getFile().getFileName())
+                   .fileWidth(message.getFile().getWidth())
+                   .fileHeight(message.getFile().getHeight())
+                   .fileBlurhash(message.getFile().getBlurhash());
         }
         
         return builder.build();
@@ -0,0 +1,293 @@
+package com.snet.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the moov box of an MP4/QuickTime file in front of mdat ("fast start") so progressive
+ * playback starts after one small range request, and reads duration, dimensions and codec
+ * from the same box. Only moov is loaded into memory; sample data is copied between files
+ * with transferTo and never parsed.
+ */
+final class Mp4FastStart {
+
+    // moov only holds sample tables, anything bigger is not something we want in heap
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+
+    private Mp4FastStart() {
+    }
+
+    static boolean supports(String contentType) {
+        return contentType != null && (contentType.equals("video/mp4") || contentType.equals("video/quicktime")
+                || contentType.equals("video/x-m4v") || contentType.equals("video/3gpp"));
+    }
+
+    /**
+     * @param target written only when moov had to be moved, see Result.rewritten
+     */
+    static Result process(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            List<Box> boxes = topLevelBoxes(in);
+            if (boxes.isEmpty() || !boxes.get(0).type().equals("ftyp")) {
+                throw new IOException("Not an ISO base media file");
+            }
+            Box moov = find(boxes, "moov");
+            Box mdat = find(boxes, "mdat");
+            if (moov == null) {
+                throw new IOException("No moov box");
+            }
+            if (moov.size() > MAX_MOOV_SIZE) {
+                throw new IOException("moov box too large: " + moov.size() + " bytes");
+            }
+
+            ByteBuffer moovData = ByteBuffer.allocate((int) moov.size());
+            readFully(in, moovData, moov.offset());
+
+            // Everything between the first mdat and moov moves down by the size of moov
+            boolean relocate = mdat != null && moov.offset() > mdat.offset();
+            Patch patch = relocate ? new Patch(mdat.offset(), moov.offset(), moov.size()) : null;
+
+            Metadata metadata = new Metadata();
+            walk(moovData, moov.headerSize(), moovData.limit(), metadata, null, patch);
+
+            if (relocate) {
+                if (moovData.getInt(0) == 0) {
+                    // Size 0 means "to end of file", no longer true once moov moves
+                    moovData.putInt(0, (int) moov.size());
+                }
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    transfer(in, 0, mdat.offset(), out);
+                    moovData.rewind();
+                    while (moovData.hasRemaining()) {
+                        out.write(moovData);
+                    }
+                    transfer(in, mdat.offset(), moov.offset() - mdat.offset(), out);
+                    long tail = moov.offset() + moov.size();
+                    transfer(in, tail, in.size() - tail, out);
+                }
+            }
+            return metadata.toResult(relocate);
+        }
+    }
+
+    record Result(boolean rewritten, Long durationMs, Integer width, Integer height, String codec) {
+    }
+
+    private record Box(String type, long offset, long size, int headerSize) {
+    }
+
+    private record Patch(long from, long to, long shift) {
+        long apply(long offset) {
+            return offset >= from && offset < to ? offset + shift : offset;
+        }
+    }
+
+    private static final class Track {
+        String handler;
+        String codec;
+        Integer width;
+        Integer height;
+    }
+
+    private static final class Metadata {
+        Long durationMs;
+        final List<Track> tracks = new ArrayList<>();
+
+        Result toResult(boolean rewritten) {
+            Track video = tracks.stream().filter(t -> "vide".equals(t.handler)).findFirst().orElse(null);
+            if (video != null) {
+                return new Result(rewritten, durationMs, video.width, video.height, video.codec);
+            }
+            String audioCodec = tracks.stream().filter(t -> "soun".equals(t.handler))
+                    .map(t -> t.codec).findFirst().orElse(null);
+            return new Result(rewritten, durationMs, null, null, audioCodec);
+        }
+    }
+
+    private static List<Box> topLevelBoxes(FileChannel in) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long length = in.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= length) {
+            header.clear();
+            header.limit((int) Math.min(16, length - position));
+            readFully(in, header, position);
+
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            String type = fourcc(header, 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.limit() < 16) {
+                    throw new IOException("Truncated box header: " + type);
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < headerSize || position + size > length) {
+                throw new IOException("Corrupt box: " + type);
+            }
+            boxes.add(new Box(type, position, size, headerSize));
+            position += size;
+        }
+        return boxes;
+    }
+
+    private static void walk(ByteBuffer buf, int start, int end, Metadata metadata, Track track,
+                             Patch patch) throws IOException {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buf.getInt(position) & 0xFFFFFFFFL;
+            String type = fourcc(buf, position + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                size = buf.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end) {
+                throw new IOException("Corrupt box: " + type);
+            }
+            int body = position + headerSize;
+            int boxEnd = (int) (position + size);
+
+            switch (type) {
+                case "cmov" -> throw new IOException("Compressed moov is not supported");
+                case "trak" -> {
+                    Track child = new Track();
+                    walk(buf, body, boxEnd, metadata, child, patch);
+                    metadata.tracks.add(child);
+                }
+                case "mdia", "minf", "stbl" -> walk(buf, body, boxEnd, metadata, track, patch);
+                case "mvhd" -> readMovieHeader(buf, body, boxEnd, metadata);
+                case "tkhd" -> readTrackHeader(buf, body, boxEnd, track);
+                case "hdlr" -> {
+                    // QuickTime also puts a data handler in minf, the media handler in mdia comes first
+                    if (track != null && track.handler == null && body + 12 <= boxEnd) {
+                        track.handler = fourcc(buf, body + 8);
+                    }
+                }
+                case "stsd" -> {
+                    if (track != null && body + 16 <= boxEnd && buf.getInt(body + 4) > 0) {
+                        track.codec = fourcc(buf, body + 12).trim();
+                    }
+                }
+                case "stco" -> patchChunkOffsets(buf, body, boxEnd, 4, patch);
+                case "co64" -> patchChunkOffsets(buf, body, boxEnd, 8, patch);
+                default -> {
+                }
+            }
+            position = boxEnd;
+        }
+    }
+
+    private static void readMovieHeader(ByteBuffer buf, int body, int end, Metadata metadata) {
+        int version = buf.get(body);
+        long timescale;
+        long duration;
+        if (version == 1 && body + 32 <= end) {
+            timescale = buf.getInt(body + 20) & 0xFFFFFFFFL;
+            duration = buf.getLong(body + 24);
+        } else if (version == 0 && body + 20 <= end) {
+            timescale = buf.getInt(body + 12) & 0xFFFFFFFFL;
+            duration = buf.getInt(body + 16) & 0xFFFFFFFFL;
+        } else {
+            return;
+        }
+        if (timescale > 0 && duration >= 0) {
+            metadata.durationMs = duration * 1000 / timescale;
+        }
+    }
+
+    private static void readTrackHeader(ByteBuffer buf, int body, int end, Track track) {
+        if (track == null) {
+            return;
+        }
+        int matrix = buf.get(body) == 1 ? body + 52 : body + 40;
+        int dimensions = matrix + 36;
+        if (dimensions + 8 > end) {
+            return;
+        }
+        // Width and height are 16.16 fixed point, before the display matrix is applied
+        int width = buf.getInt(dimensions) >>> 16;
+        int height = buf.getInt(dimensions + 4) >>> 16;
+        // Phones record portrait video as landscape plus a 90/270 degree matrix
+        boolean quarterTurn = buf.getInt(matrix) == 0 && buf.getInt(matrix + 4) != 0;
+        track.width = quarterTurn ? height : width;
+        track.height = quarterTurn ? width : height;
+    }
+
+    private static void patchChunkOffsets(ByteBuffer buf, int body, int end, int entrySize,
+                                          Patch patch) throws IOException {
+        if (body + 8 > end) {
+            throw new IOException("Corrupt chunk offset table");
+        }
+        long count = buf.getInt(body + 4) & 0xFFFFFFFFL;
+        if (body + 8 + count * entrySize > end) {
+            throw new IOException("Corrupt chunk offset table");
+        }
+        if (patch == null) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int at = body + 8 + i * entrySize;
+            if (entrySize == 8) {
+                buf.putLong(at, patch.apply(buf.getLong(at)));
+            } else {
+                long shifted = patch.apply(buf.getInt(at) & 0xFFFFFFFFL);
+                // Unreachable under file.max-file-size, converting stco to co64 would resize moov
+                if (shifted > 0xFFFFFFFFL) {
+                    throw new IOException("Chunk offset no longer fits in stco");
+                }
+                buf.putInt(at, (int) shifted);
+            }
+        }
+    }
+
+    private static Box find(List<Box> boxes, String type) {
+        return boxes.stream().filter(b -> b.type().equals(type)).findFirst().orElse(null);
+    }
+
+    private static String fourcc(ByteBuffer buf, int index) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = buf.get(index + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long position) throws IOException {
+        long offset = position;
+        while (buf.hasRemaining()) {
+            int read = in.read(buf, offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file");
+            }
+            offset += read;
+        }
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long remaining = count;
+        long offset = position;
+        while (remaining > 0) {
+            long transferred = in.transferTo(offset, remaining, out);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of file");
+            }
+            offset += transferred;
+            remaining -= transferred;
+        }
+    }
+}
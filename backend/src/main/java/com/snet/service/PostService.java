@@ -40,6 +40,9 @@ public class PostService {
     @Autowired
     private FriendshipRepository friendshipRepository;
 
+    @Autowired
+    private FileAccessService fileAccessService;
+
     // Lấy danh sách bài đăng public
     public Page<PostDTO> getPublicPosts(int page, int size, User currentUser) {
         Pageable pageable = PageRequest.of(page, size);
@@ -190,6 +193,9 @@ public class PostService {
         }
 
         post = postRepository.save(post);
+        if (post.getFile() != null) {
+            fileAccessService.invalidateFile(post.getFile().getId());
+        }
         return new PostDTO(post, false);
     }
 
@@ -311,6 +317,9 @@ public class PostService {
             throw new RuntimeException("Not authorized to update this post");
         }
 
+        // Privacy and attachment changes both move who can read the old and new file
+        Long previousFileId = post.getFile() != null ? post.getFile().getId() : null;
+
         // Cập nhật content
         if (updatePostDTO.getContent() != null) {
             post.setContent(updatePostDTO.getContent());
@@ -348,6 +357,10 @@ public class PostService {
         }
 
         post = postRepository.save(post);
+        fileAccessService.invalidateFile(previousFileId);
+        if (post.getFile() != null) {
+            fileAccessService.invalidateFile(post.getFile().getId());
+        }
         
         boolean likedByCurrentUser = postLikeRepository.existsByPostAndUser(post, user);
         return new PostDTO(post, likedByCurrentUser);
@@ -366,6 +379,9 @@ public class PostService {
 
         // Không xóa file gốc, chỉ xóa post
         postRepository.delete(post);
+        if (post.getFile() != null) {
+            fileAccessService.invalidateFile(post.getFile().getId());
+        }
     }
 
     // Xóa comment
@@ -57,32 +57,51 @@ public class PublicShareService {
         return convertToResponse(publicShare, shareUrl);
     }
     
+    /**
+     * Resolves the file behind a usable share without counting an access, so validation,
+     * HEAD and 304 answers cost no download. Counted transfers go through {@link #claimAccess}.
+     */
     @Transactional
-    public byte[] accessPublicShare(String shareToken) {
+    public FileMetadata accessPublicShare(String shareToken) {
         PublicShare publicShare = publicShareRepository.findByShareToken(shareToken)
                 .orElseThrow(() -> new RuntimeException("Share not found"));
         
+        checkUsable(publicShare);
+        
+        return publicShare.getFile();
+    }
+    
+    /**
+     * Counts one download with a single conditional UPDATE, which also enforces expiry and
+     * maxAccessCount. A share used up by a concurrent download fails here even though
+     * {@link #accessPublicShare} let the request through.
+     */
+    public void claimAccess(String shareToken) {
+        if (publicShareRepository.claimAccess(shareToken, LocalDateTime.now()) == 1) {
+            return;
+        }
+        PublicShare publicShare = publicShareRepository.findByShareToken(shareToken)
+                .orElseThrow(() -> new RuntimeException("Share not found"));
+        checkUsable(publicShare);
+        // Usable again when re-read: the limit was reached by the downloads racing this one
+        throw new RuntimeException("Share access limit reached");
+    }
+    
+    private void checkUsable(PublicShare publicShare) {
         if (!publicShare.isActive()) {
             throw new RuntimeException("Share is no longer active");
         }
         
         if (publicShare.getExpiresAt() != null && publicShare.getExpiresAt().isBefore(LocalDateTime.now())) {
-            publicShare.setActive(false);
-            publicShareRepository.save(publicShare);
+            publicShareRepository.deactivate(publicShare.getId());
             throw new RuntimeException("Share has expired");
         }
         
         if (publicShare.getMaxAccessCount() != null && 
             publicShare.getAccessCount() >= publicShare.getMaxAccessCount()) {
-            publicShare.setActive(false);
-            publicShareRepository.save(publicShare);
+            publicShareRepository.deactivate(publicShare.getId());
             throw new RuntimeException("Share access limit reached");
         }
-        
-        publicShare.setAccessCount(publicShare.getAccessCount() + 1);
-        publicShareRepository.save(publicShare);
-        
-        return publicShare.getFile().getFileData();
     }
     
     public PublicShareResponse getShareInfo(String shareToken) {
@@ -0,0 +1,165 @@
+package com.snet.service;
+
+import com.snet.model.ImageRendition;
+import com.snet.model.RenditionSource;
+import com.snet.repository.ImageRenditionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Standard image sizes for post/chat images, avatars, covers and group avatars.
+ * Each (source, id, rendition) is resized once, stored in the BlobStore and served
+ * from there, through ImageCache, afterwards. Renditions are regenerated when the
+ * source version changes and dropped explicitly when the original is replaced or deleted.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RenditionService {
+
+    // Longest side in pixels
+    public static final Map<String, Integer> RENDITION_SIZES = Map.of(
+            "thumbnail", 150,   // 150px for thumbnails
+            "preview", 400,     // 400px for preview in chat
+            "medium", 800);     // 800px for medium
+
+    public static final Set<String> RENDITIONS = RENDITION_SIZES.keySet();
+
+    private final ImageRenditionRepository imageRenditionRepository;
+    private final BlobStore blobStore;
+    private final BlobReferenceService blobReferenceService;
+    private final FileService fileService;
+    private final ImageCache imageCache;
+    private final PlatformTransactionManager transactionManager;
+
+    @FunctionalInterface
+    public interface SourceLoader {
+        byte[] load() throws IOException;
+    }
+
+    /**
+     * Returns the stored rendition, generating it from the original on first use.
+     * Unknown rendition names return the original unchanged; null when there is no original.
+     *
+     * @param sourceVersion identifies the current original (the storage key for files), null when
+     *                      the source is only invalidated explicitly
+     * @param orientation   EXIF orientation still to apply to the original when it is already known
+     *                      (persisted at ingestion), null to read it from the original's EXIF
+     */
+    public byte[] getRendition(RenditionSource sourceType, Long sourceId, String sourceVersion,
+                               String rendition, Integer orientation, SourceLoader original) throws IOException {
+        if (!RENDITIONS.contains(rendition)) {
+            return original.load();
+        }
+        return imageCache.get(sourceType, sourceId, rendition, sourceVersion,
+                () -> loadRendition(sourceType, sourceId, sourceVersion, rendition, orientation, original));
+    }
+
+    /**
+     * Source version of an image kept in a database column, from the time it was last replaced.
+     * Null for images stored before those times were recorded; they rely on explicit invalidation.
+     */
+    public static String sourceVersion(Optional<LocalDateTime> updatedAt) {
+        return updatedAt.map(time -> String.valueOf(MediaStreamService.epochMillis(time))).orElse(null);
+    }
+
+    /**
+     * Stores a rendition produced elsewhere, e.g. by image ingestion, which derives every size from one decode.
+     */
+    public void storeGenerated(RenditionSource sourceType, Long sourceId, String sourceVersion,
+                               String rendition, byte[] bytes) {
+        try {
+            store(sourceType, sourceId, sourceVersion, rendition, bytes);
+        } catch (IOException | DataIntegrityViolationException e) {
+            // Generated again on first request
+            log.warn("⚠️ Could not store rendition {} {} {}: {}", sourceType, sourceId, rendition, e.getMessage());
+        }
+    }
+
+    private byte[] loadRendition(RenditionSource sourceType, Long sourceId, String sourceVersion,
+                                 String rendition, Integer orientation, SourceLoader original) throws IOException {
+        Optional<ImageRendition> existing = imageRenditionRepository
+                .findBySourceTypeAndSourceIdAndRendition(sourceType, sourceId, rendition);
+        if (existing.isPresent() && Objects.equals(existing.get().getSourceVersion(), sourceVersion)) {
+            try (InputStream in = blobStore.open(existing.get().getStorageKey())) {
+                return in.readAllBytes();
+            } catch (FileNotFoundException e) {
+                log.warn("⚠️ Rendition blob missing for {} {} {}, regenerating", sourceType, sourceId, rendition);
+            }
+        }
+
+        byte[] originalBytes = original.load();
+        if (originalBytes == null) {
+            return null;
+        }
+
+        byte[] resized = fileService.resizeImage(originalBytes, rendition, orientation);
+        if (resized == originalBytes) {
+            // Not a decodable image, nothing worth storing
+            return originalBytes;
+        }
+
+        try {
+            store(sourceType, sourceId, sourceVersion, rendition, resized);
+        } catch (IOException | DataIntegrityViolationException e) {
+            // A concurrent request stored it first, or the store is unavailable; serve what we have
+            log.warn("⚠️ Could not store rendition {} {} {}: {}", sourceType, sourceId, rendition, e.getMessage());
+        }
+        return resized;
+    }
+
+    /**
+     * Drops every rendition of a source. Call in the transaction that replaces or deletes the original.
+     */
+    @Transactional
+    public void invalidate(RenditionSource sourceType, Long sourceId) {
+        imageCache.invalidate(sourceType, sourceId);
+        List<ImageRendition> renditions = imageRenditionRepository.findBySourceTypeAndSourceId(sourceType, sourceId);
+        for (ImageRendition rendition : renditions) {
+            blobReferenceService.release(rendition.getStorageKey());
+        }
+        imageRenditionRepository.deleteAll(renditions);
+    }
+
+    private void store(RenditionSource sourceType, Long sourceId, String sourceVersion,
+                       String rendition, byte[] resized) throws IOException {
+        BlobStore.StoredBlob blob = blobStore.put(new ByteArrayInputStream(resized), BlobStore.keyOf(resized));
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            ImageRendition entity = imageRenditionRepository
+                    .findBySourceTypeAndSourceIdAndRendition(sourceType, sourceId, rendition)
+                    .orElseGet(() -> ImageRendition.builder()
+                            .sourceType(sourceType)
+                            .sourceId(sourceId)
+                            .rendition(rendition)
+                            .build());
+
+            if (entity.getStorageKey() != null) {
+                blobReferenceService.release(entity.getStorageKey());
+            }
+            blobReferenceService.acquire(blob);
+
+            entity.setSourceVersion(sourceVersion);
+            entity.setStorageKey(blob.key());
+            entity.setSize(blob.size());
+            entity.setGeneratedAt(LocalDateTime.now());
+            imageRenditionRepository.saveAndFlush(entity);
+        });
+    }
+}
@@ -0,0 +1,286 @@
+package com.snet.service;
+
+import com.snet.dto.StorageGcReport;
+import com.snet.model.ImageRendition;
+import com.snet.repository.BlobReferenceRepository;
+import com.snet.repository.ImageRenditionRepository;
+import com.snet.repository.PostShareRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Mark-and-sweep collection of storage nothing points at any more. Reference counts only
+ * cover the paths that maintain them, so payloads are marked from the actual referrers
+ * (files and image_renditions rows, batch by batch) rather than trusted from blob_references.
+ * Swept:
+ * <ul>
+ *   <li>renditions whose source file, user or group is gone, releasing their payloads</li>
+ *   <li>blobs on either tier that no row references, with their stale reference count</li>
+ *   <li>part files of resumable uploads without a session and blob store temp files</li>
+ *   <li>QR images of inactive or expired post shares, regenerated on demand</li>
+ * </ul>
+ * Anything written within file.gc.grace-period-ms is left alone, its upload may not be
+ * committed yet; duplicate uploads refresh that time on the payload they reuse, and it is read
+ * again right before each delete. A blob is deleted through BlobClaims like any other payload
+ * delete, so an upload reusing it after it was listed keeps it. Deletes run in batches with a
+ * pause in between, and a dry run reports the same numbers without deleting.
+ */
+@Service
+@Slf4j
+public class StorageGarbageCollector {
+
+    private final BlobStore blobStore;
+    private final BlobClaims blobClaims;
+    private final BlobReferenceRepository blobReferenceRepository;
+    private final BlobReferenceService blobReferenceService;
+    private final ImageRenditionRepository imageRenditionRepository;
+    private final PostShareRepository postShareRepository;
+    private final UploadSessionService uploadSessionService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final boolean scheduledDryRun;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final long pauseMs;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile StorageGcReport lastReport;
+
+    public StorageGarbageCollector(BlobStore blobStore,
+                                   BlobClaims blobClaims,
+                                   BlobReferenceRepository blobReferenceRepository,
+                                   BlobReferenceService blobReferenceService,
+                                   ImageRenditionRepository imageRenditionRepository,
+                                   PostShareRepository postShareRepository,
+                                   UploadSessionService uploadSessionService,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${file.gc.enabled:true}") boolean enabled,
+                                   @Value("${file.gc.dry-run:false}") boolean scheduledDryRun,
+                                   @Value("${file.gc.grace-period-ms:86400000}") long gracePeriodMs,
+                                   @Value("${file.gc.batch-size:500}") int batchSize,
+                                   @Value("${file.gc.pause-ms:200}") long pauseMs) {
+        this.blobStore = blobStore;
+        this.blobClaims = blobClaims;
+        this.blobReferenceRepository = blobReferenceRepository;
+        this.blobReferenceService = blobReferenceService;
+        this.imageRenditionRepository = imageRenditionRepository;
+        this.postShareRepository = postShareRepository;
+        this.uploadSessionService = uploadSessionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.scheduledDryRun = scheduledDryRun;
+        this.gracePeriod = Duration.ofMillis(gracePeriodMs);
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+    }
+
+    @Scheduled(initialDelayString = "${file.gc.initial-delay-ms:900000}",
+               fixedDelayString = "${file.gc.interval-ms:86400000}")
+    public void scheduledCollect() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            collect(scheduledDryRun);
+        } catch (RuntimeException e) {
+            log.error("❌ Storage garbage collection failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Runs one full collection on the calling thread.
+     *
+     * @param dryRun only measure what would be reclaimed
+     */
+    public StorageGcReport collect(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            throw new RuntimeException("Storage garbage collection is already running");
+        }
+        long start = System.nanoTime();
+        StorageGcReport report = StorageGcReport.builder()
+                .dryRun(dryRun)
+                .startedAt(LocalDateTime.now())
+                .build();
+        Instant cutoff = Instant.now().minus(gracePeriod);
+        try {
+            // Renditions first: the payloads they release are then swept as unreferenced blobs
+            sweepRenditions(dryRun, report);
+            sweepBlobs(cutoff, dryRun, report);
+            sweepTemporaryFiles(cutoff, dryRun, report);
+            sweepQrCodes(dryRun, report);
+        } finally {
+            running.set(false);
+        }
+
+        report.setReclaimedBytes(report.getOrphanedBlobBytes() + report.getOrphanedRenditionBytes()
+                + report.getOrphanedUploadPartBytes() + report.getTemporaryFileBytes() + report.getStaleQrCodeBytes());
+        report.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        lastReport = report;
+        log.info("🧹 Storage GC{}: {} bytes {} ({} blobs, {} renditions, {} QR codes) in {} ms, {} errors",
+                dryRun ? " (dry run)" : "", report.getReclaimedBytes(), dryRun ? "reclaimable" : "reclaimed",
+                report.getOrphanedBlobs(), report.getOrphanedRenditions(), report.getStaleQrCodes(),
+                report.getDurationMs(), report.getErrors());
+        return report;
+    }
+
+    /**
+     * @return null before the first run
+     */
+    public StorageGcReport getLastReport() {
+        return lastReport;
+    }
+
+    private void sweepRenditions(boolean dryRun, StorageGcReport report) {
+        long afterId = 0;
+        List<ImageRendition> batch;
+        do {
+            batch = imageRenditionRepository.findOrphaned(afterId, PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+            afterId = batch.get(batch.size() - 1).getId();
+            report.setOrphanedRenditions(report.getOrphanedRenditions() + batch.size());
+            report.setOrphanedRenditionBytes(report.getOrphanedRenditionBytes()
+                    + batch.stream().mapToLong(ImageRendition::getSize).sum());
+            if (!dryRun) {
+                List<ImageRendition> orphans = batch;
+                try {
+                    // Payloads shared with anything else keep their other references
+                    transactionTemplate.executeWithoutResult(status -> {
+                        orphans.forEach(rendition -> blobReferenceService.release(rendition.getStorageKey()));
+                        imageRenditionRepository.deleteAll(orphans);
+                    });
+                } catch (RuntimeException e) {
+                    report.setErrors(report.getErrors() + 1);
+                    log.warn("⚠️ Could not delete {} orphaned renditions: {}", orphans.size(), e.getMessage());
+                }
+                pause();
+            }
+        } while (batch.size() == batchSize);
+    }
+
+    private void sweepBlobs(Instant cutoff, boolean dryRun, StorageGcReport report) {
+        try (Stream<BlobStore.BlobEntry> entries = blobStore.list()) {
+            // Key to stored bytes; a payload caught mid tier move is listed on both tiers
+            Map<String, Long> batch = new LinkedHashMap<>();
+            Iterator<BlobStore.BlobEntry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                BlobStore.BlobEntry entry = iterator.next();
+                report.setScannedBlobs(report.getScannedBlobs() + 1);
+                if (entry.lastModified().isAfter(cutoff)) {
+                    continue;
+                }
+                batch.merge(entry.key(), entry.storedSize(), Long::sum);
+                if (batch.size() == batchSize) {
+                    sweepBlobBatch(batch, cutoff, dryRun, report);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                sweepBlobBatch(batch, cutoff, dryRun, report);
+            }
+        } catch (IOException | RuntimeException e) {
+            report.setErrors(report.getErrors() + 1);
+            log.error("❌ Blob sweep stopped: {}", e.getMessage());
+        }
+    }
+
+    private void sweepBlobBatch(Map<String, Long> batch, Instant cutoff, boolean dryRun, StorageGcReport report) {
+        Set<String> referenced = new HashSet<>(blobReferenceRepository.findReferencedKeys(batch.keySet()));
+        boolean deleted = false;
+        for (Map.Entry<String, Long> entry : batch.entrySet()) {
+            String key = entry.getKey();
+            if (referenced.contains(key)) {
+                continue;
+            }
+            if (!dryRun) {
+                // Read before the checks below, an upload claiming the payload from here on keeps it
+                long generation = blobClaims.generationIfUnclaimed(key);
+                if (generation < 0) {
+                    continue;
+                }
+                // Checked again with the delete, a file may have claimed the payload since the batch was marked
+                Boolean unreferenced = transactionTemplate.execute(status -> {
+                    if (!blobReferenceRepository.findReferencedKeys(List.of(key)).isEmpty()) {
+                        return false;
+                    }
+                    blobReferenceRepository.deleteIfOrphaned(key);
+                    return true;
+                });
+                if (!Boolean.TRUE.equals(unreferenced)) {
+                    continue;
+                }
+                try {
+                    boolean removed = blobClaims.deleteIfUnclaimed(key, generation, () -> {
+                        // The listing may be minutes old by now, a duplicate upload since then touched it
+                        Instant lastModified = blobStore.lastModified(key);
+                        return lastModified != null && !lastModified.isAfter(cutoff) && blobStore.delete(key);
+                    });
+                    if (!removed) {
+                        continue;
+                    }
+                    deleted = true;
+                } catch (IOException e) {
+                    report.setErrors(report.getErrors() + 1);
+                    log.warn("⚠️ Failed to delete orphaned blob {}: {}", key, e.getMessage());
+                    continue;
+                }
+            }
+            report.setOrphanedBlobs(report.getOrphanedBlobs() + 1);
+            report.setOrphanedBlobBytes(report.getOrphanedBlobBytes() + entry.getValue());
+        }
+        if (deleted) {
+            pause();
+        }
+    }
+
+    private void sweepTemporaryFiles(Instant cutoff, boolean dryRun, StorageGcReport report) {
+        try {
+            report.setOrphanedUploadPartBytes(uploadSessionService.purgeOrphanedParts(cutoff, dryRun));
+            report.setTemporaryFileBytes(blobStore.purgeTemporaryFiles(cutoff, dryRun));
+        } catch (IOException e) {
+            report.setErrors(report.getErrors() + 1);
+            log.error("❌ Temporary file sweep failed: {}", e.getMessage());
+        }
+    }
+
+    private void sweepQrCodes(boolean dryRun, StorageGcReport report) {
+        Object[] stale = postShareRepository.sumStaleQrCodes().get(0);
+        report.setStaleQrCodes(((Number) stale[0]).longValue());
+        report.setStaleQrCodeBytes(((Number) stale[1]).longValue());
+        if (!dryRun && report.getStaleQrCodes() > 0) {
+            postShareRepository.clearStaleQrCodes();
+        }
+    }
+
+    private void pause() {
+        if (pauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Storage garbage collection interrupted");
+        }
+    }
+}
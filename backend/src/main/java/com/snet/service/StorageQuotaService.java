@@ -0,0 +1,185 @@
+package com.snet.service;
+
+import com.snet.model.User;
+import com.snet.repository.FileMetadataRepository;
+import com.snet.repository.UploadSessionRepository;
+import com.snet.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage quota ledger. users.storage_used only ever moves through single conditional
+ * UPDATE statements, so parallel uploads cannot both pass the check and overwrite each
+ * other's total. Uploads that are still streaming are counted per user in memory: reserve()
+ * admits an upload only if committed usage, open resumable upload sessions and everything
+ * else in flight still fit, without holding a lock or a database connection while the body is
+ * read. Sessions reserve through the same call when they are created, so their full size is
+ * held from then on.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StorageQuotaService {
+
+    private static final int RECONCILE_BATCH_SIZE = 500;
+
+    private final UserRepository userRepository;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final UploadSessionRepository uploadSessionRepository;
+
+    // Bytes reserved by uploads in flight, one counter per user so users never contend
+    private final Map<Long, AtomicLong> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Reserves bytes for an upload of the given user until the returned reservation is closed,
+     * without needing a transaction, so a body can stream while it is held. The user's usage is
+     * the snapshot loaded with the entity; charge() re-checks against the database row.
+     */
+    public Reservation reserve(User user, long bytes) {
+        AtomicLong counter = inFlight.computeIfAbsent(user.getId(), id -> new AtomicLong());
+        if (bytes <= 0) {
+            return new Reservation(counter, 0);
+        }
+        long sessions = uploadSessionRepository.sumReservedByUser(user, LocalDateTime.now());
+        long available = user.getStorageQuota() - user.getStorageUsed() - sessions;
+        long reserved;
+        do {
+            reserved = counter.get();
+            if (reserved + bytes > available) {
+                throw new RuntimeException("Storage quota exceeded");
+            }
+        } while (!counter.compareAndSet(reserved, reserved + bytes));
+        return new Reservation(counter, bytes);
+    }
+
+    /**
+     * In-flight bytes of one upload. Closed inside a transaction, they are only given back once
+     * it completes, so they keep counting until the charge or session row they became is visible.
+     */
+    public static final class Reservation implements AutoCloseable {
+        private final AtomicLong counter;
+        private final long bytes;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Reservation(AtomicLong counter, long bytes) {
+            this.counter = counter;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true) || bytes == 0) {
+                return;
+            }
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        counter.addAndGet(-bytes);
+                    }
+                });
+            } else {
+                counter.addAndGet(-bytes);
+            }
+        }
+    }
+
+    /**
+     * Adds the final size of an upload to the user's usage in the current transaction.
+     *
+     * @return false when it would go over the quota, nothing is changed then
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean charge(Long userId, long bytes) {
+        return userRepository.addStorageUsed(userId, bytes) == 1;
+    }
+
+    /**
+     * Gives back the bytes of deleted files. Usage never drops below zero, a drifted counter
+     * is put right by the next reconciliation.
+     */
+    @Transactional
+    public void release(Long userId, long bytes) {
+        if (bytes > 0) {
+            userRepository.releaseStorageUsed(userId, bytes);
+        }
+    }
+
+    @Transactional
+    public void updateQuota(Long userId, long quota) {
+        if (quota < 0) {
+            throw new RuntimeException("Quota must not be negative");
+        }
+        if (userRepository.updateStorageQuota(userId, quota) == 0) {
+            throw new RuntimeException("User not found");
+        }
+    }
+
+    /**
+     * Bytes reserved by the user's uploads that have not committed yet.
+     */
+    public long getInFlightBytes(Long userId) {
+        AtomicLong counter = inFlight.get(userId);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Drops the in-flight counter of a deleted user once the deletion commits.
+     */
+    public void forget(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    inFlight.remove(userId);
+                }
+            });
+        } else {
+            inFlight.remove(userId);
+        }
+    }
+
+    /**
+     * Recomputes storage_used from the files each user actually owns. The stored value is
+     * read before the sum and only replaced if it is still the same, so an upload or delete
+     * committing in between is never overwritten; that user is simply checked next run.
+     */
+    @Scheduled(initialDelayString = "${file.quota.reconcile-initial-delay-ms:300000}",
+            fixedDelayString = "${file.quota.reconcile-interval-ms:21600000}")
+    public void reconcile() {
+        int corrected = 0;
+        int page = 0;
+        List<Object[]> batch;
+        do {
+            batch = userRepository.findStorageUsed(PageRequest.of(page++, RECONCILE_BATCH_SIZE));
+            for (Object[] row : batch) {
+                Long userId = (Long) row[0];
+                long recorded = (Long) row[1];
+                Long sum = fileMetadataRepository.calculateUserStorageUsed(userRepository.getReferenceById(userId));
+                long actual = sum != null ? sum : 0;
+                if (actual != recorded && userRepository.compareAndSetStorageUsed(userId, recorded, actual) == 1) {
+                    log.warn("💾 Storage usage of user {} corrected from {} to {} bytes", userId, recorded, actual);
+                    corrected++;
+                }
+            }
+        } while (batch.size() == RECONCILE_BATCH_SIZE);
+
+        if (corrected > 0) {
+            log.info("💾 Storage reconciliation corrected {} users", corrected);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.snet.service;
+
+import com.snet.dto.StorageTierStats;
+import com.snet.model.FileMetadata;
+import com.snet.model.StorageTier;
+import com.snet.repository.BlobReferenceRepository;
+import com.snet.repository.FileMetadataRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hot/archive tiering of blob payloads. Reads served to clients are counted in memory and
+ * written as one JDBC batch per flush interval, so a view costs a map update instead of a row
+ * write. Payloads none of whose files was read for file.storage.tiering.cold-after-days move
+ * to the compressed archive tier in the background. A read of an archived payload is served
+ * from the archive and queues its promotion back to hot, so only the first read after a long
+ * pause pays for decompression. Open latency, time to first byte and throughput of payload
+ * reads are measured per tier.
+ */
+@Service
+@Slf4j
+public class StorageTierService {
+
+    private static final String RECORD_ACCESS_SQL =
+            "UPDATE files SET access_count = COALESCE(access_count, 0) + ?, " +
+            "last_accessed_at = GREATEST(COALESCE(last_accessed_at, ?), ?) WHERE id = ?";
+
+    private final FileMetadataRepository fileMetadataRepository;
+    private final BlobReferenceRepository blobReferenceRepository;
+    private final BlobStore blobStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolExecutor promoter;
+    private final boolean enabled;
+    private final int coldAfterDays;
+    private final int batchSize;
+
+    private record PendingAccess(long count, LocalDateTime lastAccessedAt) {
+    }
+
+    // Reads not yet written to files.access_count, drained by flushAccesses()
+    private final Map<Long, PendingAccess> pendingAccesses = new ConcurrentHashMap<>();
+
+    // Archived or promoted right now, the mover and the promoter never move the same payload at once
+    private final Set<String> moving = ConcurrentHashMap.newKeySet();
+
+    private final ReadStats hotReads = new ReadStats();
+    private final ReadStats archiveReads = new ReadStats();
+    private final LongAdder archivedBlobs = new LongAdder();
+    private final LongAdder promotedBlobs = new LongAdder();
+    private final LongAdder droppedPromotions = new LongAdder();
+
+    public StorageTierService(FileMetadataRepository fileMetadataRepository,
+                              BlobReferenceRepository blobReferenceRepository,
+                              BlobStore blobStore,
+                              JdbcTemplate jdbcTemplate,
+                              @Value("${file.storage.tiering.enabled:true}") boolean enabled,
+                              @Value("${file.storage.tiering.cold-after-days:30}") int coldAfterDays,
+                              @Value("${file.storage.tiering.batch-size:100}") int batchSize,
+                              @Value("${file.storage.tiering.promotion-queue-capacity:100}") int promotionQueueCapacity) {
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.blobReferenceRepository = blobReferenceRepository;
+        this.blobStore = blobStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.coldAfterDays = coldAfterDays;
+        this.batchSize = batchSize;
+        // One mover thread: promotions are disk bound, running several at once only slows each down
+        this.promoter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(promotionQueueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "storage-promoter");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * A client is being served this file. Counted for the next flush; an archived payload is
+     * queued for promotion, the current read is still served from the archive.
+     */
+    public void recordAccess(FileMetadata file) {
+        pendingAccesses.merge(file.getId(), new PendingAccess(1, LocalDateTime.now()),
+                (pending, access) -> new PendingAccess(pending.count() + 1, access.lastAccessedAt()));
+        // The store, not the row, is authoritative: a row inserted while its payload was being archived says HOT
+        if (file.getStorageKey() != null && blobStore.tier(file.getStorageKey()) == StorageTier.ARCHIVE) {
+            promoteLater(file.getStorageKey(), FileService.isCompressibleCategory(file.getCategory()));
+        }
+    }
+
+    /**
+     * Opens a payload with its read timed under the tier it was found on.
+     */
+    public InputStream open(String key) throws IOException {
+        long start = System.nanoTime();
+        ReadStats stats = blobStore.tier(key) == StorageTier.ARCHIVE ? archiveReads : hotReads;
+        InputStream in = blobStore.open(key);
+        stats.opens.increment();
+        stats.openNanos.add(System.nanoTime() - start);
+        return new TimedInputStream(in, stats, start);
+    }
+
+    @Scheduled(fixedDelayString = "${file.storage.tiering.access-flush-interval-ms:60000}")
+    public void flushAccesses() {
+        if (pendingAccesses.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        for (Long fileId : pendingAccesses.keySet()) {
+            PendingAccess access = pendingAccesses.remove(fileId);
+            if (access != null) {
+                Timestamp at = Timestamp.valueOf(access.lastAccessedAt());
+                batch.add(new Object[]{access.count(), at, at, fileId});
+            }
+        }
+        try {
+            jdbcTemplate.batchUpdate(RECORD_ACCESS_SQL, batch);
+        } catch (DataAccessException e) {
+            // Access stats only steer tiering, a lost batch just makes those files look a little colder
+            log.warn("⚠️ Could not record {} file accesses: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    @Scheduled(initialDelayString = "${file.storage.tiering.initial-delay-ms:600000}",
+               fixedDelayString = "${file.storage.tiering.interval-ms:3600000}")
+    public void archiveColdBlobs() {
+        if (!enabled) {
+            return;
+        }
+        // Reads still in memory must count before anything is judged cold
+        flushAccesses();
+
+        List<String> keys = fileMetadataRepository.findColdStorageKeys(
+                LocalDateTime.now().minusDays(coldAfterDays), PageRequest.of(0, batchSize));
+        int archived = 0;
+        for (String key : keys) {
+            if (!moving.add(key)) {
+                continue;
+            }
+            try {
+                if (blobStore.archive(key)) {
+                    fileMetadataRepository.updateStorageTier(key, StorageTier.ARCHIVE);
+                    blobReferenceRepository.updateStoredSize(key, blobStore.storedSize(key));
+                    archivedBlobs.increment();
+                    archived++;
+                } else {
+                    log.warn("⚠️ Cold blob {} is missing from the store", key);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("❌ Archiving blob {} failed: {}", key, e.getMessage());
+            } finally {
+                moving.remove(key);
+            }
+        }
+        if (archived > 0) {
+            log.info("🧊 Moved {}/{} cold blobs to the archive tier", archived, keys.size());
+        }
+    }
+
+    public StorageTierStats getStats() {
+        StorageTierStats.StorageTierStatsBuilder builder = StorageTierStats.builder();
+        long hotFiles = 0;
+        long hotBytes = 0;
+        for (Object[] row : fileMetadataRepository.countByStorageTier()) {
+            if (row[0] == StorageTier.ARCHIVE) {
+                builder.archiveFiles((Long) row[1]).archiveBytes(((Number) row[2]).longValue());
+            } else {
+                // Rows from before tiering have no tier and are hot
+                hotFiles += (Long) row[1];
+                hotBytes += ((Number) row[2]).longValue();
+            }
+        }
+        return builder
+                .hotFiles(hotFiles)
+                .hotBytes(hotBytes)
+                .coldAfterDays(coldAfterDays)
+                .archivedBlobs(archivedBlobs.sum())
+                .promotedBlobs(promotedBlobs.sum())
+                .droppedPromotions(droppedPromotions.sum())
+                .queuedPromotions(promoter.getQueue().size())
+                .pendingAccessUpdates(pendingAccesses.size())
+                .hotReads(hotReads.opens.sum())
+                .hotAvgOpenMicros(hotReads.avgOpenMicros())
+                .hotAvgFirstByteMicros(hotReads.avgFirstByteMicros())
+                .hotReadMiBPerSecond(hotReads.mibPerSecond())
+                .archiveReads(archiveReads.opens.sum())
+                .archiveAvgOpenMicros(archiveReads.avgOpenMicros())
+                .archiveAvgFirstByteMicros(archiveReads.avgFirstByteMicros())
+                .archiveReadMiBPerSecond(archiveReads.mibPerSecond())
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        promoter.shutdownNow();
+        flushAccesses();
+    }
+
+    private void promoteLater(String key, boolean compressible) {
+        if (!moving.add(key)) {
+            return;
+        }
+        try {
+            promoter.execute(() -> {
+                try {
+                    promote(key, compressible);
+                } finally {
+                    moving.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The next read of the payload asks again
+            moving.remove(key);
+            droppedPromotions.increment();
+        }
+    }
+
+    private void promote(String key, boolean compressible) {
+        try {
+            if (blobStore.restore(key, compressible)) {
+                fileMetadataRepository.updateStorageTier(key, StorageTier.HOT);
+                blobReferenceRepository.updateStoredSize(key, blobStore.storedSize(key));
+                promotedBlobs.increment();
+                log.info("🔥 Promoted blob {} back to the hot tier", key);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("❌ Promoting blob {} failed: {}", key, e.getMessage());
+        }
+    }
+
+    private static final class ReadStats {
+        private final LongAdder opens = new LongAdder();
+        private final LongAdder openNanos = new LongAdder();
+        private final LongAdder firstBytes = new LongAdder();
+        private final LongAdder firstByteNanos = new LongAdder();
+        private final LongAdder readNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        long avgOpenMicros() {
+            long count = opens.sum();
+            return count > 0 ? TimeUnit.NANOSECONDS.toMicros(openNanos.sum() / count) : 0;
+        }
+
+        long avgFirstByteMicros() {
+            long count = firstBytes.sum();
+            return count > 0 ? TimeUnit.NANOSECONDS.toMicros(firstByteNanos.sum() / count) : 0;
+        }
+
+        double mibPerSecond() {
+            long nanos = readNanos.sum();
+            return nanos > 0 ? bytes.sum() / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0) : 0;
+        }
+    }
+
+    /**
+     * Adds the time spent inside read calls to the tier's stats; the first read also records
+     * the time since open started.
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+        private final ReadStats stats;
+        private final long openedAt;
+        private boolean firstRead = true;
+
+        TimedInputStream(InputStream in, ReadStats stats, long openedAt) {
+            super(in);
+            this.stats = stats;
+            this.openedAt = openedAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            record(start, b != -1 ? 1 : 0);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(b, off, len);
+            record(start, Math.max(read, 0));
+            return read;
+        }
+
+        private void record(long start, int read) {
+            long now = System.nanoTime();
+            stats.readNanos.add(now - start);
+            stats.bytes.add(read);
+            if (firstRead && read > 0) {
+                firstRead = false;
+                stats.firstBytes.increment();
+                stats.firstByteNanos.add(now - openedAt);
+            }
+        }
+    }
+}
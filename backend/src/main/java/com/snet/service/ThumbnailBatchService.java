@@ -0,0 +1,216 @@
+package com.snet.service;
+
+import com.snet.model.FileMetadata;
+import com.snet.model.RenditionSource;
+import com.snet.model.User;
+import com.snet.repository.FileMetadataRepository;
+import com.snet.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves the thumbnails of a feed or gallery screen in one multipart/mixed response instead of
+ * one request per image. Metadata is resolved with one IN query per kind and file permissions
+ * in bulk through FileAccessService; each part is flushed as soon as it is loaded, so the
+ * client can paint images while later ones are still read. Parts are identified by their
+ * Content-ID (&lt;file-ID&gt; or &lt;avatar-ID&gt;); an item that cannot be served is an empty
+ * part with X-Status 403 or 404, 503 when the heap budget turned it away and 500 when loading
+ * it failed, rather than failing or truncating the whole batch.
+ */
+@Service
+@Slf4j
+public class ThumbnailBatchService {
+
+    private final FileMetadataRepository fileMetadataRepository;
+    private final UserRepository userRepository;
+    private final FileAccessService fileAccessService;
+    private final FileService fileService;
+    private final UserService userService;
+    private final RenditionService renditionService;
+    private final TransferAdmissionService transferAdmissionService;
+    private final int maxItems;
+
+    public ThumbnailBatchService(FileMetadataRepository fileMetadataRepository,
+                                 UserRepository userRepository,
+                                 FileAccessService fileAccessService,
+                                 FileService fileService,
+                                 UserService userService,
+                                 RenditionService renditionService,
+                                 TransferAdmissionService transferAdmissionService,
+                                 @Value("${media.batch.max-items:100}") int maxItems) {
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.userRepository = userRepository;
+        this.fileAccessService = fileAccessService;
+        this.fileService = fileService;
+        this.userService = userService;
+        this.renditionService = renditionService;
+        this.transferAdmissionService = transferAdmissionService;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Everything needed to write the batch, resolved before the response is committed.
+     *
+     * @param fileRendition null for the upload thumbnail, otherwise a standard rendition
+     */
+    public record Batch(List<Long> fileIds, Map<Long, FileMetadata> files, Set<Long> accessibleFiles,
+                        String fileRendition, List<Long> userIds, Map<Long, AvatarOwner> avatarOwners,
+                        String avatarSize) {
+    }
+
+    public record AvatarOwner(String displayName, boolean hasAvatar) {
+    }
+
+    /**
+     * @param viewerEmail null for anonymous requests, which only see files of public posts
+     */
+    public Batch resolve(String viewerEmail, List<Long> fileIds, String fileRendition,
+                         List<Long> userIds, String avatarSize) {
+        List<Long> files = distinct(fileIds);
+        List<Long> users = distinct(userIds);
+        if (files.size() + users.size() > maxItems) {
+            throw new RuntimeException("Too many items in one batch, the limit is " + maxItems);
+        }
+        if (fileRendition != null && !RenditionService.RENDITIONS.contains(fileRendition)) {
+            throw new RuntimeException("Unsupported rendition: " + fileRendition);
+        }
+        if (!RenditionService.RENDITIONS.contains(avatarSize)) {
+            throw new RuntimeException("Unsupported avatar size: " + avatarSize);
+        }
+
+        Map<Long, FileMetadata> metadata = new HashMap<>();
+        Set<Long> accessible = Set.of();
+        if (!files.isEmpty()) {
+            fileMetadataRepository.findAllById(files).stream()
+                    .filter(file -> !file.isDeleted())
+                    .forEach(file -> metadata.put(file.getId(), file));
+            User viewer = viewerEmail != null ? userRepository.findByEmail(viewerEmail)
+                    .orElseThrow(() -> new RuntimeException("User not found")) : null;
+            accessible = fileAccessService.accessibleFileIds(metadata.values(), viewer);
+        }
+
+        Map<Long, AvatarOwner> owners = new HashMap<>();
+        if (!users.isEmpty()) {
+            for (Object[] row : userRepository.findAvatarSummaries(users)) {
+                owners.put((Long) row[0], new AvatarOwner((String) row[1], (Boolean) row[2]));
+            }
+        }
+        return new Batch(files, metadata, accessible, fileRendition, users, owners, avatarSize);
+    }
+
+    /**
+     * Writes the multipart body in request order, flushing after every part. Only failures to
+     * write to the client propagate; once the first part is out the status can no longer change.
+     */
+    public void write(Batch batch, String boundary, String client, OutputStream out) throws IOException {
+        int served = 0;
+        for (Long fileId : batch.fileIds()) {
+            String contentId = "file-" + fileId;
+            FileMetadata file = batch.files().get(fileId);
+            if (file == null) {
+                writeStatus(out, boundary, contentId, 404);
+            } else if (!batch.accessibleFiles().contains(fileId)) {
+                writeStatus(out, boundary, contentId, 403);
+            } else {
+                byte[] image;
+                try {
+                    image = loadFileImage(file, batch.fileRendition(), client);
+                } catch (TransferAdmissionService.RejectedException e) {
+                    writeStatus(out, boundary, contentId, 503);
+                    out.flush();
+                    continue;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("⚠️ Thumbnail batch: could not load file {}: {}", fileId, e.getMessage());
+                    writeStatus(out, boundary, contentId, 500);
+                    out.flush();
+                    continue;
+                }
+                if (image == null) {
+                    writeStatus(out, boundary, contentId, 404);
+                } else {
+                    writePart(out, boundary, contentId, "image/jpeg", image);
+                    served++;
+                }
+            }
+            out.flush();
+        }
+
+        for (Long userId : batch.userIds()) {
+            String contentId = "avatar-" + userId;
+            AvatarOwner owner = batch.avatarOwners().get(userId);
+            if (owner == null) {
+                writeStatus(out, boundary, contentId, 404);
+            } else {
+                byte[] avatar;
+                try {
+                    avatar = owner.hasAvatar() ? userService.getUserAvatar(userId, batch.avatarSize()) : null;
+                } catch (RuntimeException e) {
+                    log.warn("⚠️ Thumbnail batch: could not load avatar {}: {}", userId, e.getMessage());
+                    writeStatus(out, boundary, contentId, 500);
+                    out.flush();
+                    continue;
+                }
+                if (avatar == null || avatar.length == 0) {
+                    writePart(out, boundary, contentId, "image/svg+xml",
+                            UserService.defaultAvatarSvg(owner.displayName()).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    writePart(out, boundary, contentId, "image/jpeg", avatar);
+                }
+                served++;
+            }
+            out.flush();
+        }
+
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        log.info("🖼️ Thumbnail batch: {} of {} items served", served, batch.fileIds().size() + batch.userIds().size());
+    }
+
+    private byte[] loadFileImage(FileMetadata file, String rendition, String client) throws IOException {
+        if (rendition == null) {
+            return fileService.getThumbnail(file.getId());
+        }
+        if (file.getFileType() == null || !file.getFileType().startsWith("image/")) {
+            return null;
+        }
+        // Same heap budget as the preview endpoint when the rendition has to be generated
+        try (TransferAdmissionService.Permit buffer = transferAdmissionService.bufferPermit(client, file.getFileSize())) {
+            return renditionService.getRendition(RenditionSource.FILE, file.getId(), file.getStorageKey(), rendition,
+                    fileService.getPendingOrientation(file),
+                    () -> {
+                        buffer.acquire();
+                        return fileService.readContent(file);
+                    });
+        }
+    }
+
+    private static void writePart(OutputStream out, String boundary, String contentId, String contentType,
+                                  byte[] body) throws IOException {
+        out.write(("\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-ID: <" + contentId + ">\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+    }
+
+    private static void writeStatus(OutputStream out, String boundary, String contentId, int status) throws IOException {
+        out.write(("\r\n--" + boundary + "\r\n"
+                + "Content-ID: <" + contentId + ">\r\n"
+                + "X-Status: " + status + "\r\n"
+                + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static List<Long> distinct(List<Long> ids) {
+        return ids != null ? List.copyOf(new LinkedHashSet<>(ids)) : List.of();
+    }
+}
@@ -0,0 +1,261 @@
+package com.snet.service;
+
+import com.snet.dto.TransferAdmissionStats;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Admission control for media transfers. Every download, stream and upload holds a transfer
+ * slot while it runs (bodies handed to sendfile excepted, the request thread is gone by then
+ * and nothing is buffered), and code that pulls a whole file into heap also holds that many bytes of
+ * the buffer budget; both are limited globally and per client. A request over budget waits up
+ * to media.admission.queue-timeout-ms for capacity and is then turned away with 503 and
+ * Retry-After, so a burst of video views queues or sheds load instead of exhausting heap.
+ */
+@Service
+@Slf4j
+public class TransferAdmissionService {
+
+    // Buffer budgets are counted in KiB so a Semaphore's int permits cover any sensible heap
+    private static final int KIB = 1024;
+
+    private final Semaphore transfers;
+    private final Semaphore bufferedKib;
+    private final int maxTransfers;
+    private final int maxTransfersPerClient;
+    private final int maxBufferedKib;
+    private final int maxBufferedKibPerClient;
+    private final long queueTimeoutNanos;
+    private final long retryAfterSeconds;
+
+    // Only clients with a permit held or queued; a budget goes when its last permit closes, never
+    // while a long download still counts against it, so a later request cannot start from a fresh one
+    private final Map<String, ClientBudget> clients = new ConcurrentHashMap<>();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public TransferAdmissionService(@Value("${media.admission.max-transfers:64}") int maxTransfers,
+                                    @Value("${media.admission.max-transfers-per-client:4}") int maxTransfersPerClient,
+                                    @Value("${media.admission.max-buffered-bytes:268435456}") long maxBufferedBytes,
+                                    @Value("${media.admission.max-buffered-bytes-per-client:67108864}") long maxBufferedBytesPerClient,
+                                    @Value("${media.admission.queue-timeout-ms:2000}") long queueTimeoutMs,
+                                    @Value("${media.admission.retry-after-seconds:5}") long retryAfterSeconds) {
+        this.maxTransfers = maxTransfers;
+        this.maxTransfersPerClient = maxTransfersPerClient;
+        this.maxBufferedKib = toKib(maxBufferedBytes);
+        this.maxBufferedKibPerClient = Math.min(toKib(maxBufferedBytesPerClient), maxBufferedKib);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        this.retryAfterSeconds = retryAfterSeconds;
+        // Fair, so queued requests are admitted in arrival order
+        this.transfers = new Semaphore(maxTransfers, true);
+        this.bufferedKib = new Semaphore(maxBufferedKib, true);
+    }
+
+    /**
+     * Identifies who a transfer is charged to: the authenticated user, otherwise the remote address.
+     * Behind the tunnel that is the forwarded client address (server.forward-headers-strategy),
+     * not the proxy's.
+     */
+    public static String clientKey(Authentication authentication, HttpServletRequest request) {
+        if (authentication != null && authentication.isAuthenticated() && authentication.getName() != null) {
+            return "user:" + authentication.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * Takes one transfer slot for the duration of a download, stream or upload.
+     *
+     * @throws RejectedException when no slot frees up within the queue timeout
+     */
+    public Permit admitTransfer(String client) {
+        Permit permit = transferPermit(client);
+        permit.acquire();
+        return permit;
+    }
+
+    /**
+     * A transfer slot taken later by Permit.acquire(), for responses that may not need one:
+     * MediaStreamService only takes it when the request thread copies the body itself.
+     */
+    public Permit transferPermit(String client) {
+        return new Permit(client, ClientBudget::transfers, transfers, 1);
+    }
+
+    /**
+     * Budget for bytes about to be held in heap. Nothing is taken until Permit.acquire(), so a
+     * cache hit that never loads the original never waits for buffer space.
+     * A single reservation larger than the per-client budget is capped to it, so it can
+     * still run once it has the budget to itself.
+     */
+    public Permit bufferPermit(String client, long bytes) {
+        return new Permit(client, ClientBudget::bufferedKib, bufferedKib, Math.min(toKib(bytes), maxBufferedKibPerClient));
+    }
+
+    public TransferAdmissionStats getStats() {
+        return TransferAdmissionStats.builder()
+                .activeTransfers(maxTransfers - transfers.availablePermits())
+                .maxTransfers(maxTransfers)
+                .maxTransfersPerClient(maxTransfersPerClient)
+                .bufferedBytes((long) (maxBufferedKib - bufferedKib.availablePermits()) * KIB)
+                .maxBufferedBytes((long) maxBufferedKib * KIB)
+                .waiting(waiting.get())
+                .trackedClients(clients.size())
+                .admittedTotal(admitted.sum())
+                .queuedTotal(queued.sum())
+                .rejectedTotal(rejected.sum())
+                .build();
+    }
+
+    /**
+     * The client's budget, counting one more permit against it until leave().
+     */
+    private ClientBudget join(String client) {
+        return clients.compute(client, (key, budget) -> {
+            ClientBudget joined = budget != null ? budget : new ClientBudget(
+                    new Semaphore(maxTransfersPerClient, true), new Semaphore(maxBufferedKibPerClient, true));
+            joined.permits++;
+            return joined;
+        });
+    }
+
+    private void leave(String client) {
+        // Removed only once nothing is held or queued, its semaphores are full again by then
+        clients.computeIfPresent(client, (key, budget) -> --budget.permits == 0 ? null : budget);
+    }
+
+    private static int toKib(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bytes + KIB - 1) / KIB));
+    }
+
+    private static final class ClientBudget {
+        private final Semaphore transfers;
+        private final Semaphore bufferedKib;
+        // Permits held or queued on this budget, only changed inside clients.compute
+        private int permits;
+
+        ClientBudget(Semaphore transfers, Semaphore bufferedKib) {
+            this.transfers = transfers;
+            this.bufferedKib = bufferedKib;
+        }
+
+        Semaphore transfers() {
+            return transfers;
+        }
+
+        Semaphore bufferedKib() {
+            return bufferedKib;
+        }
+    }
+
+    /**
+     * Held capacity, released by close(). Safe to close when never acquired, and from another
+     * thread than the one that acquired it; only the first close releases.
+     */
+    public final class Permit implements AutoCloseable {
+        private final String clientKey;
+        private final Function<ClientBudget, Semaphore> budgetPart;
+        private final Semaphore global;
+        private final int permits;
+        // The client's semaphore while held, resolved on acquire so it is always the tracked budget's
+        private volatile Semaphore client;
+        private final AtomicBoolean held = new AtomicBoolean();
+
+        private Permit(String clientKey, Function<ClientBudget, Semaphore> budgetPart, Semaphore global, int permits) {
+            this.clientKey = clientKey;
+            this.budgetPart = budgetPart;
+            this.global = global;
+            this.permits = permits;
+        }
+
+        /**
+         * Blocks until both the client's and the global budget have room, at most the queue
+         * timeout in total. Does nothing when already held.
+         */
+        public void acquire() {
+            if (held.get()) {
+                return;
+            }
+            long deadline = System.nanoTime() + queueTimeoutNanos;
+            Semaphore budget = budgetPart.apply(join(clientKey));
+            try {
+                // Client first, so one client queueing for the global budget cannot hold it from others
+                take(budget, deadline, "Transfer limit reached for this client, retry later");
+                try {
+                    take(global, deadline, "Server busy, retry later");
+                } catch (RuntimeException e) {
+                    budget.release(permits);
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                leave(clientKey);
+                throw e;
+            }
+            client = budget;
+            held.set(true);
+            admitted.increment();
+        }
+
+        private void take(Semaphore semaphore, long deadline, String reason) {
+            if (semaphore.tryAcquire(permits)) {
+                return;
+            }
+            queued.increment();
+            waiting.incrementAndGet();
+            try {
+                if (!semaphore.tryAcquire(permits, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    reject(reason);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reject(reason);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        private void reject(String reason) {
+            rejected.increment();
+            log.warn("🚦 Transfer rejected: {}", reason);
+            throw new RejectedException(reason, retryAfterSeconds);
+        }
+
+        @Override
+        public void close() {
+            if (held.compareAndSet(true, false)) {
+                global.release(permits);
+                client.release(permits);
+                leave(clientKey);
+            }
+        }
+    }
+
+    /**
+     * Over budget; answered with 503 Service Unavailable and Retry-After by GlobalExceptionHandler.
+     */
+    @Getter
+    public static class RejectedException extends RuntimeException {
+        private final long retryAfterSeconds;
+
+        public RejectedException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+}
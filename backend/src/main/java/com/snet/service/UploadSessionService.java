@@ -0,0 +1,330 @@
+package com.snet.service;
+
+import com.snet.dto.CreateUploadSessionRequest;
+import com.snet.dto.FileResponse;
+import com.snet.dto.UploadSessionResponse;
+import com.snet.model.UploadSession;
+import com.snet.model.User;
+import com.snet.repository.UploadSessionRepository;
+import com.snet.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Resumable chunked uploads: create a session, PUT chunks at the current offset,
+ * query progress after a dropped connection, then complete to ingest the assembled
+ * file through FileService. Expired sessions are swept on a schedule.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionService {
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UserRepository userRepository;
+    private final FileService fileService;
+    private final StorageQuotaService storageQuotaService;
+
+    // One writer per session, chunks for the same session never interleave
+    private final Map<String, ReentrantLock> sessionLocks = new ConcurrentHashMap<>();
+
+    @Value("${file.max-file-size}")
+    private long maxFileSize;
+
+    @Value("${file.upload.buffer-size:65536}")
+    private int bufferSize;
+
+    @Value("${file.upload.session-dir:./storage/uploads}")
+    private String sessionDir;
+
+    @Value("${file.upload.session-ttl-ms:86400000}")
+    private long sessionTtlMs;
+
+    @Transactional
+    public UploadSessionResponse createSession(String userEmail, CreateUploadSessionRequest request) throws IOException {
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        if (request.getFileName() == null || request.getFileName().isBlank()) {
+            throw new RuntimeException("File name is required");
+        }
+        if (request.getTotalSize() == null || request.getTotalSize() <= 0) {
+            throw new RuntimeException("Total size must be positive");
+        }
+        if (request.getTotalSize() > maxFileSize) {
+            throw new RuntimeException("File size exceeds maximum limit");
+        }
+
+        // Checked against usage, open sessions and streaming uploads; closed inside this transaction,
+        // the reservation is held until the session row commits and counts instead
+        storageQuotaService.reserve(user, request.getTotalSize()).close();
+
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID().toString())
+                .user(user)
+                .fileName(request.getFileName())
+                .fileType(request.getFileType())
+                .description(request.getDescription())
+                .totalSize(request.getTotalSize())
+                .receivedBytes(0L)
+                .expiresAt(nextExpiry())
+                .build();
+
+        Path part = partFile(session.getId());
+        Files.createDirectories(part.getParent());
+        Files.createFile(part);
+
+        session = uploadSessionRepository.save(session);
+        log.info("📤 Upload session {} created for {} ({} bytes)", session.getId(), userEmail, session.getTotalSize());
+        return convertToResponse(session);
+    }
+
+    public UploadSessionResponse getProgress(String uploadId, String userEmail) {
+        return convertToResponse(getOwnedSession(uploadId, userEmail));
+    }
+
+    /**
+     * Appends the request body at the given offset, which must equal the bytes received so far.
+     * Bytes that arrived before a dropped connection are kept, so the client resumes from getProgress.
+     * Runs outside a transaction so no connection is held while reading from the network.
+     */
+    public UploadSessionResponse writeChunk(String uploadId, String userEmail, long offset, InputStream body) throws IOException {
+        ReentrantLock lock = lockOwnedSession(uploadId, userEmail);
+        try {
+            // Read again under the lock, the previous chunk may have moved the offset
+            UploadSession session = getOwnedSession(uploadId, userEmail);
+            if (offset != session.getReceivedBytes()) {
+                throw new RuntimeException("Offset mismatch, expected " + session.getReceivedBytes());
+            }
+
+            long remaining = session.getTotalSize() - offset;
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(partFile(uploadId), StandardOpenOption.WRITE)) {
+                // Drop any tail left by a chunk that failed before its progress was recorded
+                channel.truncate(offset);
+                channel.position(offset);
+
+                ReadableByteChannel source = Channels.newChannel(body);
+                ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+                int read;
+                while ((read = source.read(buffer)) != -1) {
+                    if (written + read > remaining) {
+                        throw new RuntimeException("Chunk exceeds declared upload size");
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                    written += read;
+                }
+            } finally {
+                if (written > 0) {
+                    uploadSessionRepository.advance(uploadId, offset, offset + written, nextExpiry());
+                }
+            }
+
+            session.setReceivedBytes(offset + written);
+            return convertToResponse(session);
+        } finally {
+            unlockSession(uploadId, lock);
+        }
+    }
+
+    @Transactional
+    public FileResponse completeSession(String uploadId, String userEmail) throws IOException {
+        ReentrantLock lock = lockOwnedSession(uploadId, userEmail);
+        try {
+            UploadSession session = getOwnedSession(uploadId, userEmail);
+            if (!session.getReceivedBytes().equals(session.getTotalSize())) {
+                throw new RuntimeException("Upload is incomplete: " + session.getReceivedBytes()
+                        + " of " + session.getTotalSize() + " bytes received");
+            }
+
+            // Release the reservation first so the final quota check only counts real usage
+            uploadSessionRepository.delete(session);
+            uploadSessionRepository.flush();
+
+            Path part = partFile(uploadId);
+            FileResponse response;
+            try (InputStream in = Files.newInputStream(part)) {
+                response = fileService.uploadStream(userEmail, in, session.getFileName(), session.getFileType(),
+                        session.getTotalSize(), session.getDescription(), null);
+            }
+
+            deletePartAfterCommit(uploadId);
+            log.info("✅ Upload session {} completed as file {}", uploadId, response.getId());
+            return response;
+        } finally {
+            // Removed after commit; a rollback keeps the session, and with it the lock
+            lock.unlock();
+        }
+    }
+
+    @Transactional
+    public void cancelSession(String uploadId, String userEmail) {
+        UploadSession session = getOwnedSession(uploadId, userEmail);
+        uploadSessionRepository.delete(session);
+        deletePartAfterCommit(uploadId);
+    }
+
+    /**
+     * Drops every session of a user about to be deleted, open or expired but not yet swept.
+     * Part files go once the deleting transaction commits.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void deleteSessionsOfUser(User user) {
+        List<UploadSession> sessions = uploadSessionRepository.findByUser(user);
+        uploadSessionRepository.deleteAll(sessions);
+        sessions.forEach(session -> deletePartAfterCommit(session.getId()));
+    }
+
+    @Scheduled(fixedDelayString = "${file.upload.session-sweep-interval-ms:900000}")
+    public void sweepExpiredSessions() {
+        List<UploadSession> expired = uploadSessionRepository.findByExpiresAtBefore(LocalDateTime.now());
+        int swept = 0;
+        for (UploadSession session : expired) {
+            ReentrantLock lock = sessionLocks.computeIfAbsent(session.getId(), id -> new ReentrantLock());
+            // A chunk is still being written, the next run will catch it if it stays idle
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                uploadSessionRepository.delete(session);
+                Files.deleteIfExists(partFile(session.getId()));
+                swept++;
+            } catch (IOException | RuntimeException e) {
+                log.error("❌ Failed to sweep upload session {}: {}", session.getId(), e.getMessage());
+            } finally {
+                lock.unlock();
+                sessionLocks.remove(session.getId());
+            }
+        }
+        if (swept > 0) {
+            log.info("🧹 Swept {} expired upload sessions", swept);
+        }
+    }
+
+    /**
+     * Part files without a session row, left when the process died between deleting the row and
+     * the file. Files written after the cutoff are kept, their session may not be committed yet.
+     *
+     * @return bytes freed, or that would be freed on a dry run
+     */
+    public long purgeOrphanedParts(Instant olderThan, boolean dryRun) throws IOException {
+        Path dir = Paths.get(sessionDir).toAbsolutePath().normalize();
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long bytes = 0;
+        try (Stream<Path> parts = Files.list(dir)) {
+            for (Path part : (Iterable<Path>) parts::iterator) {
+                String name = part.getFileName().toString();
+                if (!name.endsWith(".part")) {
+                    continue;
+                }
+                String uploadId = name.substring(0, name.length() - ".part".length());
+                BasicFileAttributes attributes = Files.readAttributes(part, BasicFileAttributes.class);
+                if (attributes.lastModifiedTime().toInstant().isAfter(olderThan)
+                        || uploadSessionRepository.existsById(uploadId)) {
+                    continue;
+                }
+                if (dryRun || Files.deleteIfExists(part)) {
+                    bytes += attributes.size();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private UploadSession getOwnedSession(String uploadId, String userEmail) {
+        UploadSession session = uploadSessionRepository.findByIdAndUserEmail(uploadId, userEmail)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+        if (session.getExpiresAt().isBefore(LocalDateTime.now())) {
+            throw new RuntimeException("Upload session has expired");
+        }
+        return session;
+    }
+
+    /**
+     * Authorizes before a lock exists, so unknown or foreign upload ids never add map entries;
+     * only sessions that really exist get one.
+     */
+    private ReentrantLock lockOwnedSession(String uploadId, String userEmail) {
+        getOwnedSession(uploadId, userEmail);
+        ReentrantLock lock = sessionLocks.computeIfAbsent(uploadId, id -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new RuntimeException("Upload session is busy");
+        }
+        return lock;
+    }
+
+    // A session completed, cancelled or swept while this call waited must not leave its lock behind
+    private void unlockSession(String uploadId, ReentrantLock lock) {
+        lock.unlock();
+        if (!uploadSessionRepository.existsById(uploadId)) {
+            sessionLocks.remove(uploadId, lock);
+        }
+    }
+
+    private void deletePartAfterCommit(String uploadId) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                sessionLocks.remove(uploadId);
+                try {
+                    Files.deleteIfExists(partFile(uploadId));
+                } catch (IOException e) {
+                    log.warn("⚠️ Failed to delete upload part {}: {}", uploadId, e.getMessage());
+                }
+            }
+        });
+    }
+
+    private Path partFile(String uploadId) {
+        // Ids are server-generated UUIDs, reject anything else before touching the filesystem
+        UUID.fromString(uploadId);
+        return Paths.get(sessionDir).toAbsolutePath().normalize().resolve(uploadId + ".part");
+    }
+
+    private LocalDateTime nextExpiry() {
+        return LocalDateTime.now().plusNanos(sessionTtlMs * 1_000_000L);
+    }
+
+    private UploadSessionResponse convertToResponse(UploadSession session) {
+        return UploadSessionResponse.builder()
+                .uploadId(session.getId())
+                .fileName(session.getFileName())
+                .totalSize(session.getTotalSize())
+                .receivedBytes(session.getReceivedBytes())
+                .expiresAt(session.getExpiresAt())
+                .build();
+    }
+}
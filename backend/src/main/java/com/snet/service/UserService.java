@@ -1,6 +1,7 @@
 package com.snet.service;
 
 import com.snet.dto.UserResponse;
+import com.snet.model.RenditionSource;
 import com.snet.model.User;
 import com.snet.model.UserStatus;
 import com.snet.repository.UserRepository;
@@ -26,11 +27,16 @@ public class UserService {
     
     private final UserRepository userRepository;
     private final EntityManager entityManager;
+    private final RenditionService renditionService;
+    private final ImageCache imageCache;
     private FileService fileService;
     
-    public UserService(UserRepository userRepository, EntityManager entityManager) {
+    public UserService(UserRepository userRepository, EntityManager entityManager,
+                       RenditionService renditionService, ImageCache imageCache) {
         this.userRepository = userRepository;
         this.entityManager = entityManager;
+        this.renditionService = renditionService;
+        this.imageCache = imageCache;
     }
     
     // Setter injection to avoid circular dependency
@@ -64,6 +70,8 @@ public class UserService {
         
         if (avatar != null && !avatar.isEmpty()) {
             user.setAvatar(avatar.getBytes());
+            user.setAvatarUpdatedAt(LocalDateTime.now());
+            renditionService.invalidate(RenditionSource.USER_AVATAR, user.getId());
         }
         
         userRepository.save(user);
@@ -99,6 +107,8 @@ public class UserService {
                 }
             }
             user.setAvatar(avatarBytes);
+            user.setAvatarUpdatedAt(LocalDateTime.now());
+            renditionService.invalidate(RenditionSource.USER_AVATAR, user.getId());
             System.out.println("✅ Updated avatar: " + avatarBytes.length + " bytes");
         }
         
@@ -114,6 +124,8 @@ public class UserService {
                 }
             }
             user.setCoverPhoto(coverBytes);
+            user.setCoverPhotoUpdatedAt(LocalDateTime.now());
+            renditionService.invalidate(RenditionSource.USER_COVER, user.getId());
             System.out.println("✅ Updated cover photo: " + coverBytes.length + " bytes");
         } else {
             System.out.println("⚠️ No cover photo in request");
@@ -157,6 +169,29 @@ public class UserService {
     
     public byte[] getUserCoverPhoto(Long userId, String size) {
         System.out.println("🔍 Fetching cover photo for user ID: " + userId + " with size: " + size);
+        
+        String version = RenditionService.sourceVersion(userRepository.findCoverPhotoUpdatedAt(userId));
+        
+        // Return original for full size
+        if ("full".equals(size)) {
+            try {
+                return imageCache.get(RenditionSource.USER_COVER, userId, "full", version, () -> loadCoverPhoto(userId));
+            } catch (IOException e) {
+                return loadCoverPhoto(userId);
+            }
+        }
+        
+        // Stored rendition, the original is only loaded the first time
+        try {
+            return renditionService.getRendition(RenditionSource.USER_COVER, userId, version, size, null,
+                    () -> loadCoverPhoto(userId));
+        } catch (IOException e) {
+            System.err.println("❌ Error resizing cover: " + e.getMessage());
+            return loadCoverPhoto(userId); // Fallback to original
+        }
+    }
+    
+    private byte[] loadCoverPhoto(Long userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         byte[] coverPhoto = user.getCoverPhoto();
@@ -167,24 +202,6 @@ public class UserService {
         }
         
         System.out.println("✅ Cover photo found: " + coverPhoto.length + " bytes");
-        
-        // Return original for full size
-        if ("full".equals(size)) {
-            return coverPhoto;
-        }
-        
-        // Resize cover photo for medium/small
-        if (fileService != null) {
-            try {
-                byte[] resized = fileService.resizeImage(coverPhoto, size);
-                System.out.println("✅ Resized cover from " + coverPhoto.length + " to " + resized.length + " bytes");
-                return resized;
-            } catch (Exception e) {
-                System.err.println("❌ Error resizing cover: " + e.getMessage());
-                return coverPhoto; // Fallback to original
-            }
-        }
-        
         return coverPhoto;
     }
     
@@ -246,6 +263,52 @@ public class UserService {
     
     public byte[] getUserAvatar(Long userId, String size) {
         System.out.println("🔍 Fetching avatar for user ID: " + userId + " with size: " + size);
+        
+        String version = RenditionService.sourceVersion(userRepository.findAvatarUpdatedAt(userId));
+        
+        // Return original for full size
+        if ("full".equals(size)) {
+            try {
+                return imageCache.get(RenditionSource.USER_AVATAR, userId, "full", version, () -> loadAvatar(userId));
+            } catch (IOException e) {
+                return loadAvatar(userId);
+            }
+        }
+        
+        // Stored rendition, the original is only loaded the first time
+        try {
+            return renditionService.getRendition(RenditionSource.USER_AVATAR, userId, version, size, null,
+                    () -> loadAvatar(userId));
+        } catch (IOException e) {
+            System.err.println("❌ Error resizing avatar: " + e.getMessage());
+            return loadAvatar(userId); // Fallback to original
+        }
+    }
+    
+    /**
+     * Placeholder served for users without an avatar: their initial on the brand color.
+     */
+    public static String defaultAvatarSvg(String displayName) {
+        String initial = displayName != null && !displayName.isEmpty() ? displayName.substring(0, 1).toUpperCase() : "?";
+        return String.format(
+            "<svg xmlns='http://www.w3.org/2000/svg' viewBox='0 0 200 200'>" +
+            "<rect fill='#6366f1' width='200' height='200'/>" +
+            "<text x='100' y='120' font-size='80' fill='white' text-anchor='middle' font-family='Arial' font-weight='bold'>%s</text>" +
+            "</svg>", initial
+        );
+    }
+    
+    public LocalDateTime getAvatarVersion(Long userId) {
+        return userRepository.findAvatarVersion(userId)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+    
+    public LocalDateTime getCoverPhotoVersion(Long userId) {
+        return userRepository.findCoverPhotoVersion(userId)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+    
+    private byte[] loadAvatar(Long userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         byte[] avatar = user.getAvatar();
@@ -256,25 +319,6 @@ public class UserService {
         }
         
         System.out.println("✅ Avatar found: " + avatar.length + " bytes");
-        
-        // Return original for full size
-        if ("full".equals(size)) {
-            return avatar;
-        }
-        
-        // Use FileService resize logic which includes auto-rotation
-        if (fileService != null) {
-            try {
-                byte[] resized = fileService.resizeImage(avatar, size);
-                System.out.println("✅ Resized avatar from " + avatar.length + " to " + resized.length + " bytes");
-                return resized;
-            } catch (Exception e) {
-                System.err.println("❌ Error resizing avatar: " + e.getMessage());
-                return avatar; // Fallback to original
-            }
-        }
-        
-        // Fallback if FileService not available
         return avatar;
     }
     
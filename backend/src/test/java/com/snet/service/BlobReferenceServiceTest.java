@@ -0,0 +1,158 @@
+package com.snet.service;
+
+import com.snet.repository.BlobReferenceRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BlobReferenceServiceTest {
+
+    private static final byte[] CONTENT = "identical content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    // blob_references.ref_count by key, what the repository queries would leave in the table
+    private final Map<String, Integer> refCounts = new ConcurrentHashMap<>();
+    private BlobClaims claims;
+    private LocalBlobStore store;
+    private BlobReferenceService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        BlobReferenceRepository repository = mock(BlobReferenceRepository.class);
+        when(repository.acquire(anyString(), anyLong(), anyLong())).thenAnswer(call -> {
+            refCounts.merge(call.getArgument(0), 1, Integer::sum);
+            return 1;
+        });
+        when(repository.release(anyString())).thenAnswer(call -> {
+            refCounts.computeIfPresent(call.getArgument(0), (key, count) -> count - 1);
+            return 1;
+        });
+        when(repository.deleteIfUnreferenced(anyString())).thenAnswer(call -> {
+            String key = call.getArgument(0);
+            return refCounts.remove(key, 0) ? 1 : 0;
+        });
+        when(repository.existsById(anyString())).thenAnswer(call -> refCounts.containsKey(call.<String>getArgument(0)));
+
+        claims = new BlobClaims(3_600_000);
+        store = new LocalBlobStore(claims, dir.resolve("blobs").toString(), dir.resolve("archive").toString(), 8192);
+        service = new BlobReferenceService(repository, store, claims, mock(PlatformTransactionManager.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void reuploadBetweenPutAndAcquireKeepsPayloadWhoseLastReferenceWasDropped() throws Exception {
+        BlobStore.StoredBlob first = store.put(new ByteArrayInputStream(CONTENT), BlobStore.keyOf(CONTENT));
+        inTransaction(() -> service.acquire(first));
+
+        // The duplicate upload finds the payload and skips writing it, its reference comes later
+        BlobStore.StoredBlob second = store.put(new ByteArrayInputStream(CONTENT), BlobStore.keyOf(CONTENT));
+
+        // Meanwhile the only file using the payload is deleted
+        inTransaction(() -> service.release(first.key()));
+        assertTrue(store.exists(second.key()), "payload claimed by the pending upload was deleted");
+
+        inTransaction(() -> service.acquire(second));
+        assertEquals(1, refCounts.get(second.key()));
+        assertTrue(store.exists(second.key()));
+
+        // Once the new file is deleted too the payload goes
+        inTransaction(() -> service.release(second.key()));
+        assertFalse(store.exists(second.key()));
+        assertFalse(refCounts.containsKey(second.key()));
+    }
+
+    @Test
+    void discardedUploadOfReferencedContentKeepsPayload() throws Exception {
+        BlobStore.StoredBlob first = store.put(new ByteArrayInputStream(CONTENT), BlobStore.keyOf(CONTENT));
+        inTransaction(() -> service.acquire(first));
+
+        BlobStore.StoredBlob rejected = store.put(new ByteArrayInputStream(CONTENT), null);
+        service.discardIfUnreferenced(rejected.key());
+
+        assertTrue(store.exists(first.key()));
+    }
+
+    @Test
+    void concurrentDeleteAndReuploadNeverLoseAReferencedPayload() throws Exception {
+        String key = BlobStore.keyOf(CONTENT);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        BlobStore.StoredBlob blob = store.put(new ByteArrayInputStream(CONTENT), key);
+                        inTransaction(() -> service.acquire(blob));
+                        // Referenced and committed: the payload must be readable
+                        assertTrue(store.exists(key), "referenced payload was deleted");
+                        inTransaction(() -> service.release(key));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs work with transaction synchronization active, then fires afterCommit and
+     * afterCompletion the way a committing transaction manager does.
+     */
+    private static void inTransaction(ThrowingRunnable work) throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        List<TransactionSynchronization> synchronizations;
+        try {
+            work.run();
+        } finally {
+            synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    }
+
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,176 @@
+package com.snet.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCompressionTest {
+
+    private static final int BLOCK = BlockCompression.BLOCK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsMultipleBlocksAndAPartialLastBlock() throws IOException {
+        byte[] content = text(3 * BLOCK + BLOCK / 2);
+        Path path = compress(content);
+
+        assertTrue(Files.size(path) < content.length / 2, "text did not compress");
+        assertEquals(content.length, BlockCompression.logicalSize(path));
+        try (InputStream in = BlockCompression.open(path)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void roundTripsBlocksStoredRaw() throws IOException {
+        // Random bytes do not shrink and are stored as is, next to deflated text blocks
+        byte[] content = concat(random(BLOCK + 100), text(BLOCK), random(300));
+        Path path = compress(content);
+
+        try (InputStream in = BlockCompression.open(path)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void roundTripsEmptyContent() throws IOException {
+        Path path = compress(new byte[0]);
+
+        assertEquals(0, BlockCompression.logicalSize(path));
+        try (InputStream in = BlockCompression.open(path)) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void skipSeeksToAnyPosition() throws IOException {
+        byte[] content = concat(text(2 * BLOCK), random(BLOCK), text(BLOCK / 3));
+        Path path = compress(content);
+
+        long[] positions = {0, 1, BLOCK - 1, BLOCK, BLOCK + 17, 2 * BLOCK + 5, 3 * BLOCK, content.length - 1};
+        for (long position : positions) {
+            try (InputStream in = BlockCompression.open(path)) {
+                assertEquals(position, in.skip(position));
+                byte[] read = in.readNBytes(BLOCK + 10);
+                int end = (int) Math.min(content.length, position + BLOCK + 10);
+                assertArrayEquals(Arrays.copyOfRange(content, (int) position, end), read, "at " + position);
+            }
+        }
+    }
+
+    @Test
+    void skipAfterReadingWithinAndAcrossBlocks() throws IOException {
+        byte[] content = text(4 * BLOCK);
+        Path path = compress(content);
+
+        try (InputStream in = BlockCompression.open(path)) {
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 10), in.readNBytes(10));
+            in.skip(100);
+            assertArrayEquals(Arrays.copyOfRange(content, 110, 120), in.readNBytes(10));
+            in.skip(2L * BLOCK);
+            int at = 120 + 2 * BLOCK;
+            assertArrayEquals(Arrays.copyOfRange(content, at, at + 10), in.readNBytes(10));
+        }
+    }
+
+    @Test
+    void skipStopsAtTheEnd() throws IOException {
+        byte[] content = text(BLOCK + 50);
+        Path path = compress(content);
+
+        try (InputStream in = BlockCompression.open(path)) {
+            assertEquals(content.length, in.skip(10L * BLOCK));
+            assertEquals(0, in.skip(1));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void skippedBlocksAreNeverInflated() throws IOException {
+        byte[] content = text(3 * BLOCK);
+        Path path = compress(content);
+        // Block 0 starts the file; 0xFF opens a deflate block of the reserved type, which cannot inflate
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.write(0xFF);
+        }
+
+        try (InputStream in = BlockCompression.open(path)) {
+            assertThrows(IOException.class, in::read);
+        }
+        try (InputStream in = BlockCompression.open(path)) {
+            in.skip(BLOCK);
+            assertArrayEquals(Arrays.copyOfRange(content, BLOCK, 3 * BLOCK), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void rejectsFilesWithoutTrailer() throws IOException {
+        Path path = dir.resolve("plain");
+        Files.write(path, text(1000));
+
+        assertThrows(IOException.class, () -> BlockCompression.open(path));
+    }
+
+    @Test
+    void probeAcceptsTextAndRejectsIncompressibleOrTinySamples() {
+        byte[] text = text(BlockCompression.PROBE_SIZE);
+        byte[] random = random(BlockCompression.PROBE_SIZE);
+
+        assertTrue(BlockCompression.isCompressible(text, text.length));
+        assertFalse(BlockCompression.isCompressible(random, random.length));
+        assertFalse(BlockCompression.isCompressible(text, 100));
+    }
+
+    private Path compress(byte[] content) throws IOException {
+        Path path = Files.createTempFile(dir, "blob", ".z");
+        try (OutputStream out = BlockCompression.newWriter(Files.newOutputStream(path))) {
+            // Uneven writes so blocks are filled across calls
+            for (int off = 0; off < content.length; off += 10_000) {
+                out.write(content, off, Math.min(10_000, content.length - off));
+            }
+        }
+        return path;
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int line = 0; text.length() < length; line++) {
+            text.append("line ").append(line).append(": the quick brown fox jumps over the lazy dog\n");
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), length);
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = Arrays.stream(parts).mapToInt(part -> part.length).sum();
+        byte[] joined = new byte[length];
+        int off = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, off, part.length);
+            off += part.length;
+        }
+        return joined;
+    }
+}
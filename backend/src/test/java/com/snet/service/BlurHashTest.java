@@ -0,0 +1,152 @@
+package com.snet.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlurHashTest {
+
+    private static final String BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    @Test
+    void lengthAndSizeFlagFollowTheComponentCounts() {
+        BufferedImage image = solid(32, 24, Color.GRAY);
+
+        for (int[] components : new int[][]{{1, 1}, {4, 3}, {9, 9}}) {
+            String hash = BlurHash.encode(image, components[0], components[1]);
+
+            assertEquals(6 + 2 * (components[0] * components[1] - 1), hash.length(), hash);
+            assertEquals((components[0] - 1) + (components[1] - 1) * 9, decode83(hash, 0, 1));
+        }
+    }
+
+    @Test
+    void averageColorIsEncodedExactly() {
+        String hash = BlurHash.encode(solid(32, 24, new Color(0x20, 0x80, 0xC0)), 4, 3);
+
+        // The DC component survives the sRGB to linear round trip without loss
+        assertEquals(0x2080C0, decode83(hash, 2, 6));
+    }
+
+    @Test
+    void transposedImageHasTransposedComponents() {
+        BufferedImage image = edge(32, 32);
+        BufferedImage transposed = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                transposed.setRGB(y, x, image.getRGB(x, y));
+            }
+        }
+
+        String hash = BlurHash.encode(image, 3, 2);
+        String transposedHash = BlurHash.encode(transposed, 2, 3);
+
+        assertEquals(hash.substring(1, 6), transposedHash.substring(1, 6));
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < 3; i++) {
+                if (i + j > 0) {
+                    assertEquals(component(hash, j * 3 + i), component(transposedHash, i * 2 + j), "(" + i + "," + j + ")");
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodedPlaceholderKeepsTheLayout() {
+        // Black on the left, white on the right
+        String hash = BlurHash.encode(edge(32, 32), 4, 3);
+
+        int[][] decoded = decode(hash, 32, 32);
+
+        int left = 0;
+        int right = 0;
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 8; x++) {
+                left += decoded[y][x];
+                right += decoded[y][31 - x];
+            }
+        }
+        assertTrue(left / 256 < 80, "left side decodes too bright: " + left / 256);
+        assertTrue(right / 256 > 175, "right side decodes too dark: " + right / 256);
+    }
+
+    private static BufferedImage solid(int width, int height, Color color) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage edge(int width, int height) {
+        BufferedImage image = solid(width, height, Color.BLACK);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(width / 2, 0, width - width / 2, height);
+        g.dispose();
+        return image;
+    }
+
+    private static int component(String hash, int index) {
+        int at = 6 + 2 * (index - 1);
+        return decode83(hash, at, at + 2);
+    }
+
+    /**
+     * Reference decoder, red channel only: enough to compare the placeholder's brightness by region.
+     */
+    private static int[][] decode(String hash, int width, int height) {
+        int size = decode83(hash, 0, 1);
+        int componentsX = size % 9 + 1;
+        int componentsY = size / 9 + 1;
+        double maximumValue = (decode83(hash, 1, 2) + 1) / 166.0;
+
+        double[] red = new double[componentsX * componentsY];
+        red[0] = srgbToLinear(decode83(hash, 2, 6) >> 16);
+        for (int k = 1; k < red.length; k++) {
+            double quantised = component(hash, k) / (19 * 19);
+            double normalised = (quantised - 9) / 9;
+            red[k] = Math.copySign(normalised * normalised, normalised) * maximumValue;
+        }
+
+        int[][] pixels = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double value = 0;
+                for (int j = 0; j < componentsY; j++) {
+                    for (int i = 0; i < componentsX; i++) {
+                        value += red[j * componentsX + i]
+                                * Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height);
+                    }
+                }
+                pixels[y][x] = linearToSrgb(value);
+            }
+        }
+        return pixels;
+    }
+
+    private static double srgbToLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int linearToSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308 ? (int) (v * 12.92 * 255 + 0.5) : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static int decode83(String hash, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 83 + BASE83.indexOf(hash.charAt(i));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,154 @@
+package com.snet.service;
+
+import com.snet.model.FileMetadata;
+import com.snet.model.User;
+import com.snet.model.UserRole;
+import com.snet.repository.MessageRepository;
+import com.snet.repository.PostRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileAccessServiceTest {
+
+    private final User owner = user(1L, UserRole.USER);
+    private final User viewer = user(2L, UserRole.USER);
+    private final FileMetadata file = FileMetadata.builder().id(10L).user(owner).build();
+
+    private PostRepository postRepository;
+    private MessageRepository messageRepository;
+    private FileAccessService service;
+
+    @BeforeEach
+    void setUp() {
+        postRepository = mock(PostRepository.class);
+        messageRepository = mock(MessageRepository.class);
+        service = new FileAccessService(postRepository, messageRepository, 60_000, 1_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void ownerAndAdminNeverQueryTheDatabase() {
+        assertTrue(service.canAccess(file, owner));
+        assertTrue(service.canAccess(file, user(3L, UserRole.ADMIN)));
+
+        verify(postRepository, never()).existsPostWithFileVisibleTo(any(), any());
+    }
+
+    @Test
+    void decisionIsCachedPerViewerAndFile() {
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(true);
+
+        assertTrue(service.canAccess(file, viewer));
+        assertTrue(service.canAccess(file, viewer));
+
+        verify(postRepository, times(1)).existsPostWithFileVisibleTo(eq(10L), any());
+    }
+
+    @Test
+    void invalidateFileRevokesACachedGrant() {
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(true);
+        assertTrue(service.canAccess(file, viewer));
+
+        // The post attaching the file is deleted
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(false);
+        service.invalidateFile(10L);
+
+        assertFalse(service.canAccess(file, viewer));
+    }
+
+    @Test
+    void invalidateViewerRevokesOnlyThatViewersGrants() {
+        User other = user(4L, UserRole.USER);
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(true);
+        assertTrue(service.canAccess(file, viewer));
+        assertTrue(service.canAccess(file, other));
+
+        // viewer unfriends the owner
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), eq(viewer))).thenReturn(false);
+        service.invalidateViewer(viewer.getId());
+
+        assertFalse(service.canAccess(file, viewer));
+        assertTrue(service.canAccess(file, other));
+        verify(postRepository, times(1)).existsPostWithFileVisibleTo(eq(10L), eq(other));
+    }
+
+    @Test
+    void invalidateAllRevokesEveryGrant() {
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(true);
+        assertTrue(service.canAccess(file, viewer));
+
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(false);
+        service.invalidateAll();
+
+        assertFalse(service.canAccess(file, viewer));
+    }
+
+    @Test
+    void decisionCachedWhileTheRevokingTransactionRunsIsDroppedOnCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(true);
+        service.invalidateFile(10L);
+
+        // A concurrent request still sees the uncommitted state and caches the old grant
+        assertTrue(service.canAccess(file, viewer));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(false);
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+
+        assertFalse(service.canAccess(file, viewer));
+    }
+
+    @Test
+    void batchUsesCachedDecisionsAndResolvesTheRestInBulk() {
+        FileMetadata cached = file;
+        FileMetadata viaPost = FileMetadata.builder().id(11L).user(owner).build();
+        FileMetadata viaMessage = FileMetadata.builder().id(12L).user(owner).build();
+        FileMetadata hidden = FileMetadata.builder().id(13L).user(owner).build();
+        when(postRepository.existsPostWithFileVisibleTo(eq(10L), any())).thenReturn(true);
+        assertTrue(service.canAccess(cached, viewer));
+        when(postRepository.findFileIdsInPostsVisibleTo(anyCollection(), any())).thenReturn(List.of(11L));
+        when(messageRepository.findFileIdsInMessagesVisibleTo(anyCollection(), any())).thenReturn(List.of(12L));
+
+        Set<Long> accessible = service.accessibleFileIds(List.of(cached, viaPost, viaMessage, hidden), viewer);
+
+        assertEquals(Set.of(10L, 11L, 12L), accessible);
+        // The batch decisions are cached like single ones
+        assertFalse(service.canAccess(hidden, viewer));
+        assertTrue(service.canAccess(viaMessage, viewer));
+        verify(postRepository, never()).existsPostWithFileVisibleTo(eq(13L), any());
+        verify(messageRepository, never()).existsMessageWithFileVisibleTo(eq(12L), any());
+    }
+
+    private static User user(Long id, UserRole role) {
+        User user = new User();
+        user.setId(id);
+        user.setRole(role);
+        return user;
+    }
+}
@@ -0,0 +1,112 @@
+package com.snet.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageDownscalerTest {
+
+    private static final int SOURCE_WIDTH = 4000;
+    private static final int SOURCE_HEIGHT = 3000;
+    // What a full-resolution decode into a 3-byte raster would allocate
+    private static final long FULL_RASTER_BYTES = (long) SOURCE_WIDTH * SOURCE_HEIGHT * 3;
+
+    private static byte[] largeJpeg;
+
+    @BeforeAll
+    static void encodeLargeJpeg() throws IOException {
+        BufferedImage image = new BufferedImage(SOURCE_WIDTH, SOURCE_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.ORANGE, SOURCE_WIDTH, SOURCE_HEIGHT, Color.BLUE));
+        g.fillRect(0, 0, SOURCE_WIDTH, SOURCE_HEIGHT);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        largeJpeg = out.toByteArray();
+    }
+
+    @Test
+    void decodeSubsamplesToTwiceTheTarget() throws IOException {
+        ImageDownscaler.Decoded decoded = ImageDownscaler.decode(largeJpeg, new int[]{400, 400});
+
+        assertEquals(SOURCE_WIDTH, decoded.sourceWidth());
+        assertEquals(SOURCE_HEIGHT, decoded.sourceHeight());
+        // 4000x3000 into 400x300 keeps 2x the target: every 5th pixel
+        assertEquals(800, decoded.image().getWidth());
+        assertEquals(600, decoded.image().getHeight());
+    }
+
+    @Test
+    void decodeSubsamplesOnlyAsFarAsTheLargestBoxAllows() throws IOException {
+        ImageDownscaler.Decoded decoded = ImageDownscaler.decode(largeJpeg,
+                new int[]{150, Integer.MAX_VALUE}, new int[]{800, 800});
+
+        // The 800 px box needs 1600x1200, so the factor is 2 rather than the 13 the thumbnail allows
+        assertEquals(2000, decoded.image().getWidth());
+        assertEquals(1500, decoded.image().getHeight());
+    }
+
+    @Test
+    void decodeNeverAllocatesTheFullResolutionRaster() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        BufferedImage thumbnail = ImageDownscaler.fit(largeJpeg, 400, 400);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(400, thumbnail.getWidth());
+        assertEquals(300, thumbnail.getHeight());
+        assertTrue(allocated < FULL_RASTER_BYTES / 4,
+                "decoding allocated " + allocated + " bytes, a full raster is " + FULL_RASTER_BYTES);
+    }
+
+    @Test
+    void streamDecodeMatchesTheInMemoryDecode() throws IOException {
+        int[] box = {400, 400};
+
+        ImageDownscaler.Decoded fromBytes = ImageDownscaler.decode(largeJpeg, box);
+        ImageDownscaler.Decoded fromStream = ImageDownscaler.decode(new ByteArrayInputStream(largeJpeg), box);
+
+        assertEquals(SOURCE_WIDTH, fromStream.sourceWidth());
+        assertEquals(SOURCE_HEIGHT, fromStream.sourceHeight());
+        assertEquals(fromBytes.image().getWidth(), fromStream.image().getWidth());
+        assertEquals(fromBytes.image().getHeight(), fromStream.image().getHeight());
+        assertEquals(fromBytes.image().getRGB(400, 300), fromStream.image().getRGB(400, 300));
+    }
+
+    @Test
+    void streamDecodeReturnsNullForDataNoReaderUnderstands() throws IOException {
+        assertNull(ImageDownscaler.decode(new ByteArrayInputStream("not an image".getBytes()), new int[]{400, 400}));
+    }
+
+    @Test
+    void fitNeverUpscales() throws IOException {
+        BufferedImage small = new BufferedImage(120, 80, BufferedImage.TYPE_3BYTE_BGR);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(small, "jpg", out);
+
+        BufferedImage fitted = ImageDownscaler.fit(out.toByteArray(), 400, 400);
+
+        assertEquals(120, fitted.getWidth());
+        assertEquals(80, fitted.getHeight());
+    }
+
+    @Test
+    void fitReturnsNullForDataNoReaderUnderstands() throws IOException {
+        assertNull(ImageDownscaler.fit("not an image".getBytes(), 400, 400));
+    }
+}
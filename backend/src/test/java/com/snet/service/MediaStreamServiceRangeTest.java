@@ -0,0 +1,200 @@
+package com.snet.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaStreamServiceRangeTest {
+
+    private static final String TYPE = "application/octet-stream";
+    private static final String ETAG = "abc123-preview";
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+    private static final byte[] DATA = new byte[1000];
+
+    static {
+        for (int i = 0; i < DATA.length; i++) {
+            DATA[i] = (byte) (i % 251);
+        }
+    }
+
+    private MediaStreamService service;
+
+    @BeforeEach
+    void setUp() {
+        // streamBytes never touches the file, bandwidth or tier services
+        service = new MediaStreamService(null, null, null);
+        ReflectionTestUtils.setField(service, "maxRangeParts", 4);
+    }
+
+    @Test
+    void overlappingAndNearbyRangesAreMergedIntoSortedParts() throws IOException {
+        // 0-9 and 5-19 overlap, 30-39 is within the merge gap; 300-309 and 200-209 are far apart
+        MockHttpServletResponse response = get("bytes=300-309,0-9,5-19,200-209,30-39", null, options());
+
+        assertEquals(206, response.getStatus());
+        String contentType = response.getContentType();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="), contentType);
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+        byte[] expected = multipart(boundary, new long[][]{{0, 39}, {200, 209}, {300, 309}});
+        assertArrayEquals(expected, response.getContentAsByteArray());
+        assertEquals(expected.length, response.getContentLengthLong());
+    }
+
+    @Test
+    void rangesMergedIntoOneAreASinglePart() throws IOException {
+        MockHttpServletResponse response = get("bytes=0-9,50-59", null, options());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-59/1000", response.getHeader("Content-Range"));
+        assertEquals(TYPE, response.getContentType());
+        assertArrayEquals(Arrays.copyOfRange(DATA, 0, 60), response.getContentAsByteArray());
+    }
+
+    @Test
+    void suffixRangeIsResolvedAgainstTheLength() throws IOException {
+        MockHttpServletResponse response = get("bytes=-100", null, options());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 900-999/1000", response.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(DATA, 900, 1000), response.getContentAsByteArray());
+    }
+
+    @Test
+    void suffixLongerThanTheContentCoversAllOfIt() throws IOException {
+        MockHttpServletResponse response = get("bytes=-5000", null, options());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-999/1000", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void suffixOverlappingAnEarlierRangeIsMerged() throws IOException {
+        MockHttpServletResponse response = get("bytes=950-959,-100", null, options());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 900-999/1000", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void unsatisfiableRangesAnswer416() throws IOException {
+        MockHttpServletResponse response = get("bytes=2000-3000", null, options());
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */1000", response.getHeader("Content-Range"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void tooManyPartsGetTheFullBody() throws IOException {
+        MockHttpServletResponse response = get("bytes=0-0,200-200,400-400,600-600,800-800", null, options());
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Content-Range"));
+        assertArrayEquals(DATA, response.getContentAsByteArray());
+    }
+
+    @Test
+    void malformedRangeIsIgnored() throws IOException {
+        MockHttpServletResponse response = get("bytes=abc", null, options());
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(DATA, response.getContentAsByteArray());
+    }
+
+    @Test
+    void openRangeIsCappedAtMaxOpenRangeLength() throws IOException {
+        MediaStreamService.Options capped = options().toBuilder().maxOpenRangeLength(100).build();
+
+        MockHttpServletResponse response = get("bytes=500-", null, capped);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 500-599/1000", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void ifRangeWithMatchingETagKeepsTheRange() throws IOException {
+        MockHttpServletResponse response = get("bytes=10-19", "\"" + ETAG + "\"", options());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/1000", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void ifRangeWithAnotherETagGetsTheFullBody() throws IOException {
+        MockHttpServletResponse response = get("bytes=10-19", "\"stale\"", options());
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(DATA, response.getContentAsByteArray());
+    }
+
+    @Test
+    void ifRangeWithWeakETagGetsTheFullBody() throws IOException {
+        // If-Range only accepts strong comparison
+        MockHttpServletResponse response = get("bytes=10-19", "W/\"" + ETAG + "\"", options());
+
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    void ifRangeWithLastModifiedDate() throws IOException {
+        MockHttpServletResponse current = get("bytes=10-19", httpDate(LAST_MODIFIED), options());
+        MockHttpServletResponse stale = get("bytes=10-19", httpDate(LAST_MODIFIED - 60_000), options());
+
+        assertEquals(206, current.getStatus());
+        assertEquals(200, stale.getStatus());
+    }
+
+    private MockHttpServletResponse get(String range, String ifRange, MediaStreamService.Options options)
+            throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/1/download");
+        request.addHeader("Range", range);
+        if (ifRange != null) {
+            request.addHeader("If-Range", ifRange);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.streamBytes(DATA, TYPE, request, response, options);
+        return response;
+    }
+
+    private static MediaStreamService.Options options() {
+        return MediaStreamService.Options.builder()
+                .eTag(ETAG)
+                .lastModified(LAST_MODIFIED)
+                .build();
+    }
+
+    private static byte[] multipart(String boundary, long[][] slices) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (long[] slice : slices) {
+            body.writeBytes(("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + TYPE + "\r\n"
+                    + "Content-Range: bytes " + slice[0] + "-" + slice[1] + "/" + DATA.length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            body.writeBytes(Arrays.copyOfRange(DATA, (int) slice[0], (int) slice[1] + 1));
+        }
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return body.toByteArray();
+    }
+
+    private static String httpDate(long epochMillis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC));
+    }
+}
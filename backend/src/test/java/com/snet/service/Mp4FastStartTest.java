@@ -0,0 +1,211 @@
+package com.snet.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Mp4FastStartTest {
+
+    private static final byte[] FTYP = box("ftyp", ascii("isom"), ints(0));
+    private static final byte[] SAMPLE_A = ascii("first chunk of samples");
+    private static final byte[] SAMPLE_B = ascii("second chunk");
+    private static final byte[] MDAT = box("mdat", SAMPLE_A, SAMPLE_B);
+    // Where the samples start in a file laid out ftyp, mdat, moov
+    private static final long CHUNK_A = FTYP.length + 8;
+    private static final long CHUNK_B = CHUNK_A + SAMPLE_A.length;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void movesMoovInFrontOfMdatAndShiftsStcoOffsets() throws IOException {
+        byte[] moov = moov(chunkOffsets("stco", CHUNK_A, CHUNK_B));
+        Path source = write("source.mp4", FTYP, MDAT, moov);
+        Path target = dir.resolve("target.mp4");
+
+        Mp4FastStart.Result result = Mp4FastStart.process(source, target);
+
+        assertTrue(result.rewritten());
+        byte[] out = Files.readAllBytes(target);
+        assertEquals(List.of("ftyp", "moov", "mdat"), topLevelTypes(out));
+        assertEquals(Files.size(source), out.length);
+        long[] offsets = readChunkOffsets(out, "stco");
+        assertArrayEquals(new long[]{CHUNK_A + moov.length, CHUNK_B + moov.length}, offsets);
+        assertArrayEquals(SAMPLE_A, Arrays.copyOfRange(out, (int) offsets[0], (int) offsets[0] + SAMPLE_A.length));
+        assertArrayEquals(SAMPLE_B, Arrays.copyOfRange(out, (int) offsets[1], (int) offsets[1] + SAMPLE_B.length));
+    }
+
+    @Test
+    void shiftsCo64Offsets() throws IOException {
+        byte[] moov = moov(chunkOffsets("co64", CHUNK_A, CHUNK_B));
+        Path source = write("source.mp4", FTYP, MDAT, moov);
+        Path target = dir.resolve("target.mp4");
+
+        assertTrue(Mp4FastStart.process(source, target).rewritten());
+
+        byte[] out = Files.readAllBytes(target);
+        long[] offsets = readChunkOffsets(out, "co64");
+        assertArrayEquals(new long[]{CHUNK_A + moov.length, CHUNK_B + moov.length}, offsets);
+        assertArrayEquals(SAMPLE_B, Arrays.copyOfRange(out, (int) offsets[1], (int) offsets[1] + SAMPLE_B.length));
+    }
+
+    @Test
+    void fixesSizeZeroMoovWhenMovingIt() throws IOException {
+        byte[] moov = moov(chunkOffsets("stco", CHUNK_A, CHUNK_B));
+        byte[] toEndOfFile = moov.clone();
+        ByteBuffer.wrap(toEndOfFile).putInt(0, 0);
+        Path source = write("source.mp4", FTYP, MDAT, toEndOfFile);
+        Path target = dir.resolve("target.mp4");
+
+        assertTrue(Mp4FastStart.process(source, target).rewritten());
+
+        byte[] out = Files.readAllBytes(target);
+        // No longer the last box, so it needs its real size for mdat to be found
+        assertEquals(moov.length, ByteBuffer.wrap(out).getInt(FTYP.length));
+        assertEquals(List.of("ftyp", "moov", "mdat"), topLevelTypes(out));
+        assertArrayEquals(new long[]{CHUNK_A + moov.length, CHUNK_B + moov.length}, readChunkOffsets(out, "stco"));
+    }
+
+    @Test
+    void leavesFastStartFileAlone() throws IOException {
+        byte[] moov = moov(chunkOffsets("stco", CHUNK_A, CHUNK_B));
+        Path source = write("source.mp4", FTYP, moov, MDAT);
+        Path target = dir.resolve("target.mp4");
+
+        Mp4FastStart.Result result = Mp4FastStart.process(source, target);
+
+        assertFalse(result.rewritten());
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void readsMetadataFromMoov() throws IOException {
+        Path source = write("source.mp4", FTYP, MDAT, moov(chunkOffsets("stco", CHUNK_A, CHUNK_B)));
+
+        Mp4FastStart.Result result = Mp4FastStart.process(source, dir.resolve("target.mp4"));
+
+        assertEquals(5000L, result.durationMs());
+        assertEquals(1920, result.width());
+        assertEquals(1080, result.height());
+        assertEquals("avc1", result.codec());
+    }
+
+    @Test
+    void rejectsFilesWithoutFtyp() throws IOException {
+        Path source = write("source.mp4", MDAT);
+
+        assertThrows(IOException.class, () -> Mp4FastStart.process(source, dir.resolve("target.mp4")));
+    }
+
+    private Path write(String name, byte[]... boxes) throws IOException {
+        Path path = dir.resolve(name);
+        Files.write(path, concat(boxes));
+        return path;
+    }
+
+    /**
+     * A one-track moov: 5 s at timescale 1000, 1920x1080 avc1 video with the given chunk offset table.
+     */
+    private static byte[] moov(byte[] chunkOffsetTable) {
+        byte[] mvhd = box("mvhd", ints(0, 0, 0, 1000, 5000));
+        ByteBuffer tkhd = ByteBuffer.allocate(84);
+        // Identity display matrix at 40, 16.16 fixed point dimensions at 76
+        tkhd.putInt(40, 0x00010000).putInt(56, 0x00010000).putInt(72, 0x40000000);
+        tkhd.putInt(76, 1920 << 16).putInt(80, 1080 << 16);
+        byte[] hdlr = box("hdlr", ints(0, 0), ascii("vide"), ints(0, 0, 0));
+        byte[] stsd = box("stsd", ints(0, 1, 8), ascii("avc1"));
+        byte[] stbl = box("stbl", stsd, chunkOffsetTable);
+        byte[] mdia = box("mdia", hdlr, box("minf", stbl));
+        return box("moov", mvhd, box("trak", box("tkhd", tkhd.array()), mdia));
+    }
+
+    private static byte[] chunkOffsets(String type, long... offsets) {
+        boolean wide = type.equals("co64");
+        ByteBuffer table = ByteBuffer.allocate(8 + offsets.length * (wide ? 8 : 4));
+        table.putInt(0).putInt(offsets.length);
+        for (long offset : offsets) {
+            if (wide) {
+                table.putLong(offset);
+            } else {
+                table.putInt((int) offset);
+            }
+        }
+        return box(type, table.array());
+    }
+
+    private static long[] readChunkOffsets(byte[] file, String type) {
+        ByteBuffer buf = ByteBuffer.wrap(file);
+        int body = indexOf(file, ascii(type)) + 4;
+        int count = buf.getInt(body + 4);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = type.equals("co64") ? buf.getLong(body + 8 + i * 8) : buf.getInt(body + 8 + i * 4) & 0xFFFFFFFFL;
+        }
+        return offsets;
+    }
+
+    private static List<String> topLevelTypes(byte[] file) {
+        List<String> types = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.wrap(file);
+        int position = 0;
+        while (position + 8 <= file.length) {
+            int size = buf.getInt(position);
+            types.add(new String(file, position + 4, 4, StandardCharsets.ISO_8859_1));
+            position += size == 0 ? file.length - position : size;
+        }
+        return types;
+    }
+
+    private static byte[] box(String type, byte[]... body) {
+        byte[] content = concat(body);
+        return concat(ints(8 + content.length), ascii(type), content);
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buf.putInt(value);
+        }
+        return buf.array();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("box not found");
+    }
+}
@@ -0,0 +1,174 @@
+package com.snet.service;
+
+import com.snet.dto.StorageGcReport;
+import com.snet.repository.BlobReferenceRepository;
+import com.snet.repository.ImageRenditionRepository;
+import com.snet.repository.PostShareRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StorageGarbageCollectorTest {
+
+    private static final long GRACE_PERIOD_MS = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    // Keys some file or rendition row points at
+    private final Set<String> referenced = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger lookups = new AtomicInteger();
+    // Run inside the first lookup (marking the batch) and the second (the re-check before deleting)
+    private Runnable onMark = () -> { };
+    private Runnable onRecheck = () -> { };
+
+    private BlobClaims claims;
+    private LocalBlobStore store;
+    private StorageGarbageCollector collector;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        BlobReferenceRepository repository = mock(BlobReferenceRepository.class);
+        when(repository.findReferencedKeys(anyCollection())).thenAnswer(call -> {
+            (lookups.incrementAndGet() == 1 ? onMark : onRecheck).run();
+            return call.<Collection<String>>getArgument(0).stream().filter(referenced::contains).toList();
+        });
+        PostShareRepository postShareRepository = mock(PostShareRepository.class);
+        when(postShareRepository.sumStaleQrCodes()).thenReturn(List.<Object[]>of(new Object[]{0L, 0L}));
+
+        claims = new BlobClaims(3_600_000);
+        store = new LocalBlobStore(claims, dir.resolve("blobs").toString(), dir.resolve("archive").toString(), 8192);
+        collector = new StorageGarbageCollector(store, claims, repository, mock(BlobReferenceService.class),
+                mock(ImageRenditionRepository.class), postShareRepository, mock(UploadSessionService.class),
+                mock(PlatformTransactionManager.class), true, false, GRACE_PERIOD_MS, 500, 0);
+    }
+
+    @Test
+    void orphanOlderThanTheGracePeriodIsDeleted() throws Exception {
+        String key = orphan("abandoned upload", true);
+
+        StorageGcReport report = collector.collect(false);
+
+        assertEquals(1, report.getOrphanedBlobs());
+        assertFalse(store.exists(key));
+    }
+
+    @Test
+    void referencedBlobIsKept() throws Exception {
+        String key = orphan("attached to a file", true);
+        referenced.add(key);
+
+        StorageGcReport report = collector.collect(false);
+
+        assertEquals(0, report.getOrphanedBlobs());
+        assertTrue(store.exists(key));
+    }
+
+    @Test
+    void blobWithinTheGracePeriodIsLeftAlone() throws Exception {
+        // Its upload may not have committed yet
+        String key = orphan("just written", false);
+
+        StorageGcReport report = collector.collect(false);
+
+        assertEquals(1, report.getScannedBlobs());
+        assertEquals(0, report.getOrphanedBlobs());
+        assertTrue(store.exists(key));
+    }
+
+    @Test
+    void claimedBlobIsKeptUntilTheClaimIsReleased() throws Exception {
+        String key = orphan("reused by an upload in progress", true);
+        claims.claim(key);
+
+        assertEquals(0, collector.collect(false).getOrphanedBlobs());
+        assertTrue(store.exists(key));
+
+        // The upload failed before referencing it
+        claims.release(key);
+        lookups.set(0);
+        assertEquals(1, collector.collect(false).getOrphanedBlobs());
+        assertFalse(store.exists(key));
+    }
+
+    @Test
+    void blobTouchedAfterTheListingIsKept() throws Exception {
+        String key = orphan("deduplicated while the sweep ran", true);
+        // A duplicate upload refreshes the payload's time after the listing saw it as old
+        onMark = () -> setLastModified(key, Instant.now());
+
+        StorageGcReport report = collector.collect(false);
+
+        assertEquals(0, report.getOrphanedBlobs());
+        assertTrue(store.exists(key));
+    }
+
+    @Test
+    void blobClaimedDuringTheChecksIsKept() throws Exception {
+        String key = orphan("claimed between the generation read and the delete", true);
+        // Claimed and given back while the references were checked: the generation moved on
+        onRecheck = () -> {
+            claims.claim(key);
+            claims.release(key);
+        };
+
+        StorageGcReport report = collector.collect(false);
+
+        assertEquals(0, report.getOrphanedBlobs());
+        assertTrue(store.exists(key));
+    }
+
+    @Test
+    void dryRunCountsWithoutDeleting() throws Exception {
+        String key = orphan("abandoned upload", true);
+
+        StorageGcReport report = collector.collect(true);
+
+        assertEquals(1, report.getOrphanedBlobs());
+        assertTrue(report.getOrphanedBlobBytes() > 0);
+        assertTrue(store.exists(key));
+    }
+
+    /**
+     * Stores content the way an upload does, then drops the upload's claim without referencing it.
+     */
+    private String orphan(String content, boolean old) throws IOException {
+        BlobStore.StoredBlob blob = store.put(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        claims.release(blob.key());
+        if (old) {
+            setLastModified(blob.key(), Instant.now().minus(Duration.ofMillis(2 * GRACE_PERIOD_MS)));
+        }
+        return blob.key();
+    }
+
+    private void setLastModified(String key, Instant time) {
+        try {
+            Files.setLastModifiedTime(store.localPath(key).orElseThrow(), FileTime.from(time));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.snet.service;
+
+import com.snet.model.User;
+import com.snet.repository.FileMetadataRepository;
+import com.snet.repository.UploadSessionRepository;
+import com.snet.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StorageQuotaServiceTest {
+
+    private UserRepository userRepository;
+    private FileMetadataRepository fileMetadataRepository;
+    private UploadSessionRepository uploadSessionRepository;
+    private StorageQuotaService service;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        fileMetadataRepository = mock(FileMetadataRepository.class);
+        uploadSessionRepository = mock(UploadSessionRepository.class);
+        service = new StorageQuotaService(userRepository, fileMetadataRepository, uploadSessionRepository);
+
+        // 1000 byte quota, 200 committed, 300 held by an open upload session: 500 left
+        user = user(1L, 1000, 200);
+        when(uploadSessionRepository.sumReservedByUser(eq(user), any())).thenReturn(300L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void reserveAdmitsUploadsUpToWhatIsLeft() {
+        StorageQuotaService.Reservation first = service.reserve(user, 400);
+
+        assertThrows(RuntimeException.class, () -> service.reserve(user, 101));
+        StorageQuotaService.Reservation second = service.reserve(user, 100);
+        assertEquals(500, service.getInFlightBytes(1L));
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void closeReleasesTheReservedBytesOnce() {
+        StorageQuotaService.Reservation reservation = service.reserve(user, 400);
+        StorageQuotaService.Reservation other = service.reserve(user, 50);
+
+        reservation.close();
+        reservation.close();
+
+        assertEquals(50, service.getInFlightBytes(1L));
+        other.close();
+        assertEquals(0, service.getInFlightBytes(1L));
+    }
+
+    @Test
+    void closeInsideATransactionReleasesOnlyOnceItCompletes() {
+        StorageQuotaService.Reservation reservation = service.reserve(user, 400);
+
+        TransactionSynchronizationManager.initSynchronization();
+        reservation.close();
+        // The charge has not committed yet, so the bytes still count
+        assertEquals(400, service.getInFlightBytes(1L));
+        assertThrows(RuntimeException.class, () -> service.reserve(user, 200));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+
+        assertEquals(0, service.getInFlightBytes(1L));
+    }
+
+    @Test
+    void emptyUploadsReserveNothing() {
+        service.reserve(user, 0).close();
+
+        verify(uploadSessionRepository, never()).sumReservedByUser(any(), any());
+        assertEquals(0, service.getInFlightBytes(1L));
+    }
+
+    @Test
+    void otherUsersDoNotShareTheBudget() {
+        User other = user(2L, 1000, 0);
+        StorageQuotaService.Reservation full = service.reserve(user, 500);
+
+        service.reserve(other, 900).close();
+
+        assertEquals(500, service.getInFlightBytes(1L));
+        assertEquals(0, service.getInFlightBytes(2L));
+        full.close();
+    }
+
+    @Test
+    void concurrentReservationsNeverExceedTheQuota() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<StorageQuotaService.Reservation>> attempts = new ArrayList<>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                attempts.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        return service.reserve(user, 100);
+                    } catch (RuntimeException e) {
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int admitted = 0;
+            for (Future<StorageQuotaService.Reservation> attempt : attempts) {
+                if (attempt.get(10, TimeUnit.SECONDS) != null) {
+                    admitted++;
+                }
+            }
+            assertEquals(5, admitted);
+            assertEquals(500, service.getInFlightBytes(1L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void chargeReportsAConditionalUpdateThatMatchedNothing() {
+        when(userRepository.addStorageUsed(1L, 100)).thenReturn(1);
+        when(userRepository.addStorageUsed(1L, 5000)).thenReturn(0);
+
+        assertTrue(service.charge(1L, 100));
+        assertFalse(service.charge(1L, 5000));
+    }
+
+    @Test
+    void forgetDropsTheCounterOnlyAfterCommit() {
+        StorageQuotaService.Reservation reservation = service.reserve(user, 100);
+
+        TransactionSynchronizationManager.initSynchronization();
+        service.forget(1L);
+        assertEquals(100, service.getInFlightBytes(1L));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+
+        assertEquals(0, service.getInFlightBytes(1L));
+        reservation.close();
+    }
+
+    @Test
+    void reconcileCorrectsOnlyDriftedUsers() {
+        User drifted = user(1L, 1000, 500);
+        User accurate = user(2L, 1000, 70);
+        when(userRepository.findStorageUsed(any())).thenReturn(List.of(new Object[]{1L, 500L}, new Object[]{2L, 70L}));
+        when(userRepository.getReferenceById(1L)).thenReturn(drifted);
+        when(userRepository.getReferenceById(2L)).thenReturn(accurate);
+        when(fileMetadataRepository.calculateUserStorageUsed(drifted)).thenReturn(300L);
+        when(fileMetadataRepository.calculateUserStorageUsed(accurate)).thenReturn(70L);
+        when(userRepository.compareAndSetStorageUsed(1L, 500L, 300L)).thenReturn(1);
+
+        service.reconcile();
+
+        verify(userRepository).compareAndSetStorageUsed(1L, 500L, 300L);
+        verify(userRepository, never()).compareAndSetStorageUsed(eq(2L), anyLong(), anyLong());
+    }
+
+    private static User user(Long id, long quota, long used) {
+        User user = new User();
+        user.setId(id);
+        user.setStorageQuota(quota);
+        user.setStorageUsed(used);
+        return user;
+    }
+}
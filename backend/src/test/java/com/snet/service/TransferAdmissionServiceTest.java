@@ -0,0 +1,209 @@
+package com.snet.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferAdmissionServiceTest {
+
+    private static final long MIB = 1024 * 1024;
+
+    private static TransferAdmissionService admission(int maxTransfers, int maxTransfersPerClient) {
+        // Short queue timeout, so rejections come back quickly
+        return new TransferAdmissionService(maxTransfers, maxTransfersPerClient, 64 * MIB, 16 * MIB, 50, 5);
+    }
+
+    @Test
+    void perClientCapRejectsOnlyThatClient() {
+        TransferAdmissionService service = admission(10, 2);
+        TransferAdmissionService.Permit first = service.admitTransfer("user:a");
+        TransferAdmissionService.Permit second = service.admitTransfer("user:a");
+
+        TransferAdmissionService.RejectedException rejected = assertThrows(TransferAdmissionService.RejectedException.class,
+                () -> service.admitTransfer("user:a"));
+        assertEquals(5, rejected.getRetryAfterSeconds());
+        // Another client still gets in
+        service.admitTransfer("user:b").close();
+
+        first.close();
+        service.admitTransfer("user:a").close();
+        second.close();
+    }
+
+    @Test
+    void globalCapRejectsEveryClient() {
+        TransferAdmissionService service = admission(2, 4);
+        TransferAdmissionService.Permit a = service.admitTransfer("user:a");
+        TransferAdmissionService.Permit b = service.admitTransfer("user:b");
+
+        assertThrows(TransferAdmissionService.RejectedException.class, () -> service.admitTransfer("user:c"));
+        assertEquals(2, service.getStats().getActiveTransfers());
+
+        a.close();
+        service.admitTransfer("user:c").close();
+        b.close();
+        assertEquals(0, service.getStats().getActiveTransfers());
+    }
+
+    @Test
+    void queuedRequestIsAdmittedWhenASlotFrees() throws Exception {
+        TransferAdmissionService service = new TransferAdmissionService(1, 1, 64 * MIB, 16 * MIB, 5_000, 5);
+        TransferAdmissionService.Permit held = service.admitTransfer("user:a");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> queued = executor.submit(() -> service.admitTransfer("user:a").close());
+            while (service.getStats().getWaiting() == 0) {
+                Thread.sleep(5);
+            }
+            held.close();
+            queued.get(5, TimeUnit.SECONDS);
+            assertEquals(1, service.getStats().getQueuedTotal());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void budgetIsKeptWhileAPermitIsHeldAndDroppedAfterTheLastCloses() {
+        TransferAdmissionService service = admission(10, 1);
+        TransferAdmissionService.Permit download = service.admitTransfer("ip:203.0.113.7");
+        assertEquals(1, service.getStats().getTrackedClients());
+
+        // However long the download runs, the same budget answers the client's next request
+        assertThrows(TransferAdmissionService.RejectedException.class, () -> service.admitTransfer("ip:203.0.113.7"));
+        assertEquals(1, service.getStats().getTrackedClients());
+
+        download.close();
+        assertEquals(0, service.getStats().getTrackedClients());
+        service.admitTransfer("ip:203.0.113.7").close();
+        assertEquals(0, service.getStats().getTrackedClients());
+    }
+
+    @Test
+    void permitsThatAreNeverAcquiredTrackNothing() {
+        TransferAdmissionService service = admission(10, 1);
+
+        service.transferPermit("user:a").close();
+        service.bufferPermit("user:a", MIB).close();
+
+        assertEquals(0, service.getStats().getTrackedClients());
+        assertEquals(0, service.getStats().getAdmittedTotal());
+    }
+
+    @Test
+    void closeIsIdempotent() {
+        TransferAdmissionService service = admission(10, 1);
+        TransferAdmissionService.Permit permit = service.admitTransfer("user:a");
+
+        permit.close();
+        permit.close();
+
+        assertEquals(0, service.getStats().getActiveTransfers());
+        TransferAdmissionService.Permit next = service.admitTransfer("user:a");
+        assertThrows(TransferAdmissionService.RejectedException.class, () -> service.admitTransfer("user:a"));
+        next.close();
+    }
+
+    @Test
+    void racingClosesReleaseOnce() throws Exception {
+        TransferAdmissionService service = admission(10, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 200; i++) {
+                // The export body and the async completion callback both close the same permit
+                TransferAdmissionService.Permit permit = service.admitTransfer("user:a");
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> first = executor.submit(() -> {
+                    start.await();
+                    permit.close();
+                    return null;
+                });
+                Future<?> second = executor.submit(() -> {
+                    start.await();
+                    permit.close();
+                    return null;
+                });
+                start.countDown();
+                first.get(5, TimeUnit.SECONDS);
+                second.get(5, TimeUnit.SECONDS);
+
+                assertEquals(0, service.getStats().getActiveTransfers());
+                assertEquals(0, service.getStats().getTrackedClients());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Capacity did not grow past the caps
+        TransferAdmissionService.Permit held = service.admitTransfer("user:a");
+        assertThrows(TransferAdmissionService.RejectedException.class, () -> service.admitTransfer("user:a"));
+        held.close();
+    }
+
+    @Test
+    void bufferReservationLargerThanTheClientBudgetRunsAlone() {
+        TransferAdmissionService service = admission(10, 4);
+        TransferAdmissionService.Permit huge = service.bufferPermit("user:a", 100 * MIB);
+        huge.acquire();
+        assertEquals(16 * MIB, service.getStats().getBufferedBytes());
+
+        TransferAdmissionService.Permit small = service.bufferPermit("user:a", MIB);
+        assertThrows(TransferAdmissionService.RejectedException.class, small::acquire);
+
+        huge.close();
+        small.acquire();
+        small.close();
+        assertEquals(0, service.getStats().getBufferedBytes());
+    }
+
+    @Test
+    void concurrentClientsNeverExceedTheirCaps() throws Exception {
+        TransferAdmissionService service = new TransferAdmissionService(6, 2, 64 * MIB, 16 * MIB, 10_000, 5);
+        int[] active = new int[3];
+        int[] peak = new int[3];
+        ExecutorService executor = Executors.newFixedThreadPool(12);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 12; t++) {
+                int client = t % 3;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 50; i++) {
+                        try (TransferAdmissionService.Permit permit = service.admitTransfer("user:" + client)) {
+                            synchronized (active) {
+                                peak[client] = Math.max(peak[client], ++active[client]);
+                            }
+                            Thread.yield();
+                            synchronized (active) {
+                                active[client]--;
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int client = 0; client < 3; client++) {
+            assertTrue(peak[client] <= 2, "client " + client + " peaked at " + peak[client]);
+        }
+        assertEquals(0, service.getStats().getActiveTransfers());
+        assertEquals(0, service.getStats().getTrackedClients());
+    }
+}
@@ -0,0 +1,284 @@
+package com.snet.service;
+
+import com.snet.dto.CreateUploadSessionRequest;
+import com.snet.dto.FileResponse;
+import com.snet.dto.UploadSessionResponse;
+import com.snet.model.UploadSession;
+import com.snet.model.User;
+import com.snet.repository.FileMetadataRepository;
+import com.snet.repository.UploadSessionRepository;
+import com.snet.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadSessionServiceTest {
+
+    private static final String EMAIL = "owner@example.com";
+
+    @TempDir
+    Path dir;
+
+    // upload_sessions rows by id, what the repository queries would leave in the table
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private FileService fileService;
+    private UploadSessionService service;
+    private User user;
+    private byte[] ingested;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        user = new User();
+        user.setId(1L);
+        user.setEmail(EMAIL);
+        user.setStorageQuota(100L);
+        user.setStorageUsed(0L);
+
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByEmail(EMAIL)).thenReturn(Optional.of(user));
+
+        UploadSessionRepository repository = mock(UploadSessionRepository.class);
+        when(repository.save(any())).thenAnswer(call -> {
+            UploadSession session = call.getArgument(0);
+            sessions.put(session.getId(), copy(session));
+            return session;
+        });
+        when(repository.findByIdAndUserEmail(anyString(), anyString())).thenAnswer(call ->
+                Optional.ofNullable(sessions.get(call.<String>getArgument(0)))
+                        .filter(session -> session.getUser().getEmail().equals(call.getArgument(1)))
+                        .map(UploadSessionServiceTest::copy));
+        when(repository.advance(anyString(), anyLong(), anyLong(), any())).thenAnswer(call -> {
+            UploadSession session = sessions.get(call.<String>getArgument(0));
+            if (session == null || !session.getReceivedBytes().equals(call.getArgument(1))) {
+                return 0;
+            }
+            session.setReceivedBytes(call.getArgument(2));
+            session.setExpiresAt(call.getArgument(3));
+            return 1;
+        });
+        when(repository.existsById(anyString())).thenAnswer(call -> sessions.containsKey(call.<String>getArgument(0)));
+        when(repository.sumReservedByUser(any(), any())).thenAnswer(call -> sessions.values().stream()
+                .mapToLong(UploadSession::getTotalSize).sum());
+        doAnswer(call -> sessions.remove(call.<UploadSession>getArgument(0).getId())).when(repository).delete(any());
+
+        fileService = mock(FileService.class);
+        when(fileService.uploadStream(eq(EMAIL), any(), anyString(), any(), anyLong(), any(), any())).thenAnswer(call -> {
+            ingested = call.<InputStream>getArgument(1).readAllBytes();
+            return FileResponse.builder().id(42L).build();
+        });
+
+        StorageQuotaService quota = new StorageQuotaService(userRepository, mock(FileMetadataRepository.class), repository);
+        service = new UploadSessionService(repository, userRepository, fileService, quota);
+        ReflectionTestUtils.setField(service, "maxFileSize", 1_000_000L);
+        // Smaller than the chunks, so every chunk takes several reads
+        ReflectionTestUtils.setField(service, "bufferSize", 4);
+        ReflectionTestUtils.setField(service, "sessionDir", dir.toString());
+        ReflectionTestUtils.setField(service, "sessionTtlMs", 3_600_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void chunksAppendAtTheRecordedOffsetAndCompleteIntoOneFile() throws Exception {
+        String uploadId = create(10).getUploadId();
+
+        assertEquals(5, service.writeChunk(uploadId, EMAIL, 0, body("hello")).getReceivedBytes());
+        assertEquals(5, service.getProgress(uploadId, EMAIL).getReceivedBytes());
+        assertEquals(10, service.writeChunk(uploadId, EMAIL, 5, body("world")).getReceivedBytes());
+
+        FileResponse[] response = new FileResponse[1];
+        inTransaction(() -> response[0] = service.completeSession(uploadId, EMAIL));
+
+        assertEquals(42L, response[0].getId());
+        assertArrayEquals("helloworld".getBytes(StandardCharsets.US_ASCII), ingested);
+        assertFalse(sessions.containsKey(uploadId));
+        assertFalse(Files.exists(part(uploadId)));
+    }
+
+    @Test
+    void chunkAtAStaleOffsetIsRejected() throws Exception {
+        String uploadId = create(10).getUploadId();
+        service.writeChunk(uploadId, EMAIL, 0, body("hello"));
+
+        // A retry of the first chunk after its response was lost
+        RuntimeException rejected = assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, EMAIL, 0, body("hello")));
+
+        assertEquals("Offset mismatch, expected 5", rejected.getMessage());
+        assertEquals(5, service.getProgress(uploadId, EMAIL).getReceivedBytes());
+    }
+
+    @Test
+    void droppedConnectionKeepsTheBytesThatArrivedAndTheClientResumes() throws Exception {
+        String uploadId = create(10).getUploadId();
+
+        assertThrows(IOException.class, () -> service.writeChunk(uploadId, EMAIL, 0, dropsAfter("hello wo")));
+        long received = service.getProgress(uploadId, EMAIL).getReceivedBytes();
+        assertEquals(8, received);
+
+        service.writeChunk(uploadId, EMAIL, received, body("rl"));
+        inTransaction(() -> service.completeSession(uploadId, EMAIL));
+
+        assertArrayEquals("hello worl".getBytes(StandardCharsets.US_ASCII), ingested);
+    }
+
+    @Test
+    void resumedChunkOverwritesATailThatWasNeverRecorded() throws Exception {
+        String uploadId = create(6).getUploadId();
+        service.writeChunk(uploadId, EMAIL, 0, body("abc"));
+        // Written to disk by a chunk whose progress update never happened
+        Files.write(part(uploadId), "abcXYZ".getBytes(StandardCharsets.US_ASCII));
+
+        service.writeChunk(uploadId, EMAIL, 3, body("def"));
+        inTransaction(() -> service.completeSession(uploadId, EMAIL));
+
+        assertArrayEquals("abcdef".getBytes(StandardCharsets.US_ASCII), ingested);
+    }
+
+    @Test
+    void chunkPastTheDeclaredSizeIsRejected() throws Exception {
+        String uploadId = create(4).getUploadId();
+
+        RuntimeException rejected = assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, EMAIL, 0, body("hello")));
+
+        assertEquals("Chunk exceeds declared upload size", rejected.getMessage());
+        // The part file never grows past the declared size
+        assertEquals(4, Files.size(part(uploadId)));
+        assertEquals(4, service.getProgress(uploadId, EMAIL).getReceivedBytes());
+    }
+
+    @Test
+    void incompleteUploadCannotComplete() throws Exception {
+        String uploadId = create(10).getUploadId();
+        service.writeChunk(uploadId, EMAIL, 0, body("hello"));
+
+        assertThrows(RuntimeException.class, () -> inTransaction(() -> service.completeSession(uploadId, EMAIL)));
+
+        verify(fileService, never()).uploadStream(any(), any(), any(), any(), anyLong(), any(), any());
+        assertTrue(sessions.containsKey(uploadId));
+        assertTrue(Files.exists(part(uploadId)));
+    }
+
+    @Test
+    void openSessionsHoldTheirSizeAgainstTheQuota() throws Exception {
+        create(80);
+
+        assertThrows(RuntimeException.class, () -> create(30));
+        create(20);
+    }
+
+    @Test
+    void otherUsersCannotSeeOrWriteTheSession() throws Exception {
+        String uploadId = create(10).getUploadId();
+
+        assertThrows(RuntimeException.class, () -> service.getProgress(uploadId, "other@example.com"));
+        assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, "other@example.com", 0, body("hello")));
+        assertEquals(0, service.getProgress(uploadId, EMAIL).getReceivedBytes());
+    }
+
+    private UploadSessionResponse create(long totalSize) throws IOException {
+        return service.createSession(EMAIL, CreateUploadSessionRequest.builder()
+                .fileName("video.mp4")
+                .fileType("video/mp4")
+                .totalSize(totalSize)
+                .build());
+    }
+
+    private Path part(String uploadId) {
+        return dir.resolve(uploadId + ".part");
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Delivers the content, then fails the way a reset connection does.
+     */
+    private static InputStream dropsAfter(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        return new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position == bytes.length) {
+                    throw new IOException("Connection reset");
+                }
+                return bytes[position++] & 0xFF;
+            }
+        };
+    }
+
+    private static UploadSession copy(UploadSession session) {
+        return UploadSession.builder()
+                .id(session.getId())
+                .user(session.getUser())
+                .fileName(session.getFileName())
+                .fileType(session.getFileType())
+                .description(session.getDescription())
+                .totalSize(session.getTotalSize())
+                .receivedBytes(session.getReceivedBytes())
+                .expiresAt(session.getExpiresAt())
+                .build();
+    }
+
+    /**
+     * Runs work with transaction synchronization active, then fires afterCommit and
+     * afterCompletion the way a committing transaction manager does.
+     */
+    private static void inTransaction(ThrowingRunnable work) throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        List<TransactionSynchronization> synchronizations;
+        try {
+            work.run();
+        } finally {
+            synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    }
+
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}